@@ -1,9 +1,15 @@
 package com.aws.ssa.keyspaces.loadbalancing;
 
+import com.aws.ssa.keyspaces.metrics.KeyspacesMetrics;
+import com.aws.ssa.keyspaces.metrics.SlidingWindowCounter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
 import com.datastax.oss.driver.api.core.context.DriverContext;
 import com.datastax.oss.driver.api.core.metadata.Node;
 import com.datastax.oss.driver.api.core.session.Request;
 import com.datastax.oss.driver.api.core.session.Session;
+import com.datastax.oss.driver.api.core.tracker.RequestTracker;
 import com.datastax.oss.driver.internal.core.loadbalancing.BasicLoadBalancingPolicy;
 import com.datastax.oss.driver.internal.core.loadbalancing.helper.MandatoryLocalDcHelper;
 import com.datastax.oss.driver.internal.core.pool.ChannelPool;
@@ -17,24 +23,241 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /***
  * AmazonKeyspacesLoadBalancingPolicy is a round robin policy that randomizes host order. While you may see a three to nine
  * node cluster when connecting to Amazon Keyspaces, connections are loadbalanced service side to multiple request handlers. This
  * policy provides even distribution across the driver connection pool. Traditional token-aware policies and latency aware policies
  * are not necessary for good performance in Amazon Keyspaces.
+ *
+ * With basic.load-balancing-policy.mode = power-of-two-choices, the policy samples two random local nodes and puts first the
+ * one with fewer in-flight requests per open connection. The rest of the plan stays random. A node whose connections are
+ * backed up gets fewer new requests, which keeps the per-connection load even when running close to the per-connection quota.
+ *
+ * With basic.load-balancing-policy.mode = connection-headroom, the policy is also a request tracker that counts the requests
+ * each node served in a one second sliding window, including retries and speculative executions sent to nodes other than the
+ * head of the plan. It puts first the local node with the most remaining requests per second, that is
+ * requests-per-connection-per-second times the connections of its pool minus its current rate and its in-flight requests. The
+ * driver's channel pool then spreads the node's requests across its connections by in-flight count, so the headroom is per
+ * node, averaged over its connections. The utilization of each node's connections is published as the gauge
+ * &lt;session&gt;.keyspaces.nodes.&lt;node&gt;.&lt;profile&gt;.connection-utilization when the driver metrics are enabled.
+ *
+ * The live local nodes are kept in a snapshot array, rebuilt only when a node is added, removed, comes up or goes down. Each
+ * query plan is a {@link PermutationQueryPlan} view of the snapshot, from a random start with a random stride coprime with the
+ * number of nodes, so no array is copied or shuffled per request and every node is equally likely at every position. The second
+ * node of the plan is drawn at random among the others, so every ordered pair of nodes is equally likely at the first two
+ * positions.
  */
-public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalancingPolicy {
+public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalancingPolicy implements RequestTracker {
     private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesRoundRobinLoadBalancingPolicy.class);
 
+    /***
+     * When true, the first node of the plan is the less loaded of two random nodes
+     */
+    private final boolean powerOfTwoChoices;
+
+    /***
+     * When true, the first node of the plan is the node with the most remaining requests per second
+     */
+    private final boolean connectionHeadroom;
+
+    private final int requestsPerConnection;
+
+    /***
+     * Requests served by each node in the last second, only tracked in connection-headroom mode
+     */
+    private final ConcurrentMap<Node, SlidingWindowCounter> rates = new ConcurrentHashMap<>();
+
+    /***
+     * Registry for the connection utilization gauges, null when the driver metrics are disabled
+     */
+    private final MetricRegistry registry;
+
+    /***
+     * Incremented on every topology change, a snapshot built at an older version is rebuilt
+     */
+    private final AtomicLong topologyVersion = new AtomicLong();
+
+    private volatile NodeSnapshot snapshot;
+
+    /***
+     * Session of the policy, set when the session is ready, used to read the pool sizes for the utilization gauges
+     */
+    private volatile Session session;
+
     public AmazonKeyspacesRoundRobinLoadBalancingPolicy(@NonNull DriverContext context, @NonNull String profileName) {
         super(context, profileName);
+
+        String mode = profile.getString(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_MODE, KeyspacesLoadBalancingOption.DEFAULT_MODE);
+
+        if(!KeyspacesLoadBalancingOption.MODE_RANDOM.equals(mode) && !KeyspacesLoadBalancingOption.MODE_POWER_OF_TWO_CHOICES.equals(mode) && !KeyspacesLoadBalancingOption.MODE_CONNECTION_HEADROOM.equals(mode)){
+            LOG.error("[{}] Load balancing mode must be {}, {} or {}, currently {}", logPrefix, KeyspacesLoadBalancingOption.MODE_RANDOM, KeyspacesLoadBalancingOption.MODE_POWER_OF_TWO_CHOICES, KeyspacesLoadBalancingOption.MODE_CONNECTION_HEADROOM, mode);
+            throw new IllegalArgumentException("Load balancing mode (basic.load-balancing-policy.mode) must be " + KeyspacesLoadBalancingOption.MODE_RANDOM + ", " + KeyspacesLoadBalancingOption.MODE_POWER_OF_TWO_CHOICES + " or " + KeyspacesLoadBalancingOption.MODE_CONNECTION_HEADROOM + ", currently " + mode);
+        }
+        this.powerOfTwoChoices = KeyspacesLoadBalancingOption.MODE_POWER_OF_TWO_CHOICES.equals(mode);
+        this.connectionHeadroom = KeyspacesLoadBalancingOption.MODE_CONNECTION_HEADROOM.equals(mode);
+
+        this.requestsPerConnection = profile.getInt(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_REQUESTS_PER_CONNECTION, KeyspacesLoadBalancingOption.DEFAULT_REQUESTS_PER_CONNECTION);
+
+        if(requestsPerConnection < 1){
+            LOG.error("[{}] Requests per connection per second must be at least 1, currently {}", logPrefix, requestsPerConnection);
+            throw new IllegalArgumentException("Requests per connection per second (basic.load-balancing-policy.requests-per-connection-per-second) must be at least 1, currently " + requestsPerConnection);
+        }
+        this.registry = connectionHeadroom ? KeyspacesMetrics.registryOf(context) : null;
     }
 
     public void init(@NonNull Map<UUID, Node> nodes, @NonNull DistanceReporter distanceReporter) {
         super.init(nodes, distanceReporter);
         LOG.info("Total number of nodes visible to driver: " + ((nodes == null)?0:nodes.size()));
+
+        topologyVersion.incrementAndGet();
+    }
+
+    @Override
+    public void onAdd(@NonNull Node node) {
+        super.onAdd(node);
+        topologyVersion.incrementAndGet();
+    }
+
+    @Override
+    public void onUp(@NonNull Node node) {
+        super.onUp(node);
+        topologyVersion.incrementAndGet();
+    }
+
+    @Override
+    public void onDown(@NonNull Node node) {
+        super.onDown(node);
+        topologyVersion.incrementAndGet();
+    }
+
+    @Override
+    public void onRemove(@NonNull Node node) {
+        super.onRemove(node);
+        topologyVersion.incrementAndGet();
+
+        removeRate(node);
+    }
+
+    /***
+     * The policy counts the requests served by each node in connection-headroom mode
+     */
+    @NonNull
+    @Override
+    public Optional<RequestTracker> getRequestTracker() {
+        return connectionHeadroom ? Optional.of(this) : Optional.empty();
+    }
+
+    @Override
+    public void onSessionReady(@NonNull Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onNodeSuccess(@NonNull Request request, long latencyNanos, @NonNull DriverExecutionProfile executionProfile,
+                              @NonNull Node node, @NonNull String requestLogPrefix) {
+        rateOf(node).increment();
+    }
+
+    @Override
+    public void onNodeError(@NonNull Request request, @NonNull Throwable error, long latencyNanos, @NonNull DriverExecutionProfile executionProfile,
+                            @NonNull Node node, @NonNull String requestLogPrefix) {
+        rateOf(node).increment();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        for(Node node : rates.keySet()){
+            removeRate(node);
+        }
+    }
+
+    private void removeRate(@NonNull Node node) {
+        if(rates.remove(node) != null && registry != null){
+            registry.remove(utilizationGaugeName(node));
+        }
+    }
+
+    /***
+     * Window of a node, created with its utilization gauge on the first request served by the node
+     */
+    SlidingWindowCounter rateOf(@NonNull Node node) {
+        SlidingWindowCounter window = rates.get(node);
+
+        if(window == null){
+            window = rates.computeIfAbsent(node, key -> {
+                if(registry != null){
+                    registry.gauge(utilizationGaugeName(key), () -> (Gauge<Double>) () -> getConnectionUtilization(key));
+                }
+                return new SlidingWindowCounter(TimeUnit.SECONDS.toMillis(1));
+            });
+        }
+        return window;
+    }
+
+    /***
+     * Gauge name of a node, with the profile so that the policies of several profiles do not replace each other's gauges
+     */
+    private String utilizationGaugeName(Node node) {
+        return KeyspacesMetrics.name(context, "nodes." + node.getEndPoint().asMetricPrefix() + "." + profile.getName() + ".connection-utilization");
+    }
+
+    /***
+     * Requests per second served by the node over its per-second quota, requests-per-connection-per-second times the
+     * connections of its pool
+     * @param node node to report
+     * @return the average utilization of the node's connections, 1.0 at the quota, 0 for nodes without requests
+     */
+    public double getConnectionUtilization(@NonNull Node node) {
+        SlidingWindowCounter window = rates.get(node);
+
+        if(window == null){
+            return 0.0;
+        }
+        long requestsPerSecond = window.sum();
+
+        int connections = getSize(node, session);
+
+        if(connections == 0){
+            return (requestsPerSecond > 0) ? Double.POSITIVE_INFINITY : 0.0;
+        }
+        return requestsPerSecond / ((double) requestsPerConnection * connections);
+    }
+
+    /***
+     * Remaining requests per second of a node across the connections of its pool, negative when the node is over its quota.
+     * Requests in flight are not counted until they complete, so they are taken from the headroom too
+     */
+    protected long getHeadroom(@NonNull Node node, @Nullable Session session) {
+        SlidingWindowCounter window = rates.get(node);
+
+        long requestsPerSecond = (window == null) ? 0 : window.sum();
+
+        return (long) requestsPerConnection * getSize(node, session) - requestsPerSecond - getInFlight(node, session);
+    }
+
+    /***
+     * Snapshot of the live local nodes, rebuilt after a topology change. The version is read before the nodes, so a
+     * change that happens during the rebuild leaves the snapshot outdated and it is rebuilt on the next request.
+     */
+    NodeSnapshot getSnapshot() {
+        long version = topologyVersion.get();
+
+        NodeSnapshot current = snapshot;
+
+        if(current == null || current.version != version){
+            current = new NodeSnapshot(version, this.getLiveNodes().dc(this.getLocalDatacenter()).toArray());
+
+            snapshot = current;
+        }
+        return current;
     }
 
     @NonNull
@@ -42,14 +265,30 @@ public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalan
         return (new MandatoryLocalDcHelper(this.context, this.profile, this.logPrefix)).discoverLocalDc(nodes);
     }
 
-    protected int getInFlight(@NonNull Node node, @NonNull Session session) {
-        ChannelPool pool = (ChannelPool)((DefaultSession)session).getPools().get(node);
+    protected int getInFlight(@NonNull Node node, @Nullable Session session) {
+        ChannelPool pool = (session instanceof DefaultSession) ? ((DefaultSession)session).getPools().get(node) : null;
         return pool == null ? 0 : pool.getInFlight();
     }
-    protected int getSize(@NonNull Node node, @NonNull Session session) {
-        ChannelPool pool = (ChannelPool)((DefaultSession)session).getPools().get(node);
+    protected int getSize(@NonNull Node node, @Nullable Session session) {
+        ChannelPool pool = (session instanceof DefaultSession) ? ((DefaultSession)session).getPools().get(node) : null;
         return pool == null ? 0 : pool.size();
     }
+
+    /***
+     * Compare the in-flight requests per open connection of two nodes, without dividing. A node without open connections
+     * is never less loaded, and a node with open connections is less loaded than a node without.
+     * @return true if the candidate has fewer in-flight requests per connection than the other node, or is the only one with
+     * open connections
+     */
+    protected boolean isLessLoaded(@NonNull Node candidate, @NonNull Node other, @Nullable Session session) {
+        int candidateSize = getSize(candidate, session);
+        int otherSize = getSize(other, session);
+
+        if(candidateSize == 0 || otherSize == 0){
+            return candidateSize > otherSize;
+        }
+        return (long) getInFlight(candidate, session) * otherSize < (long) getInFlight(other, session) * candidateSize;
+    }
     /***
      * Fisher–Yates or Richard Durstenfeld shuffle implemented from lowest index to highest
      * https://en.wikipedia.org/wiki/Fisher%E2%80%93Yates_shuffle#The_modern_algorithm
@@ -69,21 +308,22 @@ public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalan
     @NonNull
     public Queue<Node> newQueryPlan(@Nullable Request request, @Nullable Session session) {
 
-        Object[] currentNodes = this.getLiveNodes().dc(this.getLocalDatacenter()).toArray();
+        NodeSnapshot currentSnapshot = getSnapshot();
 
-        Queue<Node> queryPlan = newQueryPlan(request, session, currentNodes);
+        Queue<Node> queryPlan = newQueryPlan(request, session, currentSnapshot);
 
-        int totalNodes = currentNodes.length;
+        int totalNodes = currentSnapshot.nodes.length;
 
         if (LOG.isTraceEnabled()) {
-            if (totalNodes > 0) {
-                //int currentSize = getSize((Node) currentNodes[0], session);
+            //plans with remote dc failover do not support peek
+            if (totalNodes > 0 && queryPlan instanceof PermutationQueryPlan) {
+                Node first = queryPlan.peek();
 
-                int inflight = getInFlight((Node) currentNodes[0], session);
+                int inflight = getInFlight(first, session);
 
-                String firstNode = ((Node) currentNodes[0]).getEndPoint().toString();
+                String firstNode = first.getEndPoint().toString();
 
-                int openConnections = ((Node) currentNodes[0]).getOpenConnections();
+                int openConnections = first.getOpenConnections();
 
                 int requestPerMostUsedConnection = (openConnections > 0) ? (inflight / openConnections) : 0;
 
@@ -93,6 +333,66 @@ public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalan
         return queryPlan;
     }
 
+    /***
+     * Query plan over the snapshot, from a random start and a random stride
+     */
+    @NonNull
+    Queue<Node> newQueryPlan(@Nullable Request request, @Nullable Session session, NodeSnapshot currentSnapshot) {
+        int totalNodes = currentSnapshot.nodes.length;
+
+        if(totalNodes == 0) {
+
+            LOG.trace(" Total local nodes is 0, returning empty query plan");
+
+            return this.maybeAddDcFailover(request, QueryPlan.EMPTY);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int start = random.nextInt(totalNodes);
+
+        int stride = currentSnapshot.strides[random.nextInt(currentSnapshot.strides.length)];
+
+        int headStep = 0;
+
+        if(connectionHeadroom){
+            headStep = mostHeadroomStep(currentSnapshot.nodes, start, stride, session);
+        }
+        //the second node is drawn independently of the stride, among the nodes other than the head
+        int secondStep = (totalNodes > 1) ? (headStep + 1 + random.nextInt(totalNodes - 1)) % totalNodes : 1;
+
+        if(powerOfTwoChoices && totalNodes > 1){
+            Node first = (Node) currentSnapshot.nodes[start];
+            Node second = (Node) currentSnapshot.nodes[(int) ((start + (long) secondStep * stride) % totalNodes)];
+
+            if(isLessLoaded(second, first, session)){
+                headStep = secondStep;
+                secondStep = 0;
+            }
+        }
+        return this.maybeAddDcFailover(request, new PermutationQueryPlan(currentSnapshot.nodes, start, stride, headStep, secondStep));
+    }
+
+    /***
+     * Step of the random order with the most headroom, ties go to the earliest step so that they are broken randomly
+     */
+    private int mostHeadroomStep(Object[] nodes, int start, int stride, @Nullable Session session) {
+        int bestStep = 0;
+        long bestHeadroom = Long.MIN_VALUE;
+
+        for(int step = 0; step < nodes.length; step++){
+            long headroom = getHeadroom((Node) nodes[(int) ((start + (long) step * stride) % nodes.length)], session);
+
+            if(headroom > bestHeadroom){
+                bestHeadroom = headroom;
+                bestStep = step;
+            }
+        }
+        return bestStep;
+    }
+
+    /***
+     * Query plan over the nodes, shuffled in place
+     */
     @NonNull
     public Queue<Node> newQueryPlan(@Nullable Request request, @Nullable Session session, Object[] currentNodes ) {
         int totalNodes = currentNodes.length;
@@ -108,10 +408,68 @@ public class AmazonKeyspacesRoundRobinLoadBalancingPolicy extends BasicLoadBalan
             ThreadLocalRandom random = ThreadLocalRandom.current();
 
             reverseDurstenfeldShuffle(currentNodes, random);
+
+            //after the shuffle the first two nodes are a random sample of two
+            if(powerOfTwoChoices && isLessLoaded((Node) currentNodes[1], (Node) currentNodes[0], session)){
+                ArrayUtils.swap(currentNodes, 0, 1);
+            }
         }
 
         QueryPlan plan = new SimpleQueryPlan(currentNodes);
 
         return this.maybeAddDcFailover(request, (Queue) plan);
     }
+
+    public boolean isPowerOfTwoChoices() {
+        return powerOfTwoChoices;
+    }
+
+    public boolean isConnectionHeadroom() {
+        return connectionHeadroom;
+    }
+
+    /***
+     * Live local nodes and the strides coprime with their number, shared by all query plans until the topology changes
+     */
+    static final class NodeSnapshot {
+
+        final long version;
+
+        final Object[] nodes;
+
+        final int[] strides;
+
+        NodeSnapshot(long version, Object[] nodes) {
+            this.version = version;
+            this.nodes = nodes;
+            this.strides = coprimeStrides(nodes.length);
+        }
+
+        /***
+         * Strides from 1 to n - 1 that visit all n nodes, that is whose greatest common divisor with n is 1
+         */
+        static int[] coprimeStrides(int totalNodes) {
+            if(totalNodes < 2){
+                return new int[]{1};
+            }
+            int[] strides = new int[totalNodes - 1];
+            int count = 0;
+
+            for(int stride = 1; stride < totalNodes; stride++){
+                if(gcd(stride, totalNodes) == 1){
+                    strides[count++] = stride;
+                }
+            }
+            return Arrays.copyOf(strides, count);
+        }
+
+        private static int gcd(int a, int b) {
+            while(b != 0){
+                int remainder = a % b;
+                a = b;
+                b = remainder;
+            }
+            return a;
+        }
+    }
 }
@@ -0,0 +1,42 @@
+package com.aws.ssa.keyspaces.loadbalancing;
+
+import com.datastax.oss.driver.api.core.config.DriverOption;
+
+public enum KeyspacesLoadBalancingOption implements DriverOption {
+
+    KEYSPACES_LOAD_BALANCING_MODE("basic.load-balancing-policy.mode"),
+    KEYSPACES_LOAD_BALANCING_REQUESTS_PER_CONNECTION("basic.load-balancing-policy.requests-per-connection-per-second");
+
+    /***
+     * Query plans are a random order of the local nodes
+     */
+    public static final String MODE_RANDOM = "random";
+
+    /***
+     * Query plans start with the less loaded of two random local nodes, the rest of the plan is random
+     */
+    public static final String MODE_POWER_OF_TWO_CHOICES = "power-of-two-choices";
+
+    /***
+     * Query plans start with the local node with the most remaining requests per second across its connections, the rest of the plan is random
+     */
+    public static final String MODE_CONNECTION_HEADROOM = "connection-headroom";
+
+    public static final String DEFAULT_MODE = MODE_RANDOM;
+
+    /***
+     * Amazon Keyspaces supports up to 3000 CQL queries per TCP connection per second
+     */
+    public static final Integer DEFAULT_REQUESTS_PER_CONNECTION = 3000;
+
+    private final String path;
+
+    KeyspacesLoadBalancingOption(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+}
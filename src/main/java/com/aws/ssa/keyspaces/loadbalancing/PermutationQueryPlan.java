@@ -0,0 +1,141 @@
+package com.aws.ssa.keyspaces.loadbalancing;
+
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.internal.core.util.collection.QueryPlan;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/***
+ * Query plan that walks a shared snapshot of nodes in the order start, start + stride, start + 2 * stride, ... modulo the
+ * number of nodes. With a stride coprime with the number of nodes, every node is visited exactly once. The snapshot is
+ * never copied or modified, so a plan costs one small object whatever the number of nodes.
+ *
+ * The node at headStep of the order is moved to the front, which lets the power-of-two-choices and connection-headroom modes
+ * put the node they chose first while the rest of the plan keeps its random order. The node at secondStep of the order comes
+ * next. A stride only yields n * phi(n) of the n! orders, and with the second node always one stride after the first some
+ * pairs of nodes never lead a plan together. Drawing secondStep at random makes every ordered pair of nodes equally likely at
+ * the first two positions, which are the ones retries and speculative executions use.
+ *
+ * Like the driver's query plans, nodes can be polled concurrently, for example by speculative executions.
+ */
+@ThreadSafe
+public class PermutationQueryPlan extends AbstractQueue<Node> implements QueryPlan {
+
+    private static final AtomicIntegerFieldUpdater<PermutationQueryPlan> NEXT_INDEX =
+            AtomicIntegerFieldUpdater.newUpdater(PermutationQueryPlan.class, "nextIndex");
+
+    private final Object[] nodes;
+
+    private final int start;
+
+    private final int stride;
+
+    private final int headStep;
+
+    private final int secondStep;
+
+    private volatile int nextIndex;
+
+    /***
+     * Plan that keeps the order of the remaining steps after headStep
+     * @param nodes snapshot of nodes, shared between plans and never modified
+     * @param start index of the first node
+     * @param stride step between nodes, coprime with the number of nodes
+     * @param headStep step of the order moved to the front of the plan, 0 to keep the order
+     */
+    public PermutationQueryPlan(Object[] nodes, int start, int stride, int headStep) {
+        this(nodes, start, stride, headStep, (headStep == 0) ? 1 : 0);
+    }
+
+    /***
+     * @param nodes snapshot of nodes, shared between plans and never modified
+     * @param start index of the first node
+     * @param stride step between nodes, coprime with the number of nodes
+     * @param headStep step of the order moved to the front of the plan
+     * @param secondStep step of the order moved to the second position of the plan, different from headStep
+     */
+    public PermutationQueryPlan(Object[] nodes, int start, int stride, int headStep, int secondStep) {
+        this.nodes = nodes;
+        this.start = start;
+        this.stride = stride;
+        this.headStep = headStep;
+        this.secondStep = secondStep;
+    }
+
+    /***
+     * Node at a position of the plan: headStep, secondStep, then the other steps in order
+     */
+    Node nodeAt(int position) {
+        int step;
+
+        if(position == 0){
+            step = headStep;
+        }else if(position == 1){
+            step = secondStep;
+        }else{
+            step = position - 2;
+
+            if(step >= Math.min(headStep, secondStep)){
+                step++;
+            }
+            if(step >= Math.max(headStep, secondStep)){
+                step++;
+            }
+        }
+        return (Node) nodes[(int) ((start + (long) step * stride) % nodes.length)];
+    }
+
+    @Override
+    public Node poll() {
+        while(true){
+            int index = nextIndex;
+
+            if(index >= nodes.length){
+                return null;
+            }
+            if(NEXT_INDEX.compareAndSet(this, index, index + 1)){
+                return nodeAt(index);
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public Iterator<Node> iterator() {
+        int from = Math.min(nextIndex, nodes.length);
+
+        return new Iterator<Node>() {
+            private int position = from;
+
+            @Override
+            public boolean hasNext() {
+                return position < nodes.length;
+            }
+
+            @Override
+            public Node next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return nodeAt(position++);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, nodes.length - nextIndex);
+    }
+
+    @Override
+    public Node peek() {
+        int index = nextIndex;
+
+        return (index < nodes.length) ? nodeAt(index) : null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.metrics.Metrics;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.metrics.HdrReservoir;
+
+import java.time.Duration;
+
+/***
+ * Access to the driver's Dropwizard metric registry for the helpers' own metrics. Metrics are named
+ * &lt;session&gt;.keyspaces.&lt;metric&gt;, next to the driver's session metrics, and are only registered when the driver
+ * metrics are enabled, that is when advanced.metrics.session.enabled or advanced.metrics.node.enabled is not empty.
+ *
+ * Timers use the driver's HdrReservoir, configured like the cql-requests timer, so that recording does not allocate.
+ */
+public final class KeyspacesMetrics {
+
+    private KeyspacesMetrics() {
+    }
+
+    /***
+     * Registry of the session, null when the driver metrics are disabled or use another back-end than Dropwizard
+     * @param context driver context of the session
+     * @return the registry or null
+     */
+    public static MetricRegistry registryOf(DriverContext context) {
+        if(!(context instanceof InternalDriverContext)){
+            return null;
+        }
+        InternalDriverContext internalContext = (InternalDriverContext) context;
+
+        Object registry = internalContext.getMetricsFactory().getMetrics().map(Metrics::getRegistry).orElse(null);
+
+        if(registry == null){
+            registry = internalContext.getMetricRegistry();
+        }
+        return (registry instanceof MetricRegistry) ? (MetricRegistry) registry : null;
+    }
+
+    /***
+     * Name of a metric of the session
+     * @param context driver context of the session
+     * @param name name of the metric under keyspaces
+     * @return for example s0.keyspaces.retry.backoff
+     */
+    public static String name(DriverContext context, String name) {
+        return context.getSessionName() + ".keyspaces." + name;
+    }
+
+    /***
+     * Timer of the session, created with an HdrReservoir the first time it is requested
+     */
+    public static Timer timer(MetricRegistry registry, DriverContext context, String name) {
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        Duration highest = profile.getDuration(DefaultDriverOption.METRICS_SESSION_CQL_REQUESTS_HIGHEST, Duration.ofSeconds(3));
+        int digits = profile.getInt(DefaultDriverOption.METRICS_SESSION_CQL_REQUESTS_DIGITS, 3);
+        Duration interval = profile.getDuration(DefaultDriverOption.METRICS_SESSION_CQL_REQUESTS_INTERVAL, Duration.ofMinutes(5));
+
+        String metricName = name(context, name);
+
+        return registry.timer(metricName, () -> new Timer(new HdrReservoir(highest, digits, interval, metricName)));
+    }
+}
@@ -0,0 +1,98 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Retry metrics of a session, shared by the retry policies of its profiles:
+ *
+ * keyspaces.retry.&lt;error&gt;.&lt;decision&gt;, counters of retry decisions by error type, for example
+ * keyspaces.retry.write-timeout.retry-same.
+ * keyspaces.retry.backoff, timer of the backoff before retries.
+ *
+ * Counters are created up front, so that recording is an array lookup and an increment.
+ */
+@ThreadSafe
+public class RetryMetrics {
+
+    /*** Metrics of a session without a metric registry, recording nothing ***/
+    public static final RetryMetrics DISABLED = new RetryMetrics(null, null);
+
+    public enum ErrorType {
+        READ_TIMEOUT, WRITE_TIMEOUT, UNAVAILABLE, ABORTED, ERROR_RESPONSE;
+
+        private final String path = name().toLowerCase(Locale.ROOT).replace('_', '-');
+
+        public String getPath() {
+            return path;
+        }
+    }
+
+    private static final RetryDecision[] DECISIONS = RetryDecision.values();
+
+    /***
+     * Counters by error type and decision ordinal, null when disabled
+     */
+    private final Counter[][] decisions;
+
+    private final Timer backoff;
+
+    private RetryMetrics(Counter[][] decisions, Timer backoff) {
+        this.decisions = decisions;
+        this.backoff = backoff;
+    }
+
+    /***
+     * Retry metrics of the session of the context
+     * @param context driver context of the session
+     * @return the metrics, or {@link #DISABLED} when the driver metrics are disabled
+     */
+    public static RetryMetrics forContext(DriverContext context) {
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        if(registry == null){
+            return DISABLED;
+        }
+        Counter[][] decisions = new Counter[ErrorType.values().length][DECISIONS.length];
+
+        for(ErrorType errorType : ErrorType.values()){
+            for(RetryDecision decision : DECISIONS){
+                decisions[errorType.ordinal()][decision.ordinal()] = registry.counter(KeyspacesMetrics.name(context,
+                        "retry." + errorType.getPath() + "." + decision.name().toLowerCase(Locale.ROOT).replace('_', '-')));
+            }
+        }
+        return new RetryMetrics(decisions, KeyspacesMetrics.timer(registry, context, "retry.backoff"));
+    }
+
+    /***
+     * Count a retry decision
+     * @param errorType error the policy was called for
+     * @param decision decision of the policy
+     */
+    public void recordDecision(ErrorType errorType, RetryDecision decision) {
+        if(decisions != null){
+            decisions[errorType.ordinal()][decision.ordinal()].inc();
+        }
+    }
+
+    /***
+     * Record the backoff before a retry
+     * @param backoffMillis time waited in ms
+     */
+    public void recordBackoff(long backoffMillis) {
+        if(backoff != null){
+            backoff.update(backoffMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return decisions != null;
+    }
+}
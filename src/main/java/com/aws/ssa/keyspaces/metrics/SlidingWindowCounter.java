@@ -0,0 +1,121 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/***
+ * Events counted over a sliding window, in buckets of a tenth of the window with atomic counters and no locks. A bucket is
+ * reset by the first event of its next epoch, which may drop an increment racing with the reset, so the count is approximate
+ * at bucket boundaries.
+ *
+ * Used by the retry budget to count successes and retries, and by the load balancing policy to count the requests of each node.
+ */
+@ThreadSafe
+public class SlidingWindowCounter {
+
+    public static final int BUCKETS = 10;
+
+    private final LongSupplier ticker;
+
+    private final long bucketNanos;
+
+    /***
+     * Epoch of each bucket, the bucket is stale when its epoch is older than the window
+     */
+    private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /***
+     * @param windowInMs length of the window, at least BUCKETS ms
+     */
+    public SlidingWindowCounter(long windowInMs) {
+        this(System::nanoTime, windowInMs);
+    }
+
+    public SlidingWindowCounter(LongSupplier ticker, long windowInMs) {
+        if(windowInMs < BUCKETS){
+            throw new IllegalArgumentException("Sliding window must be at least " + BUCKETS + " ms, currently " + windowInMs);
+        }
+        this.ticker = ticker;
+        this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(windowInMs) / BUCKETS;
+
+        for(int i = 0; i < BUCKETS; i++){
+            epochs.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /***
+     * Count an event in the current bucket
+     */
+    public void increment() {
+        counts.incrementAndGet(bucket(ticker.getAsLong()));
+    }
+
+    /***
+     * Count an event if the window holds fewer than limit events. The event is counted with a compare and set on the current
+     * bucket, so that concurrent callers cannot all pass the check and go over the limit
+     * @param limit most events allowed in the window
+     * @return true if the event was counted
+     */
+    public boolean tryIncrement(long limit) {
+        long now = ticker.getAsLong();
+
+        int index = bucket(now);
+
+        long allowed = limit - sum(now, index);
+
+        while(true){
+            long current = counts.get(index);
+
+            if(current >= allowed){
+                return false;
+            }
+            if(counts.compareAndSet(index, current, current + 1)){
+                return true;
+            }
+        }
+    }
+
+    /***
+     * @return events counted in the window
+     */
+    public long sum() {
+        return sum(ticker.getAsLong(), -1);
+    }
+
+    /***
+     * Index of the bucket of the current epoch, resetting the bucket when the window moved past it
+     */
+    private int bucket(long now) {
+        long epoch = Math.floorDiv(now, bucketNanos);
+
+        int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+
+        long current = epochs.get(index);
+
+        if(current != epoch && epochs.compareAndSet(index, current, epoch)){
+            counts.set(index, 0);
+        }
+        return index;
+    }
+
+    /***
+     * Sum of the buckets in the window, leaving out the bucket at excluded
+     */
+    private long sum(long now, int excluded) {
+        long epoch = Math.floorDiv(now, bucketNanos);
+
+        long total = 0;
+
+        for(int i = 0; i < BUCKETS; i++){
+            if(i != excluded && epochs.get(i) > epoch - BUCKETS){
+                total += counts.get(i);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,110 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/***
+ * Throttler metrics of a session:
+ *
+ * keyspaces.throttler.wait, timer of the time requests waited for permits.
+ * keyspaces.throttler.rejected, counter of requests that timed out or were refused waiting for permits.
+ * keyspaces.throttler.rate, gauge of the current max requests per second.
+ *
+ * The capacity unit throttlers meter capacity units instead of requests, and publish
+ * keyspaces.throttler.write-units-rate and keyspaces.throttler.read-units-rate in place of keyspaces.throttler.rate.
+ */
+@ThreadSafe
+public class ThrottlerMetrics implements AutoCloseable {
+
+    private static final String RATE = "rate";
+
+    private final MetricRegistry registry;
+
+    private final List<String> rateNames;
+
+    private final Timer wait;
+
+    private final Counter rejected;
+
+    /***
+     * Register the throttler metrics of the session, replacing the rate gauge of a previous throttler of the same session
+     * @param context driver context of the session
+     * @param rate current max requests per second of the throttler
+     */
+    public ThrottlerMetrics(DriverContext context, LongSupplier rate) {
+        this(context, Collections.singletonMap(RATE, rate));
+    }
+
+    /***
+     * Register the throttler metrics of the session with rate gauges named keyspaces.throttler.&lt;name&gt;, replacing the
+     * gauges of the same name of a previous throttler of the session
+     * @param context driver context of the session
+     * @param rates current rates of the throttler by gauge name
+     */
+    public ThrottlerMetrics(DriverContext context, Map<String, LongSupplier> rates) {
+        this.registry = KeyspacesMetrics.registryOf(context);
+
+        if(registry == null){
+            this.rateNames = Collections.emptyList();
+            this.wait = null;
+            this.rejected = null;
+        }else{
+            List<String> names = new ArrayList<>(rates.size());
+
+            for(Map.Entry<String, LongSupplier> rate : rates.entrySet()){
+                String rateName = KeyspacesMetrics.name(context, "throttler." + rate.getKey());
+
+                LongSupplier supplier = rate.getValue();
+
+                registry.remove(rateName);
+                registry.register(rateName, (Gauge<Long>) supplier::getAsLong);
+
+                names.add(rateName);
+            }
+            this.rateNames = Collections.unmodifiableList(names);
+            this.wait = KeyspacesMetrics.timer(registry, context, "throttler.wait");
+            this.rejected = registry.counter(KeyspacesMetrics.name(context, "throttler.rejected"));
+        }
+    }
+
+    /***
+     * Record a request that acquired its permits
+     * @param waitNanos time the request waited for permits
+     */
+    public void recordAcquired(long waitNanos) {
+        if(wait != null){
+            wait.update(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /***
+     * Record a request that failed to acquire its permits
+     */
+    public void recordRejected() {
+        if(rejected != null){
+            rejected.inc();
+        }
+    }
+
+    public boolean isEnabled() {
+        return registry != null;
+    }
+
+    @Override
+    public void close() {
+        for(String rateName : rateNames){
+            registry.remove(rateName);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.aws.ssa.keyspaces.metrics.RetryMetrics;
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.retry.RetryPolicy;
+import com.datastax.oss.driver.api.core.servererrors.CoordinatorException;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.WriteType;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry policy with separate attempts, backoff and retry decision for each {@link KeyspacesErrorCategory}.
+ * <p>
+ * Read and write timeouts are classified as {@link KeyspacesErrorCategory#CAPACITY}, unavailable errors as
+ * {@link KeyspacesErrorCategory#TRANSIENT} and aborted requests as {@link KeyspacesErrorCategory#CONNECTION}. Other server
+ * errors are classified by their message into capacity, partition hotspot or transient, and overloaded errors count as capacity.
+ * <p>
+ * The backoff before a retry is a {@link BackoffStrategy}, decorrelated-jitter for capacity and partition hotspot errors,
+ * equal-jitter for transient errors and capped-exponential for connection errors by default. With
+ * advanced.retry-policy.non-blocking and a session built with the {@link KeyspacesRetrySessionBuilder}, the policy rethrows
+ * and the {@link BackoffRetryRequestProcessor} waits for the backoff on a timer, counting the retries of each category.
+ * Otherwise the policy sleeps for the backoff of the category on the driver thread that handles the response, like the
+ * {@link AmazonKeyspacesExponentialRetryPolicy}, and max-attempts limits the retries of the request across all categories,
+ * since the driver only passes the total retry count.
+ *
+ * <pre>
+ * datastax-java-driver {
+ *   basic.request.default-idempotence = true
+ *   advanced.retry-policy {
+ *     class = com.aws.ssa.keyspaces.retry.AmazonKeyspacesCategoryRetryPolicy
+ *     non-blocking = true
+ *     capacity { max-attempts = 3, min-wait = 50 ms, max-wait = 1 second, backoff = decorrelated-jitter, decision = RETRY_SAME }
+ *     partition-hotspot { max-attempts = 2, min-wait = 100 ms, max-wait = 2 seconds, backoff = decorrelated-jitter, decision = RETRY_SAME }
+ *     transient { max-attempts = 3, min-wait = 10 ms, max-wait = 50 ms, backoff = equal-jitter, decision = RETRY_NEXT }
+ *     connection { max-attempts = 3, min-wait = 0 ms, max-wait = 0 ms, backoff = capped-exponential, decision = RETRY_NEXT }
+ *   }
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public class AmazonKeyspacesCategoryRetryPolicy implements RetryPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesCategoryRetryPolicy.class);
+
+    public static final String RETRYING = "[{}] Retrying {} error with {} (retries: {})";
+
+    private final String logPrefix;
+
+    private final Map<KeyspacesErrorCategory, CategorySettings> settings = new EnumMap<>(KeyspacesErrorCategory.class);
+
+    /***
+     * Retry budget of the session, null when advanced.retry-policy.budget.enabled is false
+     */
+    private final RetryBudget retryBudget;
+
+    /***
+     * Retry metrics of the session, recording nothing when the driver metrics are disabled
+     */
+    private final RetryMetrics retryMetrics;
+
+    /***
+     * True when the {@link BackoffRetryRequestProcessor} retries the errors of this policy
+     */
+    private final boolean nonBlocking;
+
+    public AmazonKeyspacesCategoryRetryPolicy(DriverContext context) {
+        this(context, context.getConfig().getDefaultProfile().getName());
+    }
+
+    public AmazonKeyspacesCategoryRetryPolicy(DriverContext context, String profileName) {
+        DriverExecutionProfile profile = context.getConfig().getProfile(profileName);
+
+        this.logPrefix = context.getSessionName() + "|" + profileName;
+
+        for(KeyspacesErrorCategory category : KeyspacesErrorCategory.values()){
+            settings.put(category, new CategorySettings(category, profile, logPrefix));
+        }
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
+
+        boolean nonBlockingOption = profile.getBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_NON_BLOCKING);
+
+        if(nonBlockingOption && !(context instanceof KeyspacesRetryDriverContext)){
+            LOG.warn("[{}] advanced.retry-policy.non-blocking requires a session built with the KeyspacesRetrySessionBuilder, falling back to blocking backoff", logPrefix);
+        }
+        this.nonBlocking = nonBlockingOption && context instanceof KeyspacesRetryDriverContext;
+    }
+
+    /***
+     * Decide whether to retry an error of the category, sleeping for the backoff of the category before a retry
+     * @param category category of the error
+     * @param retryCount number of retries of the request so far, across all categories
+     * @return the configured decision of the category, or RETHROW once its attempts or the retry budget are spent, and
+     * always RETHROW in non-blocking mode where the {@link BackoffRetryRequestProcessor} schedules the retry
+     */
+    protected RetryDecision determineRetryDecision(KeyspacesErrorCategory category, int retryCount) {
+        if(nonBlocking){
+            return RetryDecision.RETHROW;
+        }
+        CategorySettings categorySettings = settings.get(category);
+
+        if(retryCount >= categorySettings.maxAttempts || (retryBudget != null && !retryBudget.tryAcquireRetry())){
+            return RetryDecision.RETHROW;
+        }
+        LOG.trace(RETRYING, logPrefix, category, categorySettings.decision, retryCount);
+
+        long timeToWait = categorySettings.backoffMillis(retryCount, 0);
+
+        retryMetrics.recordBackoff(timeToWait);
+
+        Uninterruptibles.sleepUninterruptibly(timeToWait, TimeUnit.MILLISECONDS);
+
+        return categorySettings.decision;
+    }
+
+    /***
+     * Count the decision, except in non-blocking mode where the {@link BackoffRetryRequestProcessor} records the retries
+     */
+    private RetryDecision recordDecision(RetryMetrics.ErrorType errorType, RetryDecision decision) {
+        if(!nonBlocking){
+            retryMetrics.recordDecision(errorType, decision);
+        }
+        return decision;
+    }
+
+    /***
+     * Backoff before the next retry of an error of the category
+     * @param category category of the error
+     * @param retryCount number of retries of the category so far
+     * @param previousDelay previous wait for the category in ms, 0 before the first retry
+     * @return time to wait in ms
+     */
+    public long backoffMillis(KeyspacesErrorCategory category, int retryCount, long previousDelay) {
+        return settings.get(category).backoffMillis(retryCount, previousDelay);
+    }
+
+    /***
+     * Category of an error response, overloaded errors are capacity and other errors are classified by their message
+     */
+    public static KeyspacesErrorCategory categoryOf(CoordinatorException error) {
+        if(error instanceof OverloadedException){
+            return KeyspacesErrorCategory.CAPACITY;
+        }
+        return KeyspacesErrorCategory.fromMessage(error.getMessage());
+    }
+
+    /***
+     * Category of a retryable error, classified the same as when the driver calls the policy
+     */
+    public static KeyspacesErrorCategory categoryOf(Throwable error) {
+        if(error instanceof ReadTimeoutException || error instanceof WriteTimeoutException){
+            return KeyspacesErrorCategory.CAPACITY;
+        }
+        if(error instanceof UnavailableException){
+            return KeyspacesErrorCategory.TRANSIENT;
+        }
+        if(error instanceof CoordinatorException){
+            return categoryOf((CoordinatorException) error);
+        }
+        return KeyspacesErrorCategory.CONNECTION;
+    }
+
+    @Override
+    public RetryDecision onReadTimeout(@NonNull Request request, @NonNull ConsistencyLevel cl, int blockFor, int received, boolean dataPresent, int retryCount) {
+        return recordDecision(RetryMetrics.ErrorType.READ_TIMEOUT, determineRetryDecision(KeyspacesErrorCategory.CAPACITY, retryCount));
+    }
+
+    @Override
+    public RetryDecision onWriteTimeout(@NonNull Request request, @NonNull ConsistencyLevel cl, @NonNull WriteType writeType, int blockFor, int received, int retryCount) {
+        return recordDecision(RetryMetrics.ErrorType.WRITE_TIMEOUT, determineRetryDecision(KeyspacesErrorCategory.CAPACITY, retryCount));
+    }
+
+    @Override
+    public RetryDecision onUnavailable(@NonNull Request request, @NonNull ConsistencyLevel cl, int required, int alive, int retryCount) {
+        return recordDecision(RetryMetrics.ErrorType.UNAVAILABLE, determineRetryDecision(KeyspacesErrorCategory.TRANSIENT, retryCount));
+    }
+
+    @Override
+    public RetryDecision onRequestAborted(@NonNull Request request, @NonNull Throwable error, int retryCount) {
+        return recordDecision(RetryMetrics.ErrorType.ABORTED, determineRetryDecision(KeyspacesErrorCategory.CONNECTION, retryCount));
+    }
+
+    @Override
+    public RetryDecision onErrorResponse(@NonNull Request request, @NonNull CoordinatorException error, int retryCount) {
+        return recordDecision(RetryMetrics.ErrorType.ERROR_RESPONSE, determineRetryDecision(categoryOf(error), retryCount));
+    }
+
+    public int getMaxAttempts(KeyspacesErrorCategory category) {
+        return settings.get(category).maxAttempts;
+    }
+
+    public RetryDecision getDecision(KeyspacesErrorCategory category) {
+        return settings.get(category).decision;
+    }
+
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    @Override
+    public void close() {
+        if (retryBudget != null) {
+            retryBudget.close();
+        }
+    }
+
+    /***
+     * Attempts, backoff and decision of a category, read from advanced.retry-policy.&lt;category&gt;
+     */
+    private static final class CategorySettings {
+
+        private final int maxAttempts;
+
+        private final long minWaitTime;
+
+        private final long maxWaitTime;
+
+        private final RetryDecision decision;
+
+        private final BackoffStrategy backoffStrategy;
+
+        private CategorySettings(KeyspacesErrorCategory category, DriverExecutionProfile profile, String logPrefix) {
+            this.maxAttempts = profile.getInt(category.option("max-attempts"), category.getDefaultMaxAttempts());
+            this.minWaitTime = profile.getDuration(category.option("min-wait"), category.getDefaultMinWait()).toMillis();
+            this.maxWaitTime = profile.getDuration(category.option("max-wait"), category.getDefaultMaxWait()).toMillis();
+
+            String decisionName = profile.getString(category.option("decision"), category.getDefaultDecision().name());
+
+            if(!RetryDecision.RETRY_SAME.name().equals(decisionName) && !RetryDecision.RETRY_NEXT.name().equals(decisionName)){
+                LOG.error("[{}] Retry decision for {} must be RETRY_SAME or RETRY_NEXT, currently {}", logPrefix, category.getPath(), decisionName);
+                throw new IllegalArgumentException("Retry decision (advanced.retry-policy." + category.getPath() + ".decision) must be RETRY_SAME or RETRY_NEXT, currently " + decisionName);
+            }
+            if(maxAttempts < 0){
+                LOG.error("[{}] Max attempts for {} must not be negative, currently {}", logPrefix, category.getPath(), maxAttempts);
+                throw new IllegalArgumentException("Max attempts (advanced.retry-policy." + category.getPath() + ".max-attempts) must not be negative, currently " + maxAttempts);
+            }
+            if(minWaitTime > maxWaitTime){
+                LOG.error("[{}] Min wait for {} must not exceed max wait, currently {} ms and {} ms", logPrefix, category.getPath(), minWaitTime, maxWaitTime);
+                throw new IllegalArgumentException("Min wait (advanced.retry-policy." + category.getPath() + ".min-wait) must not exceed max wait, currently " + minWaitTime + " ms and " + maxWaitTime + " ms");
+            }
+            this.decision = RetryDecision.valueOf(decisionName);
+            this.backoffStrategy = KeyspacesBackoffStrategy.fromConfig(profile.getString(category.option("backoff"), category.getDefaultBackoff().getPath()));
+        }
+
+        private long backoffMillis(int retryCount, long previousDelay) {
+            return backoffStrategy.delayMillis(retryCount, previousDelay, minWaitTime, maxWaitTime);
+        }
+    }
+}
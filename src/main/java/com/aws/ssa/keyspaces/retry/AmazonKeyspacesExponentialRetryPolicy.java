@@ -1,5 +1,6 @@
 package com.aws.ssa.keyspaces.retry;
 
+import com.aws.ssa.keyspaces.metrics.RetryMetrics;
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
 import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
@@ -25,7 +26,6 @@ import java.time.Duration;
 import java.time.Period;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 
@@ -54,6 +54,10 @@ import java.util.concurrent.TimeUnit;
  *    }
  * }
  * </pre>
+ *
+ * <p>By default the backoff sleeps on the driver thread that handles the response. With {@code non-blocking = true} the policy
+ * rethrows instead, and the {@link BackoffRetryRequestProcessor} schedules the retry after the same backoff without blocking
+ * any thread. The session must then be built with the {@link KeyspacesRetrySessionBuilder}.
  */
 
 @ThreadSafe
@@ -75,9 +79,29 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
     private final String logPrefix;
 
     private final Integer maxRetryCount;
+
+    /***
+     * Retry budget of the session, null when advanced.retry-policy.budget.enabled is false
+     */
+    private final RetryBudget retryBudget;
+
+    /***
+     * Retry metrics of the session, recording nothing when the driver metrics are disabled
+     */
+    private final RetryMetrics retryMetrics;
     private final Long minWaitTime;
     private final Long maxWaitTime;
 
+    /***
+     * Backoff between retries, set with advanced.retry-policy.backoff
+     */
+    private final BackoffStrategy backoffStrategy;
+
+    /***
+     * When true, retries are left to the {@link BackoffRetryRequestProcessor} so that no driver thread sleeps
+     */
+    private final boolean nonBlocking;
+
     //private final Integer maxTimeToWait;
 
     public AmazonKeyspacesExponentialRetryPolicy(DriverContext context) {
@@ -98,6 +122,14 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
         this.maxWaitTime = maxWaitDuration.toMillis();
 
         this.logPrefix = (context != null ? context.getSessionName() : null) + "|" + profileName;
+
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
+
+        this.nonBlocking = isNonBlocking(context, retryExecutionProfile, logPrefix);
+
+        this.backoffStrategy = backoffStrategyOf(retryExecutionProfile);
     }
     public AmazonKeyspacesExponentialRetryPolicy(DriverContext context, Integer maxRetryCount, Duration minWaitTime, Duration maxWaitTime) {
 
@@ -108,6 +140,14 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
         this.maxWaitTime = maxWaitTime.toMillis();
 
         this.logPrefix = (context != null ? context.getSessionName() : null) + "|" + profileName;
+
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
+
+        this.nonBlocking = isNonBlocking(context, context.getConfig().getProfile(profileName), logPrefix);
+
+        this.backoffStrategy = backoffStrategyOf(context.getConfig().getProfile(profileName));
     }
 
     public AmazonKeyspacesExponentialRetryPolicy(DriverContext context, String profileName) {
@@ -123,12 +163,43 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
         this.maxWaitTime = maxWaitDuration.toMillis();
 
         this.logPrefix = (context != null ? context.getSessionName() : null) + "|" + profileName;
+
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
+
+        this.nonBlocking = isNonBlocking(context, retryExecutionProfile, logPrefix);
+
+        this.backoffStrategy = backoffStrategyOf(retryExecutionProfile);
+    }
+
+    static BackoffStrategy backoffStrategyOf(DriverExecutionProfile profile) {
+        return KeyspacesBackoffStrategy.fromConfig(profile.getString(KeyspacesRetryOption.KEYSPACES_RETRY_BACKOFF, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BACKOFF));
+    }
+
+    /***
+     * Non-blocking backoff needs the request processor of the {@link KeyspacesRetryDriverContext}, otherwise the policy
+     * keeps sleeping so that requests are still retried
+     */
+    private static boolean isNonBlocking(DriverContext context, DriverExecutionProfile profile, String logPrefix) {
+        boolean nonBlocking = profile.getBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_NON_BLOCKING);
+
+        if(nonBlocking && !(context instanceof KeyspacesRetryDriverContext)){
+            LOG.warn("[{}] advanced.retry-policy.non-blocking requires a session built with the KeyspacesRetrySessionBuilder, falling back to blocking backoff", logPrefix);
+
+            return false;
+        }
+        return nonBlocking;
     }
 
 
     protected RetryDecision determineRetryDecision(int retryCount) {
 
-        if (retryCount < maxRetryCount) {
+        if (nonBlocking) {
+            //the BackoffRetryRequestProcessor schedules the retry after the backoff
+            return RetryDecision.RETHROW;
+        }
+        if (retryCount < maxRetryCount && (retryBudget == null || retryBudget.tryAcquireRetry())) {
             timeToWait(retryCount);
 
             return RetryDecision.RETRY_SAME;
@@ -140,13 +211,30 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
     }
     protected void timeToWait(int retryCount){
 
-        long timeToWaitCalculation = minWaitTime + ThreadLocalRandom.current().nextInt(retryCount, Double.valueOf(Math.pow(2d, Integer.valueOf(retryCount).doubleValue())).intValue());
+        long timeToWaitFinal = backoffStrategy.delayMillis(retryCount, 0, minWaitTime, maxWaitTime);
 
-        long timeToWaitFinal = Math.min(maxWaitTime, timeToWaitCalculation);
+        retryMetrics.recordBackoff(timeToWaitFinal);
 
         Uninterruptibles.sleepUninterruptibly(timeToWaitFinal, TimeUnit.MILLISECONDS);
     }
 
+    /***
+     * Count the decision, except in non-blocking mode where the {@link BackoffRetryRequestProcessor} records the retries
+     */
+    protected void recordDecision(RetryMetrics.ErrorType errorType, RetryDecision decision) {
+        if (!nonBlocking) {
+            retryMetrics.recordDecision(errorType, decision);
+        }
+    }
+
+    public BackoffStrategy getBackoffStrategy() {
+        return backoffStrategy;
+    }
+
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
 
     /**
      * {@inheritDoc}
@@ -166,6 +254,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.READ_TIMEOUT, decision);
+
         LOG.trace(RETRYING_ON_READ_TIMEOUT, logPrefix, cl, blockFor, received, false, retryCount);
         
         return decision;
@@ -191,6 +281,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.WRITE_TIMEOUT, decision);
+
         LOG.trace(RETRYING_ON_WRITE_TIMEOUT, logPrefix, cl, blockFor, received, false, retryCount);
 
         return decision;
@@ -213,6 +305,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.UNAVAILABLE, decision);
+
         LOG.trace(RETRYING_ON_UNAVAILABLE, logPrefix, cl, required, alive, retryCount);
 
         return decision;
@@ -229,6 +323,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.ABORTED, decision);
+
         LOG.trace(RETRYING_ON_ABORTED, logPrefix, retryCount, error);
 
         return decision;
@@ -245,6 +341,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.ERROR_RESPONSE, decision);
+
         LOG.trace(RETRYING_ON_ERROR, logPrefix, retryCount, error);
 
         return decision;
@@ -252,6 +350,8 @@ public class AmazonKeyspacesExponentialRetryPolicy implements RetryPolicy {
 
     @Override
     public void close() {
-        // nothing to do
+        if (retryBudget != null) {
+            retryBudget.close();
+        }
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.aws.ssa.keyspaces.retry;
 
+import com.aws.ssa.keyspaces.metrics.RetryMetrics;
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
 import com.datastax.oss.driver.api.core.context.DriverContext;
@@ -58,6 +59,16 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
     private final Integer maxRetryCount;
 
+    /***
+     * Retry budget of the session, null when advanced.retry-policy.budget.enabled is false
+     */
+    private final RetryBudget retryBudget;
+
+    /***
+     * Retry metrics of the session, recording nothing when the driver metrics are disabled
+     */
+    private final RetryMetrics retryMetrics;
+
 
     public AmazonKeyspacesRetryPolicy(DriverContext context) {
         this(context, context.getConfig().getDefaultProfile().getName());
@@ -70,6 +81,10 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
         this.maxRetryCount = maxRetryCount;
 
         this.logPrefix = (context != null ? context.getSessionName() : null) + "|" + profileName;
+
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
     }
 
     public AmazonKeyspacesRetryPolicy(DriverContext context, String profileName) {
@@ -78,17 +93,25 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
         maxRetryCount = retryExecutionProfile.getInt(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_ATTEMPTS, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_MAX_ATTEMPTS);
 
         this.logPrefix = (context != null ? context.getSessionName() : null) + "|" + profileName;
+
+        this.retryBudget = RetryBudget.forContext(context);
+
+        this.retryMetrics = RetryMetrics.forContext(context);
     }
 
 
     protected RetryDecision determineRetryDecision(int retryCount) {
-        if (retryCount < maxRetryCount) {
+        if (retryCount < maxRetryCount && (retryBudget == null || retryBudget.tryAcquireRetry())) {
             return RetryDecision.RETRY_SAME;
         } else {
             return RetryDecision.RETHROW;
         }
     }
 
+    protected void recordDecision(RetryMetrics.ErrorType errorType, RetryDecision decision) {
+        retryMetrics.recordDecision(errorType, decision);
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -107,6 +130,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.READ_TIMEOUT, decision);
+
         LOG.trace(RETRYING_ON_READ_TIMEOUT, logPrefix, cl, blockFor, received, false, retryCount);
         
         return decision;
@@ -132,6 +157,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.WRITE_TIMEOUT, decision);
+
         LOG.trace(RETRYING_ON_WRITE_TIMEOUT, logPrefix, cl, blockFor, received, false, retryCount);
 
         return decision;
@@ -154,6 +181,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.UNAVAILABLE, decision);
+
         LOG.trace(RETRYING_ON_UNAVAILABLE, logPrefix, cl, required, alive, retryCount);
 
         return decision;
@@ -170,6 +199,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.ABORTED, decision);
+
         LOG.trace(RETRYING_ON_ABORTED, logPrefix, retryCount, error);
 
         return decision;
@@ -186,6 +217,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
         RetryDecision decision = determineRetryDecision(retryCount);
 
+        recordDecision(RetryMetrics.ErrorType.ERROR_RESPONSE, decision);
+
         LOG.trace(RETRYING_ON_ERROR, logPrefix, retryCount, error);
 
         return decision;
@@ -193,6 +226,8 @@ public class AmazonKeyspacesRetryPolicy implements RetryPolicy {
 
     @Override
     public void close() {
-        // nothing to do
+        if (retryBudget != null) {
+            retryBudget.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,297 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.aws.ssa.keyspaces.metrics.RetryMetrics;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.connection.ClosedConnectionException;
+import com.datastax.oss.driver.api.core.connection.HeartbeatException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.retry.RetryPolicy;
+import com.datastax.oss.driver.api.core.servererrors.CoordinatorException;
+import com.datastax.oss.driver.api.core.servererrors.FunctionFailureException;
+import com.datastax.oss.driver.api.core.servererrors.ProtocolError;
+import com.datastax.oss.driver.api.core.servererrors.QueryValidationException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.cql.Conversions;
+import com.datastax.oss.driver.internal.core.cql.CqlRequestAsyncProcessor;
+import com.datastax.oss.driver.internal.core.session.DefaultSession;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Request processor that retries CQL requests after an exponential backoff without blocking any thread. When
+ * advanced.retry-policy.non-blocking is set, the {@link AmazonKeyspacesExponentialRetryPolicy} rethrows the error and this
+ * processor schedules the next attempt on the driver's admin executor after the backoff. The retry count, min-wait, max-wait and
+ * backoff keep the meaning they have in the policy, and are read from the execution profile of each request. Unlike the policy,
+ * the processor knows the previous wait of a request, which the decorrelated-jitter backoff is based on.
+ *
+ * Errors are retried in the same cases as the driver consults the retry policy: read timeouts and unavailable errors always,
+ * write timeouts, other server errors and aborted requests only when the request is idempotent.
+ *
+ * The request timeout, from the statement or else basic.request.timeout of the profile, is a deadline for the request and
+ * all of its retries. Each retry runs with the time left as its timeout, and the error is rethrown when the backoff would end
+ * past the deadline.
+ *
+ * When the retry policy of the profile is the {@link AmazonKeyspacesCategoryRetryPolicy}, the policy rethrows the error and
+ * the processor takes the attempts and backoff of the category of the error from it. Retries are counted for each category,
+ * and the decorrelated-jitter backoff is based on the previous wait of the same category. The retry runs with a new query plan
+ * whatever the decision of the category.
+ *
+ * Retries are taken from the {@link RetryBudget} of the session when it is enabled, and recorded in its {@link RetryMetrics}.
+ *
+ * Installed by the {@link KeyspacesRetryDriverContext}, in place of the driver's async processor. Profiles without
+ * non-blocking are processed as before.
+ */
+@ThreadSafe
+public class BackoffRetryRequestProcessor extends CqlRequestAsyncProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackoffRetryRequestProcessor.class);
+
+    public static final String RETRYING_AFTER_BACKOFF = "[{}] Retrying after {} ms backoff (retries: {}) on {}";
+
+    private final ConcurrentMap<String, BackoffStrategy> strategies = new ConcurrentHashMap<>();
+
+    private volatile RetryMetrics retryMetrics;
+
+    /***
+     * Retry budget of the session, resolved when the processor is built, null when the budget is disabled
+     */
+    private final RetryBudget budget;
+
+    public BackoffRetryRequestProcessor() {
+        this(null);
+    }
+
+    public BackoffRetryRequestProcessor(RetryBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public CompletionStage<AsyncResultSet> process(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+
+        DriverExecutionProfile profile = Conversions.resolveExecutionProfile(request, context);
+
+        if(!profile.getBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_NON_BLOCKING)){
+            return attempt(request, session, context, sessionLogPrefix);
+        }
+        CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+
+        long deadlineNanos = System.nanoTime() + requestTimeoutOf(request, profile).toNanos();
+
+        execute(request, session, context, sessionLogPrefix, profile, new RetryState(deadlineNanos), result);
+
+        return result;
+    }
+
+    private void execute(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix,
+                         DriverExecutionProfile profile, RetryState state, CompletableFuture<AsyncResultSet> result) {
+
+        //cancelled by the caller while waiting for the backoff
+        if(result.isDone()){
+            return;
+        }
+        //retries only have the time left before the deadline of the request
+        Statement<?> attemptRequest = (state.retryCount == 0) ? request : request.setTimeout(Duration.ofNanos(Math.max(1, state.deadlineNanos - System.nanoTime())));
+
+        attempt(attemptRequest, session, context, sessionLogPrefix).whenComplete((resultSet, error) -> {
+            if(error == null){
+                result.complete(resultSet);
+                return;
+            }
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+
+            if(!isRetryable(cause, request, profile)){
+                result.completeExceptionally(cause);
+                return;
+            }
+            RetryMetrics retryMetrics = retryMetricsOf(context);
+
+            RetryPolicy policy = context.getRetryPolicy(profile.getName());
+
+            //the category policy counts retries and waits separately for each category of error
+            KeyspacesErrorCategory category = (policy instanceof AmazonKeyspacesCategoryRetryPolicy) ? AmazonKeyspacesCategoryRetryPolicy.categoryOf(cause) : null;
+
+            int retryCount;
+            int maxRetryCount;
+            long delay;
+            RetryDecision decision;
+
+            if(category != null){
+                AmazonKeyspacesCategoryRetryPolicy categoryPolicy = (AmazonKeyspacesCategoryRetryPolicy) policy;
+
+                retryCount = state.categoryRetries[category.ordinal()];
+                maxRetryCount = categoryPolicy.getMaxAttempts(category);
+                delay = categoryPolicy.backoffMillis(category, retryCount, state.categoryDelays[category.ordinal()]);
+                decision = categoryPolicy.getDecision(category);
+            }else{
+                retryCount = state.retryCount;
+                maxRetryCount = profile.getInt(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_ATTEMPTS, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_MAX_ATTEMPTS);
+                delay = backoffStrategyOf(profile).delayMillis(retryCount, state.previousDelay,
+                        profile.getDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MIN_WAIT, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_MIN_WAIT).toMillis(),
+                        profile.getDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_WAIT, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_MAX_WAIT).toMillis());
+                decision = RetryDecision.RETRY_SAME;
+            }
+            //the next attempt would start after the deadline of the request
+            if(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= state.deadlineNanos){
+                LOG.trace("[{}] Backoff of {} ms ends past the request timeout, rethrowing {}", sessionLogPrefix, delay, cause.getClass().getSimpleName());
+
+                retryMetrics.recordDecision(errorTypeOf(cause), RetryDecision.RETHROW);
+
+                result.completeExceptionally(cause);
+                return;
+            }
+            if(retryCount >= maxRetryCount || (budget != null && !budget.tryAcquireRetry())){
+                retryMetrics.recordDecision(errorTypeOf(cause), RetryDecision.RETHROW);
+
+                result.completeExceptionally(cause);
+                return;
+            }
+            LOG.trace(RETRYING_AFTER_BACKOFF, sessionLogPrefix, delay, retryCount, cause.getClass().getSimpleName());
+
+            retryMetrics.recordDecision(errorTypeOf(cause), decision);
+            retryMetrics.recordBackoff(delay);
+
+            state.recordRetry(category, delay);
+
+            try {
+                scheduler(context).schedule(() -> execute(request, session, context, sessionLogPrefix, profile, state, result), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //the session is closing
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /***
+     * Timeout of the request and its retries, the timeout of the statement if set, else the request timeout of the profile
+     */
+    static Duration requestTimeoutOf(Statement<?> request, DriverExecutionProfile profile) {
+        Duration timeout = request.getTimeout();
+
+        return (timeout != null) ? timeout : profile.getDuration(DefaultDriverOption.REQUEST_TIMEOUT);
+    }
+
+    /***
+     * Strategy of the profile, parsed once per value of advanced.retry-policy.backoff
+     */
+    private BackoffStrategy backoffStrategyOf(DriverExecutionProfile profile) {
+        return strategies.computeIfAbsent(
+                profile.getString(KeyspacesRetryOption.KEYSPACES_RETRY_BACKOFF, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BACKOFF),
+                KeyspacesBackoffStrategy::fromConfig);
+    }
+
+    /***
+     * Retry metrics of the session, looked up on the first retry since the processor is created before the metrics
+     */
+    private RetryMetrics retryMetricsOf(InternalDriverContext context) {
+        RetryMetrics metrics = retryMetrics;
+
+        if(metrics == null){
+            metrics = RetryMetrics.forContext(context);
+
+            retryMetrics = metrics;
+        }
+        return metrics;
+    }
+
+    /***
+     * Error type of a retryable error, as the driver would report it to the retry policy
+     */
+    static RetryMetrics.ErrorType errorTypeOf(Throwable error) {
+        if(error instanceof ReadTimeoutException){
+            return RetryMetrics.ErrorType.READ_TIMEOUT;
+        }
+        if(error instanceof WriteTimeoutException){
+            return RetryMetrics.ErrorType.WRITE_TIMEOUT;
+        }
+        if(error instanceof UnavailableException){
+            return RetryMetrics.ErrorType.UNAVAILABLE;
+        }
+        if(error instanceof CoordinatorException){
+            return RetryMetrics.ErrorType.ERROR_RESPONSE;
+        }
+        return RetryMetrics.ErrorType.ABORTED;
+    }
+
+    /***
+     * Execute a single attempt of the request, retried by the driver's retry policy as configured
+     */
+    protected CompletionStage<AsyncResultSet> attempt(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+        return super.process(request, session, context, sessionLogPrefix);
+    }
+
+    /***
+     * Executor waiting for the backoff, the admin executor does not run request I/O
+     */
+    protected ScheduledExecutorService scheduler(InternalDriverContext context) {
+        return context.getNettyOptions().adminEventExecutorGroup().next();
+    }
+
+    /***
+     * Whether an error should be retried, following the cases where the driver consults the retry policy
+     * @param error error of the attempt
+     * @param request request that failed
+     * @param profile execution profile of the request
+     * @return true if the request can be retried
+     */
+    public static boolean isRetryable(Throwable error, Statement<?> request, DriverExecutionProfile profile) {
+        if(error instanceof ReadTimeoutException || error instanceof UnavailableException){
+            return true;
+        }
+        if(error instanceof QueryValidationException || error instanceof FunctionFailureException || error instanceof ProtocolError){
+            return false;
+        }
+        if(error instanceof CoordinatorException || error instanceof HeartbeatException || error instanceof ClosedConnectionException){
+            Boolean idempotent = request.isIdempotent();
+
+            return (idempotent == null) ? profile.getBoolean(DefaultDriverOption.REQUEST_DEFAULT_IDEMPOTENCE) : idempotent;
+        }
+        return false;
+    }
+
+    /***
+     * Retries of a request so far. Attempts of a request run one after the other, each scheduled by the previous one
+     */
+    private static final class RetryState {
+
+        private final long deadlineNanos;
+
+        private final int[] categoryRetries = new int[KeyspacesErrorCategory.values().length];
+
+        private final long[] categoryDelays = new long[KeyspacesErrorCategory.values().length];
+
+        private int retryCount;
+
+        private long previousDelay;
+
+        private RetryState(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private void recordRetry(KeyspacesErrorCategory category, long delay) {
+            retryCount++;
+            previousDelay = delay;
+
+            if(category != null){
+                categoryRetries[category.ordinal()]++;
+                categoryDelays[category.ordinal()] = delay;
+            }
+        }
+    }
+}
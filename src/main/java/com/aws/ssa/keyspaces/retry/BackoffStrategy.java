@@ -0,0 +1,19 @@
+package com.aws.ssa.keyspaces.retry;
+
+/***
+ * Computes the time to wait before a retry. Selected with advanced.retry-policy.backoff, either by the name of one of the
+ * {@link KeyspacesBackoffStrategy} strategies or by the class name of an implementation with a public no-arg constructor.
+ * Implementations must be thread safe.
+ */
+public interface BackoffStrategy {
+
+    /***
+     * Time to wait before a retry
+     * @param retryCount number of retries so far, 0 before the first retry
+     * @param previousDelayMillis wait before the previous retry in ms, or 0 when it is not known
+     * @param minWaitMillis min-wait in ms, the base of the backoff
+     * @param maxWaitMillis max-wait in ms, the cap of the backoff
+     * @return time to wait in ms
+     */
+    long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis);
+}
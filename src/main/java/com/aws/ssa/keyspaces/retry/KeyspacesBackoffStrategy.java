@@ -0,0 +1,107 @@
+package com.aws.ssa.keyspaces.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/***
+ * Built-in backoff strategies, with min-wait as the base and max-wait as the cap. See
+ * <a href="https://aws.amazon.com/blogs/architecture/exponential-backoff-and-jitter/">Exponential Backoff And Jitter</a>
+ * for a comparison of the jittered strategies.
+ *
+ * <pre>
+ * advanced.retry-policy.backoff = full-jitter
+ * </pre>
+ */
+public enum KeyspacesBackoffStrategy implements BackoffStrategy {
+
+    /*** min-wait plus a random jitter between retries and 2^retries ms, the original backoff of the exponential policy ***/
+    DEFAULT("default") {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            long jitter = ThreadLocalRandom.current().nextLong(retryCount, Math.max(retryCount + 1, 1L << Math.min(retryCount, 62)));
+
+            return Math.min(maxWaitMillis, minWaitMillis + jitter);
+        }
+    },
+
+    /*** min-wait * 2^retries without jitter ***/
+    CAPPED_EXPONENTIAL("capped-exponential") {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            return exponential(retryCount, minWaitMillis, maxWaitMillis);
+        }
+    },
+
+    /*** Random time between 0 and the capped exponential, the least retry load under contention ***/
+    FULL_JITTER("full-jitter") {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            return ThreadLocalRandom.current().nextLong(exponential(retryCount, minWaitMillis, maxWaitMillis) + 1);
+        }
+    },
+
+    /*** Half the capped exponential plus a random time up to the other half ***/
+    EQUAL_JITTER("equal-jitter") {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            long half = exponential(retryCount, minWaitMillis, maxWaitMillis) / 2;
+
+            return half + ThreadLocalRandom.current().nextLong(half + 1);
+        }
+    },
+
+    /***
+     * Random time between min-wait and three times the previous wait, capped at max-wait. When the previous wait is not
+     * known, as in the retry policies which have no state per request, three times the capped exponential is used instead
+     */
+    DECORRELATED_JITTER("decorrelated-jitter") {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            long previous = (previousDelayMillis > 0) ? previousDelayMillis : exponential(retryCount, minWaitMillis, maxWaitMillis);
+
+            long upper = Math.min(maxWaitMillis, previous * 3);
+
+            return (upper <= minWaitMillis) ? Math.min(minWaitMillis, maxWaitMillis) : ThreadLocalRandom.current().nextLong(minWaitMillis, upper + 1);
+        }
+    };
+
+    private final String path;
+
+    KeyspacesBackoffStrategy(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    private static long exponential(int retryCount, long minWaitMillis, long maxWaitMillis) {
+        int shift = Math.min(retryCount, 62);
+
+        return (minWaitMillis > (maxWaitMillis >> shift)) ? maxWaitMillis : Math.min(maxWaitMillis, minWaitMillis << shift);
+    }
+
+    /***
+     * Strategy named in the configuration, one of the built-in strategies or the class name of a {@link BackoffStrategy}
+     * @param name value of advanced.retry-policy.backoff
+     * @return the strategy
+     */
+    public static BackoffStrategy fromConfig(String name) {
+        for(KeyspacesBackoffStrategy strategy : values()){
+            if(strategy.path.equalsIgnoreCase(name) || strategy.name().equalsIgnoreCase(name)){
+                return strategy;
+            }
+        }
+        String qualifiedName = name.contains(".") ? name : BackoffStrategy.class.getPackage().getName() + "." + name;
+
+        try {
+            Class<?> strategyClass = Class.forName(qualifiedName);
+
+            if(!BackoffStrategy.class.isAssignableFrom(strategyClass)){
+                throw new IllegalArgumentException(qualifiedName + " does not implement BackoffStrategy");
+            }
+            return (BackoffStrategy) strategyClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Retry backoff (advanced.retry-policy.backoff) must be one of default, capped-exponential, full-jitter, equal-jitter, decorrelated-jitter or a BackoffStrategy class, currently " + name, e);
+        }
+    }
+}
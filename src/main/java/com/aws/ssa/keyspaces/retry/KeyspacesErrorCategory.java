@@ -0,0 +1,123 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.config.DriverOption;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/***
+ * Categories of errors retried differently by the {@link AmazonKeyspacesCategoryRetryPolicy}. Each category is configured
+ * under advanced.retry-policy.&lt;category&gt; with max-attempts, min-wait, max-wait, backoff and decision.
+ *
+ * In Amazon Keyspaces, read and write timeouts are most often the result of exceeding table capacity, and are best retried on
+ * the same connection after a long jittered backoff. Requests aborted by a dead connection can be retried on the next node
+ * right away.
+ */
+public enum KeyspacesErrorCategory {
+
+    /*** Table capacity or account throughput exceeded, including read and write timeouts ***/
+    CAPACITY("capacity", 3, Duration.ofMillis(50), Duration.ofSeconds(1), RetryDecision.RETRY_SAME, KeyspacesBackoffStrategy.DECORRELATED_JITTER),
+
+    /*** Throughput of a single partition exceeded, which more capacity for the table does not fix ***/
+    PARTITION_HOTSPOT("partition-hotspot", 2, Duration.ofMillis(100), Duration.ofSeconds(2), RetryDecision.RETRY_SAME, KeyspacesBackoffStrategy.DECORRELATED_JITTER),
+
+    /*** Server errors and unavailable replicas, usually gone on the next attempt ***/
+    TRANSIENT("transient", 3, Duration.ofMillis(10), Duration.ofMillis(50), RetryDecision.RETRY_NEXT, KeyspacesBackoffStrategy.EQUAL_JITTER),
+
+    /*** Requests aborted by a closed or unresponsive connection ***/
+    CONNECTION("connection", 3, Duration.ZERO, Duration.ZERO, RetryDecision.RETRY_NEXT, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL);
+
+    /***
+     * Message fragments of errors caused by a hot partition, checked before the capacity fragments since messages such as
+     * StoragePartitionThroughputCapacityExceeded mention both
+     */
+    private static final String[] HOTSPOT_MESSAGES = {"partition", "hot key"};
+
+    private static final String[] CAPACITY_MESSAGES = {"capacity", "throughput", "throttl", "rate exceeded", "provisioned"};
+
+    private final String path;
+
+    private final int defaultMaxAttempts;
+
+    private final Duration defaultMinWait;
+
+    private final Duration defaultMaxWait;
+
+    private final RetryDecision defaultDecision;
+
+    private final KeyspacesBackoffStrategy defaultBackoff;
+
+    KeyspacesErrorCategory(String path, int defaultMaxAttempts, Duration defaultMinWait, Duration defaultMaxWait, RetryDecision defaultDecision, KeyspacesBackoffStrategy defaultBackoff) {
+        this.path = path;
+        this.defaultMaxAttempts = defaultMaxAttempts;
+        this.defaultMinWait = defaultMinWait;
+        this.defaultMaxWait = defaultMaxWait;
+        this.defaultDecision = defaultDecision;
+        this.defaultBackoff = defaultBackoff;
+    }
+
+    /***
+     * Category of a server error from its message
+     * @param message error message sent back by the service, may be null
+     * @return PARTITION_HOTSPOT or CAPACITY when the message matches, otherwise TRANSIENT
+     */
+    public static KeyspacesErrorCategory fromMessage(String message) {
+        if(message == null){
+            return TRANSIENT;
+        }
+        String normalized = message.toLowerCase(Locale.ROOT);
+
+        if(containsAny(normalized, HOTSPOT_MESSAGES)){
+            return PARTITION_HOTSPOT;
+        }
+        if(containsAny(normalized, CAPACITY_MESSAGES)){
+            return CAPACITY;
+        }
+        return TRANSIENT;
+    }
+
+    private static boolean containsAny(String message, String[] fragments) {
+        for(String fragment : fragments){
+            if(message.contains(fragment)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***
+     * Option of the category, for example advanced.retry-policy.capacity.max-attempts
+     * @param name name of the setting
+     * @return option for the setting of this category
+     */
+    public DriverOption option(String name) {
+        String optionPath = "advanced.retry-policy." + path + "." + name;
+
+        return () -> optionPath;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getDefaultMaxAttempts() {
+        return defaultMaxAttempts;
+    }
+
+    public Duration getDefaultMinWait() {
+        return defaultMinWait;
+    }
+
+    public Duration getDefaultMaxWait() {
+        return defaultMaxWait;
+    }
+
+    public RetryDecision getDefaultDecision() {
+        return defaultDecision;
+    }
+
+    public KeyspacesBackoffStrategy getDefaultBackoff() {
+        return defaultBackoff;
+    }
+}
@@ -0,0 +1,51 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.cql.CqlRequestAsyncProcessor;
+import com.datastax.oss.driver.internal.core.cql.CqlRequestSyncProcessor;
+import com.datastax.oss.driver.internal.core.session.BuiltInRequestProcessors;
+import com.datastax.oss.driver.internal.core.session.RequestProcessor;
+import com.datastax.oss.driver.internal.core.session.RequestProcessorRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Driver context that processes CQL requests with the {@link BackoffRetryRequestProcessor}. The sync and reactive processors
+ * are rebuilt on top of it, so every way of executing a statement gets the non-blocking backoff. Other processors, such as
+ * prepare and graph, are kept as they are.
+ * @see KeyspacesRetrySessionBuilder
+ */
+public class KeyspacesRetryDriverContext extends DefaultDriverContext {
+
+    /***
+     * Compared by name, since the reactive processor can only be loaded when reactive streams is on the classpath
+     */
+    private static final String REACTIVE_PROCESSOR = "com.datastax.dse.driver.internal.core.cql.reactive.CqlRequestReactiveProcessor";
+
+    public KeyspacesRetryDriverContext(DriverConfigLoader configLoader, ProgrammaticArguments programmaticArguments) {
+        super(configLoader, programmaticArguments);
+    }
+
+    @Override
+    protected RequestProcessorRegistry buildRequestProcessorRegistry() {
+        BackoffRetryRequestProcessor backoffProcessor = new BackoffRetryRequestProcessor(RetryBudget.forContext(this));
+
+        List<RequestProcessor<?, ?>> processors = new ArrayList<>();
+
+        for(RequestProcessor<?, ?> processor : BuiltInRequestProcessors.createDefaultProcessors(this)){
+            if(processor.getClass() == CqlRequestAsyncProcessor.class){
+                processors.add(backoffProcessor);
+            }else if(processor.getClass() == CqlRequestSyncProcessor.class){
+                processors.add(new CqlRequestSyncProcessor(backoffProcessor));
+            }else if(processor.getClass().getName().equals(REACTIVE_PROCESSOR)){
+                processors.add(new com.datastax.dse.driver.internal.core.cql.reactive.CqlRequestReactiveProcessor(backoffProcessor));
+            }else{
+                processors.add(processor);
+            }
+        }
+        return new RequestProcessorRegistry(getSessionName(), processors.toArray(new RequestProcessor<?, ?>[0]));
+    }
+}
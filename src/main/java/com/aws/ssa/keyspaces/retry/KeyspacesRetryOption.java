@@ -10,12 +10,26 @@ public enum KeyspacesRetryOption implements DriverOption {
 
     KEYSPACES_RETRY_MAX_ATTEMPTS("advanced.retry-policy.max-attempts"),
     KEYSPACES_RETRY_MIN_WAIT("advanced.retry-policy.min-wait"),
-    KEYSPACES_RETRY_MAX_WAIT("advanced.retry-policy.max-wait");
+    KEYSPACES_RETRY_MAX_WAIT("advanced.retry-policy.max-wait"),
+    KEYSPACES_RETRY_NON_BLOCKING("advanced.retry-policy.non-blocking"),
+    KEYSPACES_RETRY_BACKOFF("advanced.retry-policy.backoff"),
+    KEYSPACES_RETRY_BUDGET_ENABLED("advanced.retry-policy.budget.enabled"),
+    KEYSPACES_RETRY_BUDGET_RATIO("advanced.retry-policy.budget.ratio"),
+    KEYSPACES_RETRY_BUDGET_MIN_RETRIES_PER_SECOND("advanced.retry-policy.budget.min-retries-per-second"),
+    KEYSPACES_RETRY_BUDGET_WINDOW("advanced.retry-policy.budget.window"),
+    KEYSPACES_RETRY_BUDGET_JMX_ENABLED("advanced.retry-policy.budget.jmx-enabled");
 
 
     public static final Integer DEFAULT_KEYSPACES_RETRY_MAX_ATTEMPTS = 3;
     public static final Duration DEFAULT_KEYSPACES_RETRY_MIN_WAIT = Duration.ofMillis(10);
     public static final Duration DEFAULT_KEYSPACES_RETRY_MAX_WAIT = Duration.ofMillis(50);
+    public static final Boolean DEFAULT_KEYSPACES_RETRY_NON_BLOCKING = false;
+    public static final String DEFAULT_KEYSPACES_RETRY_BACKOFF = "default";
+    public static final Boolean DEFAULT_KEYSPACES_RETRY_BUDGET_ENABLED = false;
+    public static final Double DEFAULT_KEYSPACES_RETRY_BUDGET_RATIO = 0.1;
+    public static final Integer DEFAULT_KEYSPACES_RETRY_BUDGET_MIN_RETRIES_PER_SECOND = 10;
+    public static final Duration DEFAULT_KEYSPACES_RETRY_BUDGET_WINDOW = Duration.ofSeconds(10);
+    public static final Boolean DEFAULT_KEYSPACES_RETRY_BUDGET_JMX_ENABLED = false;
 
     private final String path;
 
@@ -0,0 +1,22 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.CqlSessionBuilder;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+
+/***
+ * Session builder for the non-blocking backoff of the {@link AmazonKeyspacesExponentialRetryPolicy}. Use in place of
+ * CqlSession.builder():
+ *
+ * <pre>
+ * CqlSession session = new KeyspacesRetrySessionBuilder().build();
+ * </pre>
+ */
+public class KeyspacesRetrySessionBuilder extends CqlSessionBuilder {
+
+    @Override
+    protected DriverContext buildContext(DriverConfigLoader configLoader, ProgrammaticArguments programmaticArguments) {
+        return new KeyspacesRetryDriverContext(configLoader, programmaticArguments);
+    }
+}
@@ -0,0 +1,232 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.aws.ssa.keyspaces.metrics.SlidingWindowCounter;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/***
+ * Limits retries to a fraction of recent successful requests, so that a capacity breach does not turn every request into a
+ * retry loop that keeps the table saturated. Within the sliding window, retries are allowed while
+ *
+ *   retries &lt; ratio * successes + min-retries-per-second * window
+ *
+ * The floor lets a session with little traffic retry at all. Once the budget is spent, the retry policies rethrow the error.
+ *
+ * Successes and retries are counted by {@link SlidingWindowCounter}s, in buckets of a tenth of the window. Retries are taken
+ * with a compare and set on the current bucket, so concurrent retries do not overspend the budget. The budget is approximate at
+ * bucket boundaries.
+ *
+ * A budget is shared by the retry policies of every profile of a session, and by the {@link RetryBudgetRequestTracker} that
+ * counts the successes:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *   advanced.retry-policy {
+ *     class = com.aws.ssa.keyspaces.retry.AmazonKeyspacesRetryPolicy
+ *     max-attempts = 1000
+ *     budget.enabled = true
+ *     budget.ratio = 0.1
+ *   }
+ *   advanced.request-tracker.classes = [ com.aws.ssa.keyspaces.retry.RetryBudgetRequestTracker ]
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public class RetryBudget implements RetryBudgetMXBean, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryBudget.class);
+
+    /***
+     * Budget of each session, by driver context. Weak keys so that closed sessions are not kept
+     */
+    private static final Map<DriverContext, RetryBudget> BUDGETS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final int BUCKETS = SlidingWindowCounter.BUCKETS;
+
+    private final String logPrefix;
+
+    private final double ratio;
+
+    private final int minRetriesPerSecond;
+
+    private final long windowNanos;
+
+    private final SlidingWindowCounter successes;
+
+    private final SlidingWindowCounter retries;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile ObjectName mbeanName;
+
+    public RetryBudget(String logPrefix, long windowInMs, double ratio, int minRetriesPerSecond) {
+        this(logPrefix, System::nanoTime, windowInMs, ratio, minRetriesPerSecond);
+    }
+
+    RetryBudget(String logPrefix, LongSupplier ticker, long windowInMs, double ratio, int minRetriesPerSecond) {
+        if(windowInMs < BUCKETS){
+            LOG.error("[{}] Retry budget window must be at least {} ms, currently {}", logPrefix, BUCKETS, windowInMs);
+            throw new IllegalArgumentException("Retry budget window (advanced.retry-policy.budget.window) must be at least " + BUCKETS + " ms, currently " + windowInMs);
+        }
+        if(ratio < 0.0){
+            LOG.error("[{}] Retry budget ratio must not be negative, currently {}", logPrefix, ratio);
+            throw new IllegalArgumentException("Retry budget ratio (advanced.retry-policy.budget.ratio) must not be negative, currently " + ratio);
+        }
+        if(minRetriesPerSecond < 0){
+            LOG.error("[{}] Retry budget min retries per second must not be negative, currently {}", logPrefix, minRetriesPerSecond);
+            throw new IllegalArgumentException("Retry budget min retries per second (advanced.retry-policy.budget.min-retries-per-second) must not be negative, currently " + minRetriesPerSecond);
+        }
+        this.logPrefix = logPrefix;
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowInMs);
+        this.successes = new SlidingWindowCounter(ticker, windowInMs);
+        this.retries = new SlidingWindowCounter(ticker, windowInMs);
+    }
+
+    /***
+     * Budget of the session of the context, created from its default profile on first use
+     * @param context driver context of the session
+     * @return the budget, or null when advanced.retry-policy.budget.enabled is false
+     */
+    public static RetryBudget forContext(DriverContext context) {
+        if(context == null){
+            return null;
+        }
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        if(!profile.getBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_ENABLED, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BUDGET_ENABLED)){
+            return null;
+        }
+        synchronized (BUDGETS) {
+            RetryBudget budget = BUDGETS.get(context);
+
+            if(budget == null){
+                budget = new RetryBudget(context.getSessionName(),
+                        profile.getDuration(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_WINDOW, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BUDGET_WINDOW).toMillis(),
+                        profile.getDouble(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_RATIO, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BUDGET_RATIO),
+                        profile.getInt(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_MIN_RETRIES_PER_SECOND, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BUDGET_MIN_RETRIES_PER_SECOND));
+
+                if(profile.getBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_JMX_ENABLED, KeyspacesRetryOption.DEFAULT_KEYSPACES_RETRY_BUDGET_JMX_ENABLED)){
+                    budget.registerMBean();
+                }
+                BUDGETS.put(context, budget);
+            }
+            return budget;
+        }
+    }
+
+    /***
+     * Remove the budget from its session and unregister its MBean. Called when the session closes, by the retry policies
+     * and the request tracker
+     */
+    public void close() {
+        BUDGETS.values().remove(this);
+
+        unregisterMBean();
+    }
+
+    /***
+     * Count a successful request
+     */
+    public void recordSuccess() {
+        successes.increment();
+    }
+
+    /***
+     * Take a retry from the budget. The retry is counted with a compare and set on the current bucket, so that concurrent
+     * retries cannot all pass the check and overspend the budget
+     * @return true if the retry is allowed, false if the budget is spent
+     */
+    public boolean tryAcquireRetry() {
+        if(retries.tryIncrement(allowedRetries())){
+            return true;
+        }
+        rejected.increment();
+
+        LOG.trace("[{}] Retry budget spent, rethrowing", logPrefix);
+
+        return false;
+    }
+
+    private long allowedRetries() {
+        return (long) (ratio * successes.sum()) + (long) (minRetriesPerSecond * (double) windowNanos / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.aws.ssa.keyspaces:type=RetryBudget,session=" + ObjectName.quote(logPrefix));
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+
+            LOG.info("[{}] Registered retry budget MBean {}", logPrefix, name);
+
+            this.mbeanName = name;
+        } catch (JMException e) {
+            LOG.warn("[{}] Could not register retry budget MBean", logPrefix, e);
+        }
+    }
+
+    private synchronized void unregisterMBean() {
+        if(mbeanName != null){
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                LOG.debug("[{}] Could not unregister retry budget MBean", logPrefix, e);
+            }
+            mbeanName = null;
+        }
+    }
+
+    @Override
+    public double getRatio() {
+        return ratio;
+    }
+
+    @Override
+    public int getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+
+    @Override
+    public long getWindowInMs() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getAvailableRetries() {
+        return Math.max(0, allowedRetries() - retries.sum());
+    }
+
+    @Override
+    public long getRejectedRetries() {
+        return rejected.sum();
+    }
+
+    public ObjectName getMBeanName() {
+        return mbeanName;
+    }
+}
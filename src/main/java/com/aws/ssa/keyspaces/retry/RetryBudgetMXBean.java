@@ -0,0 +1,28 @@
+package com.aws.ssa.keyspaces.retry;
+
+/***
+ * JMX view of the {@link RetryBudget} of a session, registered as com.aws.ssa.keyspaces:type=RetryBudget,session=&lt;session&gt;
+ * when advanced.retry-policy.budget.jmx-enabled is true. Counts cover the sliding window unless noted.
+ */
+public interface RetryBudgetMXBean {
+
+    double getRatio();
+
+    int getMinRetriesPerSecond();
+
+    long getWindowInMs();
+
+    long getSuccesses();
+
+    long getRetries();
+
+    /***
+     * Retries that can still be made in the current window
+     */
+    long getAvailableRetries();
+
+    /***
+     * Retries refused since the session started
+     */
+    long getRejectedRetries();
+}
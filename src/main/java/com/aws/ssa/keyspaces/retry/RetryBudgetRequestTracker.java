@@ -0,0 +1,45 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.tracker.RequestTracker;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+
+/***
+ * Request tracker counting successful requests in the {@link RetryBudget} of the session. Without it the budget only allows
+ * the min-retries-per-second floor.
+ *
+ * <pre>
+ * advanced.request-tracker.classes = [ com.aws.ssa.keyspaces.retry.RetryBudgetRequestTracker ]
+ * </pre>
+ */
+@ThreadSafe
+public class RetryBudgetRequestTracker implements RequestTracker {
+
+    private final RetryBudget budget;
+
+    public RetryBudgetRequestTracker(DriverContext context) {
+        this.budget = RetryBudget.forContext(context);
+    }
+
+    @Override
+    public void onSuccess(@NonNull Request request, long latencyNanos, @NonNull DriverExecutionProfile executionProfile, @NonNull Node node, @NonNull String requestLogPrefix) {
+        if(budget != null){
+            budget.recordSuccess();
+        }
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public void close() {
+        if(budget != null){
+            budget.close();
+        }
+    }
+}
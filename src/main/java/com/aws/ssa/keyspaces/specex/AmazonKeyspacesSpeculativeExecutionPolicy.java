@@ -0,0 +1,198 @@
+package com.aws.ssa.keyspaces.specex;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.specex.SpeculativeExecutionPolicy;
+import com.datastax.oss.driver.internal.core.cql.Conversions;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Speculative execution policy that hedges a request once it runs longer than a percentile of the recent latency of its
+ * execution profile. The hedge is sent to the next node of the query plan, on another connection. The driver only starts
+ * speculative executions for idempotent requests.
+ * <p>
+ * Latencies are recorded by the {@link LatencyRequestTracker}, which must be registered as a request tracker. Until a profile
+ * has min-samples latencies in the last refresh interval, its requests are not hedged.
+ * <p>
+ * Speculative executions are not registered with the request throttler, so hedges are capped to max-hedge-ratio of completed
+ * requests, with bursts of at most max-hedge-burst hedges. Keep the ratio within the headroom left by the throttler's rate.
+ * Most hedges are cancelled because the first execution completes before the delay, so a hedge token is only spent when the
+ * hedge fires, which the driver signals by asking for the execution after it. A hedge is scheduled while a token is left, and
+ * hedges already scheduled when the tokens run out may overdraw them, delaying the next hedges until enough requests complete.
+ *
+ * <pre>
+ * datastax-java-driver {
+ *   advanced.speculative-execution-policy {
+ *     class = com.aws.ssa.keyspaces.specex.AmazonKeyspacesSpeculativeExecutionPolicy
+ *     max-executions = 2
+ *     percentile = 99.0
+ *     min-delay = 5 milliseconds
+ *     min-samples = 100
+ *     refresh-interval = 5 seconds
+ *     max-hedge-ratio = 0.05
+ *     max-hedge-burst = 10
+ *   }
+ *   advanced.request-tracker.classes = [ com.aws.ssa.keyspaces.specex.LatencyRequestTracker ]
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public class AmazonKeyspacesSpeculativeExecutionPolicy implements SpeculativeExecutionPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesSpeculativeExecutionPolicy.class);
+
+    /***
+     * Hedge tokens are kept in millionths of a hedge, so that each request adds a fraction of a hedge
+     */
+    private static final long TOKEN = 1_000_000L;
+
+    private final DriverContext context;
+
+    private final String logPrefix;
+
+    private final int maxExecutions;
+
+    private final double percentile;
+
+    private final long minDelayInMs;
+
+    private final long tokensPerRequest;
+
+    private final long maxTokens;
+
+    private final LatencyStats stats;
+
+    private final AtomicLong tokens;
+
+    /***
+     * Completed requests of the session already turned into hedge tokens
+     */
+    private final AtomicLong requestsSeen;
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder firedHedges = new LongAdder();
+
+    public AmazonKeyspacesSpeculativeExecutionPolicy(DriverContext context, String profileName) {
+        this(context, profileName, LatencyStats.forContext(context));
+    }
+
+    AmazonKeyspacesSpeculativeExecutionPolicy(DriverContext context, String profileName, LatencyStats stats) {
+        DriverExecutionProfile profile = context.getConfig().getProfile(profileName);
+
+        this.context = context;
+        this.logPrefix = context.getSessionName() + "|" + profileName;
+        this.stats = stats;
+
+        this.maxExecutions = profile.getInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX, KeyspacesSpeculativeExecutionOption.DEFAULT_MAX_EXECUTIONS);
+        this.percentile = profile.getDouble(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_PERCENTILE, KeyspacesSpeculativeExecutionOption.DEFAULT_PERCENTILE);
+        this.minDelayInMs = profile.getDuration(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MIN_DELAY, KeyspacesSpeculativeExecutionOption.DEFAULT_MIN_DELAY).toMillis();
+
+        double maxHedgeRatio = profile.getDouble(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MAX_HEDGE_RATIO, KeyspacesSpeculativeExecutionOption.DEFAULT_MAX_HEDGE_RATIO);
+        int maxHedgeBurst = profile.getInt(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MAX_HEDGE_BURST, KeyspacesSpeculativeExecutionOption.DEFAULT_MAX_HEDGE_BURST);
+
+        if(maxExecutions < 1){
+            LOG.error("[{}] Speculative max executions must be at least 1, currently {}", logPrefix, maxExecutions);
+            throw new IllegalArgumentException("Speculative max executions (advanced.speculative-execution-policy.max-executions) must be at least 1, currently " + maxExecutions);
+        }
+        if(percentile <= 0.0 || percentile >= 100.0){
+            LOG.error("[{}] Speculative percentile must be between 0 and 100, currently {}", logPrefix, percentile);
+            throw new IllegalArgumentException("Speculative percentile (advanced.speculative-execution-policy.percentile) must be between 0 and 100, currently " + percentile);
+        }
+        if(maxHedgeRatio < 0.0 || maxHedgeRatio > 1.0){
+            LOG.error("[{}] Speculative max hedge ratio must be between 0 and 1, currently {}", logPrefix, maxHedgeRatio);
+            throw new IllegalArgumentException("Speculative max hedge ratio (advanced.speculative-execution-policy.max-hedge-ratio) must be between 0 and 1, currently " + maxHedgeRatio);
+        }
+        if(maxHedgeBurst < 1){
+            LOG.error("[{}] Speculative max hedge burst must be at least 1, currently {}", logPrefix, maxHedgeBurst);
+            throw new IllegalArgumentException("Speculative max hedge burst (advanced.speculative-execution-policy.max-hedge-burst) must be at least 1, currently " + maxHedgeBurst);
+        }
+        this.tokensPerRequest = Math.round(maxHedgeRatio * TOKEN);
+        this.maxTokens = maxHedgeBurst * TOKEN;
+        this.tokens = new AtomicLong(0);
+        this.requestsSeen = new AtomicLong(stats.getRequests());
+    }
+
+    @Override
+    public long nextExecution(@NonNull Node node, @Nullable CqlIdentifier keyspace, @NonNull Request request, int runningExecutions) {
+        //the driver asks for the next execution once an execution is sent, so past the first one a hedge has fired
+        if(runningExecutions > 1){
+            chargeHedge();
+        }
+        if(runningExecutions >= maxExecutions){
+            return -1;
+        }
+        String profileName = Conversions.resolveExecutionProfile(request, context).getName();
+
+        long latencyMicros = stats.percentileMicros(profileName, percentile);
+
+        if(latencyMicros < 0 || !hasHedgeToken()){
+            return -1;
+        }
+        hedges.increment();
+
+        long delay = Math.max(minDelayInMs, TimeUnit.MICROSECONDS.toMillis(latencyMicros + 999));
+
+        LOG.trace("[{}] Hedging request of profile {} after {} ms (executions: {})", logPrefix, profileName, delay, runningExecutions);
+
+        return delay;
+    }
+
+    /***
+     * Check for a hedge token, after adding the tokens earned by the requests completed since the last check. The token is
+     * spent when the hedge fires
+     * @return true if a hedge is within max-hedge-ratio and max-hedge-burst
+     */
+    boolean hasHedgeToken() {
+        long completed = stats.getRequests();
+
+        long newRequests = completed - requestsSeen.getAndAccumulate(completed, Math::max);
+
+        if(newRequests > 0){
+            long earned = (newRequests > maxTokens / Math.max(1, tokensPerRequest)) ? maxTokens : newRequests * tokensPerRequest;
+
+            tokens.accumulateAndGet(earned, (current, added) -> Math.min(maxTokens, current + added));
+        }
+        return tokens.get() >= TOKEN;
+    }
+
+    /***
+     * Spend the token of a hedge that fired. The tokens may go negative when more scheduled hedges fire than tokens are left
+     */
+    private void chargeHedge() {
+        firedHedges.increment();
+
+        tokens.addAndGet(-TOKEN);
+    }
+
+    /***
+     * Number of hedges scheduled, most of which are cancelled when the first execution completes before the delay
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /***
+     * Number of hedges that fired and were charged a hedge token
+     */
+    public long getFiredHedges() {
+        return firedHedges.sum();
+    }
+
+    @Override
+    public void close() {
+        // the stats are closed with the request tracker
+    }
+}
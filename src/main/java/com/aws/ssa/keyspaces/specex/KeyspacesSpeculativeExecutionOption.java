@@ -0,0 +1,34 @@
+package com.aws.ssa.keyspaces.specex;
+
+import com.datastax.oss.driver.api.core.config.DriverOption;
+
+import java.time.Duration;
+
+public enum KeyspacesSpeculativeExecutionOption implements DriverOption {
+
+    KEYSPACES_SPECEX_PERCENTILE("advanced.speculative-execution-policy.percentile"),
+    KEYSPACES_SPECEX_MIN_DELAY("advanced.speculative-execution-policy.min-delay"),
+    KEYSPACES_SPECEX_MIN_SAMPLES("advanced.speculative-execution-policy.min-samples"),
+    KEYSPACES_SPECEX_REFRESH_INTERVAL("advanced.speculative-execution-policy.refresh-interval"),
+    KEYSPACES_SPECEX_MAX_HEDGE_RATIO("advanced.speculative-execution-policy.max-hedge-ratio"),
+    KEYSPACES_SPECEX_MAX_HEDGE_BURST("advanced.speculative-execution-policy.max-hedge-burst");
+
+    public static final Integer DEFAULT_MAX_EXECUTIONS = 2;
+    public static final Double DEFAULT_PERCENTILE = 99.0;
+    public static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(5);
+    public static final Integer DEFAULT_MIN_SAMPLES = 100;
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(5);
+    public static final Double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+    public static final Integer DEFAULT_MAX_HEDGE_BURST = 10;
+
+    private final String path;
+
+    KeyspacesSpeculativeExecutionOption(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,52 @@
+package com.aws.ssa.keyspaces.specex;
+
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.tracker.RequestTracker;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+
+/***
+ * Request tracker recording latencies in the {@link LatencyStats} of the session for the
+ * {@link AmazonKeyspacesSpeculativeExecutionPolicy}. The latency of each successful execution is recorded under its profile,
+ * and every completed request counts toward the hedge budget.
+ *
+ * <pre>
+ * advanced.request-tracker.classes = [ com.aws.ssa.keyspaces.specex.LatencyRequestTracker ]
+ * </pre>
+ */
+@ThreadSafe
+public class LatencyRequestTracker implements RequestTracker {
+
+    private final LatencyStats stats;
+
+    public LatencyRequestTracker(DriverContext context) {
+        this.stats = LatencyStats.forContext(context);
+    }
+
+    @Override
+    public void onNodeSuccess(@NonNull Request request, long latencyNanos, @NonNull DriverExecutionProfile executionProfile, @NonNull Node node, @NonNull String requestLogPrefix) {
+        stats.recordLatency(executionProfile.getName(), latencyNanos);
+    }
+
+    @Override
+    public void onSuccess(@NonNull Request request, long latencyNanos, @NonNull DriverExecutionProfile executionProfile, @NonNull Node node, @NonNull String requestLogPrefix) {
+        stats.recordRequest();
+    }
+
+    @Override
+    public void onError(@NonNull Request request, @NonNull Throwable error, long latencyNanos, @NonNull DriverExecutionProfile executionProfile, Node node, @NonNull String requestLogPrefix) {
+        stats.recordRequest();
+    }
+
+    public LatencyStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        stats.close();
+    }
+}
@@ -0,0 +1,147 @@
+package com.aws.ssa.keyspaces.specex;
+
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import net.jcip.annotations.ThreadSafe;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/***
+ * Latency of the requests of a session by execution profile, recorded by the {@link LatencyRequestTracker} and read by the
+ * {@link AmazonKeyspacesSpeculativeExecutionPolicy}. Latencies are recorded in an HdrHistogram Recorder, which writers update
+ * without locking. Percentiles are read from the histogram of the last refresh interval, swapped by the first reader after the
+ * interval, so that they follow recent latency.
+ */
+@ThreadSafe
+public class LatencyStats implements AutoCloseable {
+
+    /***
+     * Stats of each session, by driver context. Weak keys so that closed sessions are not kept
+     */
+    private static final Map<DriverContext, LatencyStats> STATS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LongSupplier ticker;
+
+    private final long refreshIntervalNanos;
+
+    private final long minSamples;
+
+    private final ConcurrentMap<String, ProfileLatency> profiles = new ConcurrentHashMap<>();
+
+    /***
+     * Requests completed by the session, successful or not, over all profiles
+     */
+    private final LongAdder requests = new LongAdder();
+
+    public LatencyStats(long refreshIntervalInMs, long minSamples) {
+        this(System::nanoTime, refreshIntervalInMs, minSamples);
+    }
+
+    LatencyStats(LongSupplier ticker, long refreshIntervalInMs, long minSamples) {
+        if(refreshIntervalInMs <= 0){
+            throw new IllegalArgumentException("Speculative execution refresh interval (advanced.speculative-execution-policy.refresh-interval) must be greater than zero, currently " + refreshIntervalInMs);
+        }
+        this.ticker = ticker;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalInMs);
+        this.minSamples = minSamples;
+    }
+
+    /***
+     * Stats of the session of the context, created from its default profile on first use
+     * @param context driver context of the session
+     * @return the stats of the session
+     */
+    public static LatencyStats forContext(DriverContext context) {
+        synchronized (STATS) {
+            return STATS.computeIfAbsent(context, key -> {
+                DriverExecutionProfile profile = key.getConfig().getDefaultProfile();
+
+                return new LatencyStats(
+                        profile.getDuration(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_REFRESH_INTERVAL, KeyspacesSpeculativeExecutionOption.DEFAULT_REFRESH_INTERVAL).toMillis(),
+                        profile.getInt(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MIN_SAMPLES, KeyspacesSpeculativeExecutionOption.DEFAULT_MIN_SAMPLES));
+            });
+        }
+    }
+
+    /***
+     * Record the latency of a successful execution
+     * @param profileName execution profile of the request
+     * @param latencyNanos latency of the execution
+     */
+    public void recordLatency(String profileName, long latencyNanos) {
+        profile(profileName).recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    /***
+     * Count a completed request
+     */
+    public void recordRequest() {
+        requests.increment();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /***
+     * Latency at a percentile over the last refresh interval
+     * @param profileName execution profile of the request
+     * @param percentile percentile between 0 and 100
+     * @return latency in microseconds, or -1 when the interval has fewer than min-samples latencies
+     */
+    public long percentileMicros(String profileName, double percentile) {
+        ProfileLatency latency = profile(profileName);
+
+        long now = ticker.getAsLong();
+
+        long lastRefresh = latency.lastRefreshNanos.get();
+
+        if(now - lastRefresh >= refreshIntervalNanos && latency.lastRefreshNanos.compareAndSet(lastRefresh, now)){
+            latency.snapshot = latency.recorder.getIntervalHistogram();
+        }
+        Histogram snapshot = latency.snapshot;
+
+        if(snapshot == null || snapshot.getTotalCount() < minSamples){
+            return -1;
+        }
+        return snapshot.getValueAtPercentile(percentile);
+    }
+
+    private ProfileLatency profile(String profileName) {
+        return profiles.computeIfAbsent(profileName, name -> new ProfileLatency(ticker.getAsLong()));
+    }
+
+    @Override
+    public void close() {
+        STATS.values().remove(this);
+    }
+
+    private static final class ProfileLatency {
+
+        /***
+         * Latencies in microseconds with 3 significant digits
+         */
+        private final Recorder recorder = new Recorder(3);
+
+        private final AtomicLong lastRefreshNanos;
+
+        /***
+         * Histogram of the last refresh interval, null until the first interval is over
+         */
+        private volatile Histogram snapshot;
+
+        private ProfileLatency(long createdNanos) {
+            this.lastRefreshNanos = new AtomicLong(createdNanos);
+        }
+    }
+}
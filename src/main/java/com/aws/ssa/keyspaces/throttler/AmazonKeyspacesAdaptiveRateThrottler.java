@@ -0,0 +1,335 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.ServerError;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request throttler that adjusts the rate of requests per second based on feedback from the service. It extends the
+ * {@link AmazonKeyspacesFixedRateThrottler} and uses additive increase, multiplicative decrease (AIMD) to find the throughput
+ * the table can sustain.
+ * <p>
+ * In Amazon Keyspaces, it's likely that {@link WriteTimeoutException} or {@link ReadTimeoutException} is the result of exceeding current table
+ * capacity. These exceptions, server errors, and client side timeouts are treated as congestion signals, and the rate is multiplied by the
+ * decrease factor. The rate will not be decreased more than once per cooldown, since requests in flight will likely fail together.
+ * After the configured number of successful requests the rate is increased by the additive step. The rate stays between the configured
+ * minimum and max-requests-per-second. A max-requests-per-second changed by a configuration reload or through JMX moves the
+ * ceiling, and the current rate is lowered to the new ceiling when it is above it.
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesAdaptiveRateThrottler
+ *           max-requests-per-second = 1000
+ *           number-of-hosts = 3
+ *           register-timeout = 3 seconds
+ *           adaptive {
+ *              min-requests-per-second = 10
+ *              additive-increase = 10
+ *              multiplicative-decrease = 0.7
+ *              success-threshold = 100
+ *              decrease-cooldown = 1 second
+ *           }
+ *     }
+ * }
+ * </pre>
+ *  max-requests-per-second : the ceiling and starting rate of CQL request per second
+ *  adaptive.min-requests-per-second : the floor of CQL request per second
+ *  adaptive.additive-increase : request per second added after success-threshold successful requests
+ *  adaptive.multiplicative-decrease : factor applied to the rate on congestion. Must be between 0 and 1
+ *  adaptive.success-threshold : number of successful requests before increasing the rate
+ *  adaptive.decrease-cooldown : minimum time between two decreases
+ */
+@ThreadSafe
+public class AmazonKeyspacesAdaptiveRateThrottler extends AmazonKeyspacesFixedRateThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesAdaptiveRateThrottler.class);
+
+    private final String logPrefix;
+
+    /***
+     * Upper bound of the rate. Taken from max-requests-per-second, and moved by reloads and JMX
+     */
+    private volatile long ceilingRequestsPerSecond;
+
+    /***
+     * Lower bound of the rate
+     */
+    private final long minRequestsPerSecond;
+
+    /***
+     * Requests per second added when probing for more throughput
+     */
+    private final long additiveIncrease;
+
+    /***
+     * Factor applied to the rate on congestion
+     */
+    private final double multiplicativeDecrease;
+
+    /***
+     * Number of successful requests before increasing the rate
+     */
+    private final int successThreshold;
+
+    /***
+     * Minimum time between two decreases
+     */
+    private final long decreaseCooldownNanos;
+
+    private final AtomicLong successesSinceLastAdjustment = new AtomicLong();
+
+    private final AtomicLong lastDecreaseNanos;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesAdaptiveRateThrottler(DriverContext context) {
+        this(context,
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND,
+                                REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND_DEFAULT),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT,context.getConfig()
+                                .getDefaultProfile()
+                                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis(),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getInt(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NUMBER_OF_HOSTS, KeyspacesThrottleOption.DEFAULT_NUMBER_OF_HOSTS),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getInt(DefaultDriverOption.CONNECTION_POOL_LOCAL_SIZE));
+    }
+
+    /*** Initialization of the Throttler with the adaptive settings taken from the configuration ***/
+    public AmazonKeyspacesAdaptiveRateThrottler(DriverContext context, long maxRequestsPerSecond, long registerTimeoutInMs
+            , int numberOfHosts, int numberOfConnectionsPerHost) {
+        this(context, maxRequestsPerSecond, registerTimeoutInMs, numberOfHosts, numberOfConnectionsPerHost,
+                context.getConfig().getDefaultProfile());
+    }
+
+    private AmazonKeyspacesAdaptiveRateThrottler(DriverContext context, long maxRequestsPerSecond, long registerTimeoutInMs
+            , int numberOfHosts, int numberOfConnectionsPerHost, DriverExecutionProfile profile) {
+        this(context, maxRequestsPerSecond, registerTimeoutInMs, numberOfHosts, numberOfConnectionsPerHost,
+                profile.getLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_ADAPTIVE_MIN_REQUESTS_PER_SECOND, KeyspacesThrottleOption.DEFAULT_ADAPTIVE_MIN_REQUESTS_PER_SECOND),
+                profile.getLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_ADAPTIVE_ADDITIVE_INCREASE, KeyspacesThrottleOption.DEFAULT_ADAPTIVE_ADDITIVE_INCREASE),
+                profile.getDouble(KeyspacesThrottleOption.KEYSPACES_THROTTLE_ADAPTIVE_MULTIPLICATIVE_DECREASE, KeyspacesThrottleOption.DEFAULT_ADAPTIVE_MULTIPLICATIVE_DECREASE),
+                profile.getInt(KeyspacesThrottleOption.KEYSPACES_THROTTLE_ADAPTIVE_SUCCESS_THRESHOLD, KeyspacesThrottleOption.DEFAULT_ADAPTIVE_SUCCESS_THRESHOLD),
+                profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_ADAPTIVE_DECREASE_COOLDOWN, KeyspacesThrottleOption.DEFAULT_ADAPTIVE_DECREASE_COOLDOWN).toMillis());
+    }
+
+    /*** Initialization of the Throttler ***/
+    public AmazonKeyspacesAdaptiveRateThrottler(DriverContext context, long maxRequestsPerSecond, long registerTimeoutInMs
+            , int numberOfHosts, int numberOfConnectionsPerHost, long minRequestsPerSecond, long additiveIncrease
+            , double multiplicativeDecrease, int successThreshold, long decreaseCooldownInMs) {
+        super(context, maxRequestsPerSecond, registerTimeoutInMs, numberOfHosts, numberOfConnectionsPerHost);
+
+        this.logPrefix = context.getSessionName();
+
+        this.ceilingRequestsPerSecond = maxRequestsPerSecond;
+
+        this.minRequestsPerSecond = minRequestsPerSecond;
+
+        this.additiveIncrease = additiveIncrease;
+
+        this.multiplicativeDecrease = multiplicativeDecrease;
+
+        this.successThreshold = successThreshold;
+
+        this.decreaseCooldownNanos = TimeUnit.MILLISECONDS.toNanos(decreaseCooldownInMs);
+
+        if(minRequestsPerSecond <= 0 || minRequestsPerSecond > maxRequestsPerSecond){
+            LOG.error(
+                    "[{}]  Throttler adaptive min request per second (advanced.throttler.adaptive.min-requests-per-second) must be greater than zero and less than or equal to max-requests-per-second, currently {}",
+                    logPrefix,
+                    minRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler minRequestsPerSecond (advanced.throttler.adaptive.min-requests-per-second) must be greater than zero and less than or equal to max-requests-per-second " + maxRequestsPerSecond + ", currently " + minRequestsPerSecond);
+        }
+
+        if(additiveIncrease <= 0){
+            LOG.error(
+                    "[{}]  Throttler adaptive additive increase (advanced.throttler.adaptive.additive-increase) must be set greater than zero, currently {}",
+                    logPrefix,
+                    additiveIncrease);
+
+            throw new IllegalArgumentException("Throttler additiveIncrease (advanced.throttler.adaptive.additive-increase) must be set greater than zero, currently " + additiveIncrease);
+        }
+
+        if(multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1){
+            LOG.error(
+                    "[{}]  Throttler adaptive multiplicative decrease (advanced.throttler.adaptive.multiplicative-decrease) must be between 0 and 1, currently {}",
+                    logPrefix,
+                    multiplicativeDecrease);
+
+            throw new IllegalArgumentException("Throttler multiplicativeDecrease (advanced.throttler.adaptive.multiplicative-decrease) must be between 0 and 1, currently " + multiplicativeDecrease);
+        }
+
+        if(successThreshold <= 0){
+            LOG.error(
+                    "[{}]  Throttler adaptive success threshold (advanced.throttler.adaptive.success-threshold) must be set greater than zero, currently {}",
+                    logPrefix,
+                    successThreshold);
+
+            throw new IllegalArgumentException("Throttler successThreshold (advanced.throttler.adaptive.success-threshold) must be set greater than zero, currently " + successThreshold);
+        }
+
+        //Allow the first congestion signal to decrease the rate right away
+        this.lastDecreaseNanos = new AtomicLong(System.nanoTime() - decreaseCooldownNanos);
+
+        LOG.info(
+                "[{}] Initializing adaptive rate between minRequestsPerSecond = {} and maxRequestsPerSecond = {}, additiveIncrease = {}, multiplicativeDecrease = {}, successThreshold = {}",
+                logPrefix,
+                minRequestsPerSecond,
+                maxRequestsPerSecond,
+                additiveIncrease,
+                multiplicativeDecrease,
+                successThreshold);
+    }
+
+    /***
+     * Capacity related exceptions and server errors indicate the table or service can not keep up with the current rate
+     * @param error the error returned for the request
+     * @return true if the rate should be decreased
+     */
+    public static boolean isCongestionSignal(Throwable error){
+        return error instanceof WriteTimeoutException
+                || error instanceof ReadTimeoutException
+                || error instanceof OverloadedException
+                || error instanceof ServerError;
+    }
+
+    @Override
+    public void signalSuccess(@NonNull Throttled request) {
+        super.signalSuccess(request);
+
+        long successes = successesSinceLastAdjustment.incrementAndGet();
+
+        //Only one of the threads crossing the threshold will reset the count and increase
+        if(successes >= successThreshold && successesSinceLastAdjustment.compareAndSet(successes, 0)){
+            increase();
+        }
+    }
+
+    @Override
+    public void signalError(@NonNull Throttled request, @NonNull Throwable error) {
+        super.signalError(request, error);
+
+        if(isCongestionSignal(error)){
+            decrease();
+        }
+    }
+
+    @Override
+    public void signalTimeout(@NonNull Throttled request) {
+        super.signalTimeout(request);
+
+        decrease();
+    }
+
+    /***
+     * Additive increase of the rate up to the ceiling
+     */
+    protected synchronized void increase(){
+        long current = getMaxRequestsPerSecond();
+
+        long next = Math.min(ceilingRequestsPerSecond, current + additiveIncrease);
+
+        if(next != current){
+            super.setMaxRequestsPerSecond(next);
+
+            LOG.debug("[{}] Increasing rate from {} to {} request per second", logPrefix, current, next);
+        }
+    }
+
+    /***
+     * Multiplicative decrease of the rate down to the floor. Ignored during the cooldown following the previous decrease
+     */
+    protected synchronized void decrease(){
+        long now = System.nanoTime();
+
+        if(now - lastDecreaseNanos.get() < decreaseCooldownNanos){
+            return;
+        }
+        lastDecreaseNanos.set(now);
+
+        successesSinceLastAdjustment.set(0);
+
+        long current = getMaxRequestsPerSecond();
+
+        long next = Math.max(minRequestsPerSecond, (long) (current * multiplicativeDecrease));
+
+        if(next != current){
+            super.setMaxRequestsPerSecond(next);
+
+            LOG.info("[{}] Congestion detected, decreasing rate from {} to {} request per second", logPrefix, current, next);
+        }
+    }
+
+    /***
+     * A reloaded max-requests-per-second moves the ceiling of the rate
+     * @param maxRequestsPerSecond reloaded ceiling
+     */
+    @Override
+    protected void applyReloadedMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        setCeilingRequestsPerSecond(maxRequestsPerSecond);
+    }
+
+    /***
+     * Max requests per second set through JMX is the ceiling of the rate, the rate keeps adapting below it
+     * @param maxRequestsPerSecond new ceiling
+     */
+    @Override
+    public void setMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        setCeilingRequestsPerSecond(maxRequestsPerSecond);
+    }
+
+    /***
+     * Move the ceiling of the rate. The current rate is lowered to the new ceiling when it is above it, and a higher ceiling
+     * is reached by the following increases
+     * @param ceilingRequestsPerSecond new ceiling, at least min-requests-per-second
+     */
+    public synchronized void setCeilingRequestsPerSecond(long ceilingRequestsPerSecond){
+        if(ceilingRequestsPerSecond < minRequestsPerSecond){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be greater than or equal to adaptive.min-requests-per-second {}, currently {}",
+                    logPrefix,
+                    minRequestsPerSecond,
+                    ceilingRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be greater than or equal to adaptive.min-requests-per-second " + minRequestsPerSecond + ", currently " + ceilingRequestsPerSecond);
+        }
+        long current = getMaxRequestsPerSecond();
+
+        LOG.info("[{}] Changing rate ceiling from {} to {} request per second", logPrefix, this.ceilingRequestsPerSecond, ceilingRequestsPerSecond);
+
+        this.ceilingRequestsPerSecond = ceilingRequestsPerSecond;
+
+        if(current > ceilingRequestsPerSecond){
+            super.setMaxRequestsPerSecond(ceilingRequestsPerSecond);
+        }
+    }
+
+    public long getMinRequestsPerSecond(){
+        return this.minRequestsPerSecond;
+    }
+
+    public long getCeilingRequestsPerSecond(){
+        return this.ceilingRequestsPerSecond;
+    }
+}
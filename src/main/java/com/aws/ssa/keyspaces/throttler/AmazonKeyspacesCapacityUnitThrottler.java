@@ -0,0 +1,446 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.aws.ssa.keyspaces.metrics.ThrottlerMetrics;
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.RequestThrottlingException;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.throttling.RequestThrottler;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import com.datastax.oss.driver.internal.core.adminrequest.ThrottledAdminRequestHandler;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.BurstyRateLimiterFactory;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.RateLimiter;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A request throttler that meters the capacity units consumed by each request instead of the number of requests. Amazon Keyspaces
+ * charges one write capacity unit (WCU) for each 1 KB written per row, and one read capacity unit (RCU) for each 4 KB read with
+ * LOCAL_QUORUM consistency. Reads with LOCAL_ONE consistency cost half of an RCU. Learn more about capacity here:
+ * @see <a href="https://docs.aws.amazon.com/keyspaces/latest/devguide/ReadWriteCapacityMode.html">Amazon Keyspaces CapacityModes</a>.
+ *
+ * Reads and writes are metered by separate Guava SmoothBursty Ratelimiters that allow two minutes of capacity to aggregate if not used,
+ * the same burst behavior as the {@link AmazonKeyspacesFixedRateThrottler}. The cost of a write is estimated from the serialized
+ * size of the bound values, counted per row for batches. The cost of a read is estimated from the expected read size since the
+ * response size is not known until the read completes.
+ *
+ * This is a blocking implementation but it will timeout based on the configured register timeout
+ *
+ * The wait and rejection metrics are published like those of the {@link AmazonKeyspacesFixedRateThrottler}, with the rates as
+ * keyspaces.throttler.write-units-rate and keyspaces.throttler.read-units-rate.
+ *
+ * The most well known usecase for this rate limiter is bulk loading rows of varying size at the provisioned capacity of a table.
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesCapacityUnitThrottler
+ *           max-write-units-per-second = 1000
+ *           max-read-units-per-second = 3000
+ *           expected-read-size = 4 KiB
+ *           register-timeout = 3 seconds
+ *     }
+ * }
+ * </pre>
+ *  max-write-units-per-second : the number of write capacity units per second max. Average over 2 minutes
+ *  max-read-units-per-second : the number of read capacity units per second max. Average over 2 minutes
+ *  expected-read-size : the expected number of bytes returned by each read request, used to estimate the read cost
+ *  register-timeout : time to wait for permits from limiter. Should be less than request timeout
+ */
+@ThreadSafe
+public class AmazonKeyspacesCapacityUnitThrottler implements RequestThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesCapacityUnitThrottler.class);
+
+    private final String logPrefix;
+
+    /*** Amazon Keyspaces charges one write capacity unit for each 1 KB written per row ***/
+    public static int WRITE_UNIT_SIZE_IN_BYTES = 1024;
+
+    /*** Amazon Keyspaces charges one read capacity unit for each 4 KB read with LOCAL_QUORUM consistency ***/
+    public static int READ_UNIT_SIZE_IN_BYTES = 4096;
+
+    /***
+     * Reads with LOCAL_ONE consistency cost half of a read capacity unit. The read limiter is metered in half units so that
+     * permits remain whole numbers
+     */
+    public static int READ_PERMITS_PER_UNIT = 2;
+
+    private final DriverContext context;
+
+    /***
+     * Rate limiter used to meter write capacity units per second up to maxWriteUnitsPerSecond
+     */
+    private final RateLimiter writeLimiter;
+
+    /***
+     * Rate limiter used to meter half read capacity units per second up to maxReadUnitsPerSecond
+     */
+    private final RateLimiter readLimiter;
+
+    /***
+     * Configured write capacity units per second
+     */
+    private volatile long maxWriteUnitsPerSecond;
+
+    /***
+     * Configured read capacity units per second
+     */
+    private volatile long maxReadUnitsPerSecond;
+
+    /***
+     * Expected number of bytes returned by each read
+     */
+    private final long expectedReadSizeInBytes;
+
+    /***
+     * Configured timeout per operation or time to wait for permits from ratelimiter
+     */
+    private final long registerTimeoutInMs;
+
+    /***
+     * Consistency used when the statement does not specify one
+     */
+    private final ConsistencyLevel defaultConsistencyLevel;
+
+    /***
+     * Wait, rejection and rate metrics published to the driver's metric registry, recording nothing when the driver metrics are disabled
+     */
+    private final ThrottlerMetrics metrics;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesCapacityUnitThrottler(DriverContext context) {
+        this(context,
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_MAX_WRITE_UNITS_PER_SECOND, KeyspacesThrottleOption.DEFAULT_MAX_WRITE_UNITS_PER_SECOND),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_MAX_READ_UNITS_PER_SECOND, KeyspacesThrottleOption.DEFAULT_MAX_READ_UNITS_PER_SECOND),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getBytes(KeyspacesThrottleOption.KEYSPACES_THROTTLE_EXPECTED_READ_SIZE, KeyspacesThrottleOption.DEFAULT_EXPECTED_READ_SIZE),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT, context.getConfig()
+                                .getDefaultProfile()
+                                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis());
+    }
+
+    /*** Initialization of the Throttler ***/
+    public AmazonKeyspacesCapacityUnitThrottler(DriverContext context, long maxWriteUnitsPerSecond, long maxReadUnitsPerSecond,
+                                                long expectedReadSizeInBytes, long registerTimeoutInMs) {
+        this.logPrefix = context.getSessionName();
+
+        this.context = context;
+
+        this.maxWriteUnitsPerSecond = maxWriteUnitsPerSecond;
+
+        this.maxReadUnitsPerSecond = maxReadUnitsPerSecond;
+
+        this.expectedReadSizeInBytes = expectedReadSizeInBytes;
+
+        this.registerTimeoutInMs = registerTimeoutInMs;
+
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        this.defaultConsistencyLevel = DefaultConsistencyLevel.valueOf(profile.getString(DefaultDriverOption.REQUEST_CONSISTENCY));
+
+        validateUnits("max-write-units-per-second", maxWriteUnitsPerSecond);
+
+        validateUnits("max-read-units-per-second", maxReadUnitsPerSecond);
+
+        if(this.expectedReadSizeInBytes <= 0){
+            LOG.error(
+                    "[{}]  Throttler expected read size (advanced.throttler.expected-read-size) must be set greater than zero, currently {}",
+                    logPrefix,
+                    expectedReadSizeInBytes);
+
+            throw new IllegalArgumentException("Throttler expectedReadSize (advanced.throttler.expected-read-size) must be set greater than zero, currently " + expectedReadSizeInBytes);
+        }
+
+        //Requires some timeout
+        if(this.registerTimeoutInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be set greater than zero, currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to zero, currently " + registerTimeoutInMs );
+        }
+        long requestTimeout = profile.getDuration(DefaultDriverOption.REQUEST_TIMEOUT).toMillis();
+
+        if(this.registerTimeoutInMs > requestTimeout){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be less than or equal to request-timeout (basic.request.timeout), currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout set for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to request timeout (basic.request.timeout), register timeout:" + registerTimeoutInMs + "ms , request timeout:"+ requestTimeout +" ms");
+        }
+
+        LOG.info(
+                "[{}] Initializing with maxWriteUnitsPerSecond = {}, maxReadUnitsPerSecond = {}, expectedReadSizeInBytes = {} and registerTimeoutInMs = {}",
+                logPrefix,
+                maxWriteUnitsPerSecond,
+                maxReadUnitsPerSecond,
+                expectedReadSizeInBytes,
+                registerTimeoutInMs);
+
+        //Aggregate permits over two minutes to allow for burst of unused capacity
+        this.writeLimiter = BurstyRateLimiterFactory.create(maxWriteUnitsPerSecond, AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+
+        this.readLimiter = BurstyRateLimiterFactory.create(maxReadUnitsPerSecond * READ_PERMITS_PER_UNIT, AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+
+        Map<String, LongSupplier> rates = new LinkedHashMap<>();
+
+        rates.put("write-units-rate", this::getMaxWriteUnitsPerSecond);
+        rates.put("read-units-rate", this::getMaxReadUnitsPerSecond);
+
+        this.metrics = new ThrottlerMetrics(context, rates);
+    }
+
+    private void validateUnits(String option, long units){
+        //must be greater than 0
+        if(units <= 0){
+            LOG.error(
+                    "[{}]  Throttler capacity units per second (advanced.throttler.{}) must be set greater than zero, currently {}",
+                    logPrefix,
+                    option,
+                    units);
+
+            throw new IllegalArgumentException("Throttler capacity units per second (advanced.throttler." + option + ") must be set greater than zero, currently " + units);
+        }
+    }
+
+    /***
+     * Calculate the write capacity units for a row write of the given size. Every write costs at least one unit
+     * @param sizeInBytes size of the row written
+     * @return write capacity units
+     */
+    public static int calculateWriteCapacityUnits(long sizeInBytes){
+        return (int) Math.max(1, (sizeInBytes + WRITE_UNIT_SIZE_IN_BYTES - 1) / WRITE_UNIT_SIZE_IN_BYTES);
+    }
+
+    /***
+     * Calculate the read capacity units for a LOCAL_QUORUM read of the given size. Every read costs at least one unit
+     * @param sizeInBytes size of the data read
+     * @return read capacity units
+     */
+    public static int calculateReadCapacityUnits(long sizeInBytes){
+        return (int) Math.max(1, (sizeInBytes + READ_UNIT_SIZE_IN_BYTES - 1) / READ_UNIT_SIZE_IN_BYTES);
+    }
+
+    /***
+     * Reads are statements whose query starts with SELECT. Prepared statements are classified by the query they were prepared
+     * from, since conditional writes also return result metadata with the [applied] column.
+     * @param statement the statement to classify
+     * @return true if the statement reads from a table
+     */
+    public static boolean isRead(Statement<?> statement){
+        if(statement instanceof BoundStatement){
+            return isSelect(((BoundStatement) statement).getPreparedStatement().getQuery());
+        }
+        if(statement instanceof SimpleStatement){
+            return isSelect(((SimpleStatement) statement).getQuery());
+        }
+        return false;
+    }
+
+    private static boolean isSelect(String query){
+        int start = 0;
+
+        while(start < query.length() && Character.isWhitespace(query.charAt(start))){
+            start++;
+        }
+        return query.regionMatches(true, start, "SELECT", 0, 6);
+    }
+
+    /***
+     * Estimate the write capacity units for a statement from the serialized size of the bound values. Each statement in a
+     * batch is charged as a separate row write.
+     * @param statement the write statement
+     * @return estimated write capacity units
+     */
+    public int estimateWriteUnits(Statement<?> statement){
+        if(statement instanceof BatchStatement){
+            int units = 0;
+
+            for(BatchableStatement<?> child : (BatchStatement) statement){
+                units += estimateWriteUnits(child);
+            }
+            return Math.max(1, units);
+        }
+        if(statement instanceof BoundStatement){
+            long size = 0;
+
+            for(ByteBuffer value : ((BoundStatement) statement).getValues()){
+                size += (value == null) ? 0 : value.remaining();
+            }
+            return calculateWriteCapacityUnits(size);
+        }
+        if(statement instanceof SimpleStatement){
+            return calculateWriteCapacityUnits(valuesSizeInBytes((SimpleStatement) statement));
+        }
+        return 1;
+    }
+
+    /***
+     * Serialized size of the positional and named values of a simple statement, encoded with the session codecs
+     * @param statement the simple statement
+     * @return size of the values in bytes
+     */
+    private long valuesSizeInBytes(SimpleStatement statement){
+        long size = 0;
+
+        for(Object value : statement.getPositionalValues()){
+            size += valueSizeInBytes(value);
+        }
+        for(Map.Entry<?, Object> value : statement.getNamedValues().entrySet()){
+            size += valueSizeInBytes(value.getValue());
+        }
+        return size;
+    }
+
+    private long valueSizeInBytes(Object value){
+        if(value == null){
+            return 0;
+        }
+        if(value instanceof ByteBuffer){
+            return ((ByteBuffer) value).remaining();
+        }
+        try {
+            ByteBuffer encoded = context.getCodecRegistry().codecFor(value).encode(value, ProtocolVersion.DEFAULT);
+
+            return (encoded == null) ? 0 : encoded.remaining();
+        } catch (RuntimeException e) {
+            //No codec for the value, it will fail when executed
+            return 0;
+        }
+    }
+
+    /***
+     * Estimate the read permits for a statement from the expected read size. LOCAL_ONE and ONE reads cost half as much
+     * as LOCAL_QUORUM reads.
+     * @param statement the read statement
+     * @return estimated permits in half read capacity units
+     */
+    public int estimateReadPermits(Statement<?> statement){
+        ConsistencyLevel consistencyLevel = statement.getConsistencyLevel();
+
+        if(consistencyLevel == null){
+            consistencyLevel = defaultConsistencyLevel;
+        }
+        int units = calculateReadCapacityUnits(expectedReadSizeInBytes);
+
+        boolean eventuallyConsistent = consistencyLevel.getProtocolCode() == DefaultConsistencyLevel.LOCAL_ONE.getProtocolCode()
+                || consistencyLevel.getProtocolCode() == DefaultConsistencyLevel.ONE.getProtocolCode();
+
+        return eventuallyConsistent ? units : units * READ_PERMITS_PER_UNIT;
+    }
+
+    /***
+     * Blocking Rate limiter on register. Will timeout based on the configured timeout.
+     * @param request
+     */
+    @Override
+    public void register(@NonNull Throttled request) {
+
+        //Allow admin request
+        if(request instanceof ThrottledAdminRequestHandler) {
+            request.onThrottleReady(false);
+            return;
+        }
+
+        Statement<?> statement = ThrottledStatements.getStatement(request);
+
+        long startNanos = System.nanoTime();
+
+        if(statement != null && isRead(statement)){
+            int permits = estimateReadPermits(statement);
+
+            if(readLimiter.tryAcquire(permits, registerTimeoutInMs, TimeUnit.MILLISECONDS)){
+                metrics.recordAcquired(System.nanoTime() - startNanos);
+
+                request.onThrottleReady(false);
+            }else{
+                metrics.recordRejected();
+
+                fail(request, String.format("Timeout waiting for read capacity permits. Increase maxReadUnitsPerSecond (current max read units/s: %d, request cost: %d half units, request timeout: %d ms)", this.maxReadUnitsPerSecond, permits, this.registerTimeoutInMs));
+            }
+        }else{
+            int permits = estimateWriteUnits(statement);
+
+            if(writeLimiter.tryAcquire(permits, registerTimeoutInMs, TimeUnit.MILLISECONDS)){
+                metrics.recordAcquired(System.nanoTime() - startNanos);
+
+                request.onThrottleReady(false);
+            }else{
+                metrics.recordRejected();
+
+                fail(request, String.format("Timeout waiting for write capacity permits. Increase maxWriteUnitsPerSecond (current max write units/s: %d, request cost: %d units, request timeout: %d ms)", this.maxWriteUnitsPerSecond, permits, this.registerTimeoutInMs));
+            }
+        }
+    }
+
+    private static void fail(Throttled request, String message) {
+        request.onThrottleFailure(new RequestThrottlingException(message));
+    }
+
+    @Override
+    public void signalSuccess(@NonNull Throttled request) {
+        //nothing to do
+    }
+
+    @Override
+    public void signalError(@NonNull Throttled request, @NonNull Throwable error) {
+        LOG.warn(logPrefix + " signalError Throttled Request", error);
+    }
+
+    @Override
+    public void signalTimeout(@NonNull Throttled request) {
+        LOG.warn( "[{}] Timeout Throttled Request signalTimeout", logPrefix);
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    public long getMaxWriteUnitsPerSecond(){
+        return this.maxWriteUnitsPerSecond;
+    }
+
+    public void setMaxWriteUnitsPerSecond(long maxWriteUnitsPerSecond){
+        this.maxWriteUnitsPerSecond = maxWriteUnitsPerSecond;
+        writeLimiter.setRate(maxWriteUnitsPerSecond);
+    }
+
+    public long getMaxReadUnitsPerSecond(){
+        return this.maxReadUnitsPerSecond;
+    }
+
+    public void setMaxReadUnitsPerSecond(long maxReadUnitsPerSecond){
+        this.maxReadUnitsPerSecond = maxReadUnitsPerSecond;
+        readLimiter.setRate(maxReadUnitsPerSecond * READ_PERMITS_PER_UNIT);
+    }
+}
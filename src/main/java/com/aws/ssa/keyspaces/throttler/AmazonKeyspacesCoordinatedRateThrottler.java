@@ -0,0 +1,333 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import com.datastax.oss.driver.internal.core.adminrequest.ThrottledAdminRequestHandler;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A request throttler that shares max-requests-per-second between every session of a group, for example every pod writing to the
+ * same table. It extends the {@link AmazonKeyspacesFixedRateThrottler}, and the rate of its limiter is the share leased from a
+ * {@link RateCoordinator}.
+ *
+ * Each session renews its lease on the lease interval, reporting the rate of requests it received. A session using most of its
+ * share asks for the whole rate, and the coordinator splits the rate max-min fairly, so that the share of idle sessions goes to
+ * the busy ones. Idle sessions keep a small share to start sending requests before their next lease. Sessions that close leave
+ * the group, and sessions that stop renewing are dropped after the lease ttl. The limiter keeps its stored permits as the rate changes.
+ *
+ * Leases are renewed on a thread of the throttler, since a coordinator may block, for example on the lock and fsync of the
+ * FileRateCoordinator. The rate of the session is owned by the lease, so setMaxRequestsPerSecond and a reload of
+ * max-requests-per-second change the rate of the group, applied on the next lease.
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesCoordinatedRateThrottler
+ *           max-requests-per-second = 40000
+ *           register-timeout = 3 seconds
+ *           coordinator {
+ *              class = FileRateCoordinator
+ *              group = my_table
+ *              lease-interval = 5 seconds
+ *              lease-ttl = 15 seconds
+ *              idle-share = 0.1
+ *           }
+ *     }
+ * }
+ * </pre>
+ *  max-requests-per-second : the CQL request per second shared by every session of the group
+ *  coordinator.class : FileRateCoordinator for processes on the same host, InMemoryRateCoordinator for sessions of the same JVM,
+ *  or the fully qualified name of a RateCoordinator with a DriverContext constructor
+ *  coordinator.group : name of the group sharing the rate
+ *  coordinator.member-id : unique id of the session in the group. Defaults to the process id, host and session name
+ *  coordinator.lease-interval : how often the session renews its lease and updates its rate
+ *  coordinator.lease-ttl : time after which a session that stopped renewing is dropped from the group
+ *  coordinator.idle-share : fraction of an equal share kept by idle sessions
+ *  coordinator.file : lease file of the FileRateCoordinator. Defaults to amazon-keyspaces-&lt;group&gt;.lease in the temporary directory
+ */
+@ThreadSafe
+public class AmazonKeyspacesCoordinatedRateThrottler extends AmazonKeyspacesFixedRateThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesCoordinatedRateThrottler.class);
+
+    /***
+     * A session receiving at least this fraction of its share is limited by it, and asks for the whole rate
+     */
+    private static final double SATURATION = 0.9;
+
+    private final String logPrefix;
+
+    private final RateCoordinator coordinator;
+
+    private final String memberId;
+
+    /***
+     * Rate shared by the group, from max-requests-per-second
+     */
+    private volatile long totalRequestsPerSecond;
+
+    private final long leaseIntervalInMs;
+
+    /***
+     * Requests received since the last lease, including requests the throttler rejected
+     */
+    private final LongAdder received = new LongAdder();
+
+    private volatile long lastLeaseNanos;
+
+    /***
+     * Single thread renewing the lease, shut down when the throttler closes
+     */
+    private final ScheduledExecutorService leaseExecutor;
+
+    private volatile boolean closed;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesCoordinatedRateThrottler(DriverContext context) {
+        this(context, createCoordinator(context), memberIdOf(context));
+    }
+
+    /*** Initialization of the Throttler with a coordinator, and the other settings taken from the configuration ***/
+    public AmazonKeyspacesCoordinatedRateThrottler(DriverContext context, RateCoordinator coordinator, String memberId) {
+        this(context, coordinator, memberId,
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND,
+                                REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND_DEFAULT),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT,context.getConfig()
+                                .getDefaultProfile()
+                                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis(),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getInt(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NUMBER_OF_HOSTS, KeyspacesThrottleOption.DEFAULT_NUMBER_OF_HOSTS),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getInt(DefaultDriverOption.CONNECTION_POOL_LOCAL_SIZE));
+    }
+
+    /*** Initialization of the Throttler. The starting rate is the share leased when joining the group ***/
+    public AmazonKeyspacesCoordinatedRateThrottler(DriverContext context, RateCoordinator coordinator, String memberId, long totalRequestsPerSecond,
+                                                   long registerTimeoutInMs, int numberOfHosts, int numberOfConnectionsPerHost) {
+        super(context, joinGroup(context, coordinator, memberId, totalRequestsPerSecond, numberOfHosts, numberOfConnectionsPerHost),
+                registerTimeoutInMs, numberOfHosts, numberOfConnectionsPerHost);
+
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        this.logPrefix = context.getSessionName();
+
+        this.coordinator = coordinator;
+
+        this.memberId = memberId;
+
+        this.totalRequestsPerSecond = totalRequestsPerSecond;
+
+        this.leaseIntervalInMs = profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_LEASE_INTERVAL,
+                KeyspacesThrottleOption.DEFAULT_COORDINATOR_LEASE_INTERVAL).toMillis();
+
+        if(this.leaseIntervalInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler coordinator lease interval (advanced.throttler.coordinator.lease-interval) must be set greater than zero, currently {}",
+                    logPrefix,
+                    leaseIntervalInMs);
+
+            throw new IllegalArgumentException("Throttler leaseInterval (advanced.throttler.coordinator.lease-interval) must be set greater than zero, currently " + leaseIntervalInMs);
+        }
+
+        LOG.info(
+                "[{}] Joined rate coordinator group as {} with totalRequestsPerSecond = {}, leased {} request per second",
+                logPrefix,
+                memberId,
+                totalRequestsPerSecond,
+                getMaxRequestsPerSecond());
+
+        this.lastLeaseNanos = System.nanoTime();
+
+        //Not the driver admin executor, renewing a lease can block on the coordinator
+        this.leaseExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(logPrefix + "-rate-lease-%d")
+                .setDaemon(true)
+                .build());
+
+        leaseExecutor.scheduleAtFixedRate(this::renewLease, leaseIntervalInMs, leaseIntervalInMs, TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Lease the starting share before the limiter is built. The session asks for the whole rate, since its demand is not known yet
+     * @return starting rate, at most the throughput of the configured connections
+     */
+    private static long joinGroup(DriverContext context, RateCoordinator coordinator, String memberId, long totalRequestsPerSecond,
+                                  int numberOfHosts, int numberOfConnectionsPerHost) {
+        if(totalRequestsPerSecond <= 0){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                    context.getSessionName(),
+                    totalRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + totalRequestsPerSecond);
+        }
+        double granted = coordinator.lease(memberId, totalRequestsPerSecond, totalRequestsPerSecond);
+
+        return clampRate(granted, calculateConnectionMaxRequestPerSecond(numberOfHosts, numberOfConnectionsPerHost));
+    }
+
+    private static long clampRate(double granted, double maxConnectionsRequestsPerSecond) {
+        return Math.max(1, Math.min(Math.round(granted), (long) maxConnectionsRequestsPerSecond));
+    }
+
+    /***
+     * Build the coordinator named by advanced.throttler.coordinator.class. Names without a package are resolved in this package
+     */
+    private static RateCoordinator createCoordinator(DriverContext context) {
+        String className = context.getConfig().getDefaultProfile()
+                .getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_CLASS, KeyspacesThrottleOption.DEFAULT_COORDINATOR_CLASS);
+
+        String qualifiedName = className.contains(".") ? className : RateCoordinator.class.getPackage().getName() + "." + className;
+
+        try {
+            Class<?> coordinatorClass = Class.forName(qualifiedName);
+
+            if(!RateCoordinator.class.isAssignableFrom(coordinatorClass)){
+                throw new IllegalArgumentException(qualifiedName + " does not implement RateCoordinator");
+            }
+            return (RateCoordinator) coordinatorClass.getConstructor(DriverContext.class).newInstance(context);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            LOG.error(
+                    "[{}]  Throttler coordinator class (advanced.throttler.coordinator.class) must be a RateCoordinator with a DriverContext constructor, currently {}",
+                    context.getSessionName(),
+                    className);
+
+            throw new IllegalArgumentException("Throttler coordinator class (advanced.throttler.coordinator.class) could not be created, currently " + className, e);
+        }
+    }
+
+    private static String memberIdOf(DriverContext context) {
+        return context.getConfig().getDefaultProfile().getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_MEMBER_ID,
+                ManagementFactory.getRuntimeMXBean().getName() + "/" + context.getSessionName());
+    }
+
+    @Override
+    public void register(@NonNull Throttled request) {
+        if(!(request instanceof ThrottledAdminRequestHandler)){
+            received.increment();
+        }
+        super.register(request);
+    }
+
+    /***
+     * Report the rate of requests received since the last lease, and set the limiter to the leased share. If the coordinator
+     * cannot be reached the current rate is kept until the next lease.
+     */
+    void renewLease() {
+        if(closed){
+            return;
+        }
+        long now = System.nanoTime();
+
+        double elapsedSeconds = Math.max(1, now - lastLeaseNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        lastLeaseNanos = now;
+
+        double receivedPerSecond = received.sumThenReset() / elapsedSeconds;
+
+        long current = getMaxRequestsPerSecond();
+
+        long total = totalRequestsPerSecond;
+
+        double demand = (receivedPerSecond >= SATURATION * current) ? total : receivedPerSecond;
+
+        double granted;
+        try {
+            granted = coordinator.lease(memberId, demand, total);
+        } catch (RuntimeException e) {
+            LOG.warn("[{}] Failed to renew rate lease, keeping {} request per second", logPrefix, current, e);
+            return;
+        }
+        long next = clampRate(granted, getMaxConnectionsRequestsPerSecond());
+
+        if(next != current){
+            LOG.debug("[{}] Leased rate changed from {} to {} request per second, demand {}", logPrefix, current, next, demand);
+
+            super.setMaxRequestsPerSecond(next);
+        }
+    }
+
+    /***
+     * The rate of the session is set by its lease, so a rate set through JMX is the rate of the group, applied on the next lease
+     * @param maxRequestsPerSecond rate of the group, must be greater than zero
+     */
+    @Override
+    public void setMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        setTotalRequestsPerSecond(maxRequestsPerSecond);
+    }
+
+    /***
+     * A reloaded max-requests-per-second is the rate of the group, applied on the next lease
+     */
+    @Override
+    protected void applyReloadedMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        setTotalRequestsPerSecond(maxRequestsPerSecond);
+    }
+
+    /***
+     * Change the rate shared by the group. The rate of the session follows on its next lease
+     * @param totalRequestsPerSecond rate of the group, must be greater than zero
+     */
+    public void setTotalRequestsPerSecond(long totalRequestsPerSecond) {
+        if(totalRequestsPerSecond <= 0){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                    logPrefix,
+                    totalRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + totalRequestsPerSecond);
+        }
+        LOG.info("[{}] Changing totalRequestsPerSecond of the group from {} to {}", logPrefix, this.totalRequestsPerSecond, totalRequestsPerSecond);
+
+        this.totalRequestsPerSecond = totalRequestsPerSecond;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+
+        leaseExecutor.shutdown();
+
+        try {
+            coordinator.leave(memberId);
+        } catch (RuntimeException e) {
+            LOG.warn("[{}] Failed to leave rate coordinator group", logPrefix, e);
+        }
+        coordinator.close();
+
+        super.close();
+    }
+
+    public long getTotalRequestsPerSecond(){
+        return this.totalRequestsPerSecond;
+    }
+
+    public String getMemberId(){
+        return this.memberId;
+    }
+
+    public RateCoordinator getCoordinator(){
+        return this.coordinator;
+    }
+}
@@ -1,21 +1,49 @@
 package com.aws.ssa.keyspaces.throttler;
 
-import com.datastax.oss.driver.api.core.CqlSession;
+import com.aws.ssa.keyspaces.metrics.ThrottlerMetrics;
 import com.datastax.oss.driver.api.core.RequestThrottlingException;
 import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
 import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.loadbalancing.NodeDistance;
+import com.datastax.oss.driver.api.core.metadata.Node;
 import com.datastax.oss.driver.api.core.session.throttling.RequestThrottler;
 import com.datastax.oss.driver.api.core.session.throttling.Throttled;
 import com.datastax.oss.driver.internal.core.adminrequest.ThrottledAdminRequestHandler;
+import com.datastax.oss.driver.internal.core.channel.ChannelEvent;
+import com.datastax.oss.driver.internal.core.config.ConfigChangeEvent;
+import com.datastax.oss.driver.internal.core.metadata.NodeStateEvent;
+import com.datastax.oss.driver.internal.core.metadata.TopologyEvent;
+import com.datastax.oss.driver.internal.core.pool.ChannelPool;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
 import com.datastax.oss.driver.internal.core.cql.CqlRequestHandler;
-import com.datastax.oss.driver.shaded.guava.common.util.concurrent.BurstyRateLimiterFactory;
-import com.datastax.oss.driver.shaded.guava.common.util.concurrent.RateLimiter;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import io.netty.util.concurrent.EventExecutor;
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
     * A request throttler that limits the rate of requests per second. The limit is configurable through client driver
@@ -23,8 +51,29 @@ import java.util.concurrent.TimeUnit;
     * aggregate if not used. The second limiter is dynamically configured based on the number of connections defined in the pool setting
     * that limits overall throughput during burst behavior. The limiter will control the number of cql request per second but expects the table
     * to have proper capacity for the table.
+    * The number of hosts starts at the configured number-of-hosts, and is read from the metadata of the owning session on the first request
+    * to size the second limiter without opening another session. After that the second limiter follows the connections open in the
+    * session pools, as hosts are added, removed, go up or down, and pools reconnect.
     *
-    * This is a blocking implementation but it will timeout based on the configured request timeout
+    * This is a blocking implementation but it will timeout based on the configured request timeout. Setting
+    * non-blocking to true will instead place requests that cannot acquire permits immediately in a bounded queue. The queue
+    * is drained on the driver admin thread as permits become available, and queued requests fail once the register timeout elapses.
+    *
+    * A batch statement takes one permit per child statement, and any statement can set its own number of permits with the
+    * weight payload key. The permits of every request are reserved from both limiters together, so a request never holds
+    * permits from one limiter while it waits on the other. Outside fair mode this takes no lock: the permits are reserved from
+    * the connection limiter, then from the rate limiter, and refunded to the connection limiter when the rate limiter refuses.
+    *
+    * Setting fair to true serves blocked requests strictly in arrival order. Each request takes a ticket from a fair lock,
+    * reserves its permits from both limiters and waits for them outside the lock, so a later arrival cannot take a permit ahead
+    * of a request that is already waiting. The number of waiting requests is bounded by max-queue-size.
+    *
+    * Setting shadow to true runs the limiter accounting on every request but releases it right away. The time each request
+    * would have waited and the requests that would have been rejected are recorded by execution profile, to size
+    * max-requests-per-second and register-timeout from real traffic before enforcing them.
+    *
+    * The rate and register timeout follow driver configuration reloads, and can also be changed through the FixedRateThrottlerMXBean
+    * when jmx-enabled is true. The MBean also exposes stored permits and counters of acquired and rejected requests.
     *
     * The most well known usecase for this rate limiter is bulk loading data at consistent rates or batch processing.
     *
@@ -38,16 +87,38 @@ import java.util.concurrent.TimeUnit;
      *           max-requests-per-second = 1000
      *           endpoint-type = VPC
      *           register-timeout = 3 seconds
+     *           non-blocking = false
+     *           max-queue-size = 10000
+     *           drain-interval = 10 milliseconds
+     *           limiter-engine = guava
+     *           limit-concurrency = false
+     *           deadline-aware = false
+     *           batch-child-permits = true
+     *           weight-payload-key = keyspaces-weight
+     *           jmx-enabled = false
+     *           fair = false
+     *           shadow = false
      *     }
      * }
      * </pre>
      *  max-requests-per-second : the number of CQL request per second max. Average over 2 minutes
      *  endpoint-type : connected through private endpoint or public endpoint
      *  register-timeout : time to wait for permits from limiter. Should be less than request timeout
+     *  non-blocking : queue requests instead of blocking the calling thread while waiting for permits
+     *  max-queue-size : the maximum number of requests waiting for permits in non-blocking mode
+     *  drain-interval : how often the queue is checked for available permits in non-blocking mode
+     *  limiter-engine : guava for the synchronized Guava Ratelimiter, or lock-free for a compare-and-set token bucket
+     *  limit-concurrency : also cap in-flight requests at number-of-hosts x pool.local.size x max-requests-per-connection
+     *  deadline-aware : fail right away when the projected wait for permits exceeds the time left before the request deadline. Off by default, requests wait up to register-timeout
+     *  batch-child-permits : charge a batch statement one permit per child statement instead of one permit
+     *  weight-payload-key : custom payload key with a positive decimal value that sets the number of permits of a statement
+     *  fair : in blocking mode, serve waiting requests in arrival order, with at most max-queue-size waiting
+     *  shadow : never delay or reject requests, only record what the throttler would have done by execution profile
+     *  jmx-enabled : register a FixedRateThrottlerMXBean to read stats and change the rate without restarting the session
      *
      */
 @ThreadSafe
-public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
+public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler, FixedRateThrottlerMXBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesFixedRateThrottler.class);
 
@@ -76,36 +147,191 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
      */
     public static int VPC_ENDPOINT_DEFAULT_HOST = 2;
 
+    /***
+     * Delay before resizing the connection limits after a node, topology or connection event
+     */
+    public static long RESIZE_DELAY_IN_MS = 100;
+
     /***
      * Rate limiter used to meter the CQL Request Per Second up to maxRequestsPerSecond
      */
-    private final RateLimiter limiter;
+    private final PermitLimiter limiter;
 
     /***
      * Rate limiter used to meter the CQL Request Per Second up to the total number of numberOfConnections
      */
-    private final RateLimiter maxConnectionsLimiter;
+    private final PermitLimiter maxConnectionsLimiter;
+
+    /***
+     * Implementation of the limiters, Guava or lock-free
+     */
+    private final RateLimiterEngine limiterEngine;
+
+    /***
+     * Number of hosts the session connects to. Configured, then discovered from the session metadata on the first request
+     */
+    private volatile int numberOfHosts;
 
     /***
-     * Number of hosts available when creating to a new session
+     * Set once the number of hosts has been read from the session metadata
      */
-    private final Integer numberOfHosts;
+    private final AtomicBoolean hostsDiscovered = new AtomicBoolean();
+
+    private final InternalDriverContext context;
 
     /***
      * Configured Rate of desired throughput
      */
-    private long maxRequestsPerSecond;
+    private volatile long maxRequestsPerSecond;
 
     /***
      * Configured timeout per operation or time to wait for permits from ratelimiter
      */
-    private long registerTimeoutInMs;
+    private volatile long registerTimeoutInMs;
+
+    /***
+     * Request timeout of the default profile. The register timeout may not be longer
+     */
+    private final long requestTimeoutInMs;
+
+    /***
+     * Rate and register timeout last read from the configuration. A reload only applies the values that changed, so values
+     * passed to the constructor or set through JMX are not reverted by unrelated configuration changes
+     */
+    private long configuredMaxRequestsPerSecond;
+
+    private long configuredRegisterTimeoutInMs;
+
+    /***
+     * Counters of acquired and rejected requests and of the time spent waiting for permits
+     */
+    private final ThrottlerStats stats = new ThrottlerStats();
+
+    /***
+     * Wait, rejection and rate metrics published to the driver's metric registry, recording nothing when the driver metrics are disabled
+     */
+    private final ThrottlerMetrics metrics;
+
+    /***
+     * Name the MBean is registered under, null when JMX is not enabled
+     */
+    private final ObjectName mbeanName;
 
     /***
      * Configured number of connections for each host IP available
      */
     private int numberOfConnectionsPerHost;
 
+    /***
+     * When true, requests waiting for permits are queued instead of blocking the calling thread
+     */
+    private final boolean nonBlocking;
+
+    /***
+     * Maximum number of queued requests in non-blocking mode
+     */
+    private final int maxQueueSize;
+
+    /***
+     * Interval between attempts to release queued requests in non-blocking mode
+     */
+    private final long drainIntervalNanos;
+
+    /***
+     * Driver admin executor used to drain the queue in non-blocking mode and to resize the connection limits on topology changes
+     */
+    private final EventExecutor scheduler;
+
+    /***
+     * Event bus registrations for node, topology and connection events, removed on close
+     */
+    private final Object channelEventKey;
+
+    private final Object nodeStateEventKey;
+
+    private final Object topologyEventKey;
+
+    private final Object configChangeEventKey;
+
+    /***
+     * Set while a resize is scheduled, so that a burst of events from a pool reconnecting causes a single resize
+     */
+    private final AtomicBoolean resizeScheduled = new AtomicBoolean();
+
+    /***
+     * When true, the number of in-flight requests is capped at maxConcurrentRequests
+     */
+    private final boolean limitConcurrency;
+
+    /***
+     * In-flight capacity of the connection pools, number of hosts x connections per host x max requests per connection
+     */
+    private volatile int maxConcurrentRequests;
+
+    /***
+     * Configured number of in-flight requests each connection allows
+     */
+    private final int maxRequestsPerConnection;
+
+    /***
+     * Permits for in-flight requests, released when the request completes. Null when concurrency is not limited
+     */
+    private final ResizableSemaphore concurrencyPermits;
+
+    /***
+     * Requests holding a concurrency permit, so that each permit is released once
+     */
+    private final Set<Throttled> inFlight = ConcurrentHashMap.newKeySet();
+
+    /***
+     * When true, requests whose projected wait for permits exceeds their remaining deadline fail without waiting
+     */
+    private final boolean deadlineAware;
+
+    /***
+     * When true, batch statements take one permit per child statement
+     */
+    private final boolean batchChildPermits;
+
+    /***
+     * Custom payload key that sets the number of permits of a statement
+     */
+    private final String weightPayloadKey;
+
+    /***
+     * When true, blocked requests reserve permits in arrival order
+     */
+    private final boolean fair;
+
+    /***
+     * Fair lock taken by blocking reservations in fair mode, so that tickets are handed out in arrival order. Null in the
+     * other modes, where permits are reserved from each limiter without a lock and refunded when the other limiter refuses
+     */
+    private final ReentrantLock reservationLock;
+
+    /***
+     * When true, requests are released right away and the throttler only records what it would have done
+     */
+    private final boolean shadow;
+
+    /***
+     * Stats of shadow mode by execution profile name
+     */
+    private final ConcurrentMap<String, ThrottlerStats> profileStats = new ConcurrentHashMap<>();
+
+    /***
+     * Number of requests waiting for permits in fair mode
+     */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private final Deque<QueuedRequest> queue = new ArrayDeque<>();
+
+    @GuardedBy("lock")
+    private boolean closed;
+
     /*** Default constructor that takes in values from the configuration ***/
         public AmazonKeyspacesFixedRateThrottler(DriverContext context) {
             this(context,
@@ -132,6 +358,8 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
                 , int numberOfHosts, int numberOfConnectionsPerHost) {
             this.logPrefix = context.getSessionName();
 
+            this.context = (InternalDriverContext) context;
+
             this.maxRequestsPerSecond = maxRequestsPerSecond;
 
             this.registerTimeoutInMs = registerTimeoutInMs;
@@ -140,45 +368,103 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
 
             this.numberOfConnectionsPerHost = numberOfConnectionsPerHost;
 
-            //must be greater than 0
-            if(this.maxRequestsPerSecond <= 0){
+            DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+            this.nonBlocking = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NON_BLOCKING, KeyspacesThrottleOption.DEFAULT_NON_BLOCKING);
+
+            this.maxQueueSize = profile.getInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, KeyspacesThrottleOption.DEFAULT_MAX_QUEUE_SIZE);
+
+            this.drainIntervalNanos = profile.getDuration(DefaultDriverOption.REQUEST_THROTTLER_DRAIN_INTERVAL, KeyspacesThrottleOption.DEFAULT_DRAIN_INTERVAL).toNanos();
+
+            this.limitConcurrency = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_LIMIT_CONCURRENCY, KeyspacesThrottleOption.DEFAULT_LIMIT_CONCURRENCY);
+
+            this.maxRequestsPerConnection = profile.getInt(DefaultDriverOption.CONNECTION_MAX_REQUESTS);
+
+            this.maxConcurrentRequests = calculateMaxConcurrentRequests(numberOfHosts, numberOfConnectionsPerHost, maxRequestsPerConnection);
+
+            this.fair = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_FAIR, KeyspacesThrottleOption.DEFAULT_FAIR);
+
+            this.reservationLock = (fair) ? new ReentrantLock(true) : null;
+
+            this.shadow = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_SHADOW, KeyspacesThrottleOption.DEFAULT_SHADOW);
+
+            this.concurrencyPermits = (limitConcurrency) ? new ResizableSemaphore(maxConcurrentRequests, fair) : null;
+
+            this.deadlineAware = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_DEADLINE_AWARE, KeyspacesThrottleOption.DEFAULT_DEADLINE_AWARE);
+
+            this.batchChildPermits = profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_BATCH_CHILD_PERMITS, KeyspacesThrottleOption.DEFAULT_BATCH_CHILD_PERMITS);
+
+            this.weightPayloadKey = profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_WEIGHT_PAYLOAD_KEY, KeyspacesThrottleOption.DEFAULT_WEIGHT_PAYLOAD_KEY);
+
+            String limiterEngineName = profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_LIMITER_ENGINE, KeyspacesThrottleOption.DEFAULT_LIMITER_ENGINE);
+
+            try {
+                this.limiterEngine = RateLimiterEngine.fromConfig(limiterEngineName);
+            } catch (IllegalArgumentException e) {
                 LOG.error(
-                        "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                        "[{}]  Throttler limiter engine (advanced.throttler.limiter-engine) must be guava or lock-free, currently {}",
                         logPrefix,
-                        maxRequestsPerSecond);
+                        limiterEngineName);
 
-                throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + maxRequestsPerSecond );
+                throw e;
             }
 
-            //Requires some timeout
-            if(this.registerTimeoutInMs <= 0){
+            validateMaxRequestsPerSecond(maxRequestsPerSecond);
+
+            if((this.nonBlocking || this.fair) && this.maxQueueSize <= 0){
                 LOG.error(
-                        "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be set greater than zero, currently {}",
+                        "[{}]  Throttler max queue size (advanced.throttler.max-queue-size) must be set greater than zero, currently {}",
                         logPrefix,
-                        registerTimeoutInMs);
+                        maxQueueSize);
 
-                throw new IllegalArgumentException("Invalid timeout for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to zero, currently " + registerTimeoutInMs );
+                throw new IllegalArgumentException("Throttler maxQueueSize (advanced.throttler.max-queue-size) must be set greater than zero, currently " + maxQueueSize);
             }
-            long requestTimeout = context.getConfig()
-                            .getDefaultProfile()
-                            .getDuration(DefaultDriverOption.REQUEST_TIMEOUT).toMillis();
 
-            if(this.registerTimeoutInMs > requestTimeout){
+            if(this.nonBlocking && this.drainIntervalNanos <= 0){
                 LOG.error(
-                        "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be less than or equal to request-timeout (basic.request.timeout), currently {}",
+                        "[{}]  Throttler drain interval (advanced.throttler.drain-interval) must be set greater than zero, currently {} ns",
                         logPrefix,
-                        registerTimeoutInMs);
-
-                throw new IllegalArgumentException("Invalid timeout set for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to request timeout (basic.request.timeout), register timeout:" + registerTimeoutInMs + "ms , request timeout:"+ requestTimeout +" ms");
+                        drainIntervalNanos);
 
+                throw new IllegalArgumentException("Throttler drainInterval (advanced.throttler.drain-interval) must be set greater than zero, currently " + drainIntervalNanos + " ns");
             }
 
+            this.requestTimeoutInMs = profile.getDuration(DefaultDriverOption.REQUEST_TIMEOUT).toMillis();
+
+            validateRegisterTimeout(registerTimeoutInMs);
+
+            this.configuredMaxRequestsPerSecond = readMaxRequestsPerSecond(profile);
+
+            this.configuredRegisterTimeoutInMs = readRegisterTimeoutInMs(profile);
+
 
             LOG.info(
-                    "[{}] Initializing with maxRequestsPerSecond = {} and registerTimeoutInMs = {}",
+                    "[{}] Initializing with maxRequestsPerSecond = {}, registerTimeoutInMs = {} and limiterEngine = {}",
                     logPrefix,
                     maxRequestsPerSecond,
-                    registerTimeoutInMs);
+                    registerTimeoutInMs,
+                    limiterEngine);
+
+            if(limitConcurrency){
+                LOG.info(
+                        "[{}] Concurrency limit enabled with maxConcurrentRequests = {}",
+                        logPrefix,
+                        maxConcurrentRequests);
+            }
+
+            if(shadow){
+                LOG.info(
+                        "[{}] Shadow mode enabled, requests are not delayed or rejected",
+                        logPrefix);
+            }
+
+            if(nonBlocking){
+                LOG.info(
+                        "[{}] Non-blocking mode enabled with maxQueueSize = {} and drainInterval = {} ms",
+                        logPrefix,
+                        maxQueueSize,
+                        TimeUnit.NANOSECONDS.toMillis(drainIntervalNanos));
+            }
 
             LOG.info(
                     "[{}] Based on Throttler max of {} request per second, the recommended number of connections for number of hosts: {}, currently {}",
@@ -211,35 +497,268 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
             }
 
             //Aggregate permits over two minutes to allow for burst of unused capacity
-            this.limiter = BurstyRateLimiterFactory.create(maxRequestsPerSecond, REQUEST_BURST_CAPACITY_IN_SECONDS);
+            this.limiter = limiterEngine.create(maxRequestsPerSecond, REQUEST_BURST_CAPACITY_IN_SECONDS);
 
             //Fixed number of permits that expire every second. Ceiling with no bursting
-            this.maxConnectionsLimiter = RateLimiter.create(maxRequestPerSecondByForConnections);
-
-
-            try(CqlSession internalSession = CqlSession.builder().withConfigLoader(context.getConfigLoader()).build()){
-                int number =  internalSession.execute("select * from system.peers").all().size();
-                if(number < numberOfHosts){
-                    LOG.warn(
-                            "[{}] Number of host in system.peers is less than the number of host configured {}. If using a private VPC endpoint make sure privilages allow for  ",
-                            logPrefix,
-                            maxRequestsPerSecond,
-                            numberOfHosts,
-                            numberOfConnectionsPerHost,
-                            maxRequestPerSecondByForConnections);
-                }else if (number > numberOfHosts){
-                    LOG.warn(
-                            "[{}] Number of host in system.peers is more than the number of host configured {}. Increase the number of host configured host to improve throughput",
-                            logPrefix,
-                            maxRequestsPerSecond,
-                            numberOfHosts,
-                            numberOfConnectionsPerHost,
-                            maxRequestPerSecondByForConnections);
-                }
-            };
+            this.maxConnectionsLimiter = limiterEngine.create(maxRequestPerSecondByForConnections, 1.0);
+
+            this.scheduler = this.context.getNettyOptions().adminEventExecutorGroup().next();
+
+            //Follow hosts being added, removed, going up or down, and pool connections opening or closing
+            this.channelEventKey = this.context.getEventBus().register(ChannelEvent.class, event -> scheduleResize());
+
+            this.nodeStateEventKey = this.context.getEventBus().register(NodeStateEvent.class, event -> scheduleResize());
+
+            this.topologyEventKey = this.context.getEventBus().register(TopologyEvent.class, event -> scheduleResize());
+
+            //Follow reloads of the driver configuration, for example from a file loader with a reload interval
+            this.configChangeEventKey = this.context.getEventBus().register(ConfigChangeEvent.class, event -> reloadConfig());
+
+            this.mbeanName = (profile.getBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_JMX_ENABLED, KeyspacesThrottleOption.DEFAULT_JMX_ENABLED)) ? registerMBean() : null;
+
+            this.metrics = new ThrottlerMetrics(this.context, this::getMaxRequestsPerSecond);
+        }
+
+    /***
+     * Validate the rate, used at initialization and when the rate changes through a reload or JMX
+     * @param maxRequestsPerSecond rate to validate
+     */
+    private void validateMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        //must be greater than 0
+        if(maxRequestsPerSecond <= 0){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                    logPrefix,
+                    maxRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + maxRequestsPerSecond );
+        }
+    }
+
+    /***
+     * Validate the register timeout, used at initialization and when the timeout changes through a reload or JMX
+     * @param registerTimeoutInMs timeout to validate
+     */
+    private void validateRegisterTimeout(long registerTimeoutInMs) {
+        //Requires some timeout
+        if(registerTimeoutInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be set greater than zero, currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to zero, currently " + registerTimeoutInMs );
+        }
+        if(registerTimeoutInMs > requestTimeoutInMs){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be less than or equal to request-timeout (basic.request.timeout), currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout set for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to request timeout (basic.request.timeout), register timeout:" + registerTimeoutInMs + "ms , request timeout:"+ requestTimeoutInMs +" ms");
+        }
+    }
+
+    private static long readMaxRequestsPerSecond(DriverExecutionProfile profile) {
+        return profile.getLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND, REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND_DEFAULT);
+    }
+
+    private static long readRegisterTimeoutInMs(DriverExecutionProfile profile) {
+        return profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT, profile.getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis();
+    }
+
+    /***
+     * Apply the rate and register timeout of a reloaded configuration. Only values that changed since the last read are applied,
+     * and invalid values are logged and ignored so that a bad reload does not stop the throttler.
+     */
+    protected synchronized void reloadConfig() {
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        long reloadedMaxRequestsPerSecond = readMaxRequestsPerSecond(profile);
+
+        long reloadedRegisterTimeoutInMs = readRegisterTimeoutInMs(profile);
+
+        if(reloadedMaxRequestsPerSecond != configuredMaxRequestsPerSecond){
+            configuredMaxRequestsPerSecond = reloadedMaxRequestsPerSecond;
+            try {
+                applyReloadedMaxRequestsPerSecond(reloadedMaxRequestsPerSecond);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("[{}] Ignoring reloaded max-requests-per-second, keeping {}", logPrefix, maxRequestsPerSecond);
+            }
+        }
+        if(reloadedRegisterTimeoutInMs != configuredRegisterTimeoutInMs){
+            configuredRegisterTimeoutInMs = reloadedRegisterTimeoutInMs;
+            try {
+                setRegisterTimeoutInMs(reloadedRegisterTimeoutInMs);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("[{}] Ignoring reloaded register-timeout, keeping {} ms", logPrefix, registerTimeoutInMs);
+            }
+        }
+    }
+
+    /***
+     * Apply a max-requests-per-second that changed in a configuration reload
+     * @param maxRequestsPerSecond reloaded rate
+     */
+    protected void applyReloadedMaxRequestsPerSecond(long maxRequestsPerSecond) {
+        setMaxRequestsPerSecond(maxRequestsPerSecond);
+    }
+
+    /***
+     * Record the wait of an acquired request in the stats and the driver metrics
+     */
+    private void recordAcquired(long waitNanos) {
+        stats.recordAcquired(waitNanos);
+        metrics.recordAcquired(waitNanos);
+    }
+
+    /***
+     * Record a rejected request in the stats and the driver metrics
+     */
+    private void recordRejected() {
+        stats.recordRejected();
+        metrics.recordRejected();
+    }
+
+    /***
+     * Register the throttler MBean on the platform MBean server. Failures are logged and the throttler runs without JMX
+     * @return name of the registered MBean, or null if it could not be registered
+     */
+    private ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.aws.ssa.keyspaces:type=FixedRateThrottler,session=" + ObjectName.quote(logPrefix));
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+
+            LOG.info("[{}] Registered throttler MBean {}", logPrefix, name);
+
+            return name;
+        } catch (JMException e) {
+            LOG.warn("[{}] Could not register throttler MBean", logPrefix, e);
+
+            return null;
+        }
+    }
+
+    /***
+     * Read the number of hosts from the metadata of the session that owns the throttler, and size the connection limiter to it.
+     * The throttler is created before the session connects, so this runs on the first CQL request instead of in the constructor.
+     * Hosts ignored by the load balancing policy have no connection pool and are not counted.
+     */
+    private void discoverHosts() {
+        int discovered = 0;
+        int total = 0;
+
+        for(Node node : context.getMetadataManager().getMetadata().getNodes().values()){
+            total++;
+            if(node.getDistance() == NodeDistance.LOCAL){
+                discovered++;
+            }
+        }
+        //Distances are not set until the load balancing policy is initialized
+        if(discovered == 0){
+            discovered = total;
+        }
+        if(discovered == 0 || !hostsDiscovered.compareAndSet(false, true)){
+            return;
+        }
+        if(discovered < numberOfHosts){
+            LOG.warn(
+                    "[{}] Number of hosts in the session metadata {} is less than the number of hosts configured {}. If using a private VPC endpoint make sure privileges allow for reading system.peers",
+                    logPrefix,
+                    discovered,
+                    numberOfHosts);
+        }else if (discovered > numberOfHosts){
+            LOG.warn(
+                    "[{}] Number of hosts in the session metadata {} is more than the number of hosts configured {}. Increase the number of hosts configured (advanced.throttler.number-of-hosts) to validate throughput",
+                    logPrefix,
+                    discovered,
+                    numberOfHosts);
+        }
+        if(!resizeForOpenConnections()){
+            resizeForConnections(discovered, discovered * numberOfConnectionsPerHost);
+        }
+    }
+
+    /***
+     * Coalesce events into a single resize on the admin executor. The delay lets the node state catch up with the event
+     */
+    private void scheduleResize() {
+        if(resizeScheduled.compareAndSet(false, true)){
+            scheduler.schedule(() -> {
+                resizeScheduled.set(false);
+                resizeForOpenConnections();
+            }, RESIZE_DELAY_IN_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /***
+     * Size the connection limits to the connections currently open in the session pools. Only pool channels are counted,
+     * the control connection does not serve CQL requests. When no connection is open, for example while every pool is
+     * reconnecting, the current limits are kept.
+     * @return true if the limits were sized from open connections
+     */
+    private boolean resizeForOpenConnections() {
+        int hosts = 0;
 
+        int connections = 0;
 
+        for(ChannelPool pool : context.getPoolManager().getPools().values()){
+            int open = pool.size();
+
+            if(open > 0){
+                hosts++;
+                connections += open;
+            }
+        }
+        if(connections == 0){
+            LOG.debug("[{}] No open connections, keeping connection limits", logPrefix);
+            return false;
+        }
+        resizeForConnections(hosts, connections);
+        return true;
+    }
+
+    /***
+     * Size the connection limiter and the in-flight cap to the number of open connections
+     * @param hosts number of hosts with open connections
+     * @param connections number of open connections across all hosts
+     */
+    protected synchronized void resizeForConnections(int hosts, int connections) {
+        int maxRequestPerSecondByForConnections = connections * REQUEST_PER_CONNECTION_DEFAULT;
+
+        int updatedConcurrentRequests = connections * maxRequestsPerConnection;
+
+        if(hosts == numberOfHosts && maxRequestPerSecondByForConnections == (int) maxConnectionsLimiter.getRate()
+                && (!limitConcurrency || updatedConcurrentRequests == maxConcurrentRequests)){
+            return;
+        }
+        if(maxRequestPerSecondByForConnections < maxRequestsPerSecond){
+            LOG.warn(
+                    "[{}] Cannot reach Max Request Per Second of {}. Number of hosts {}, and number of open connections {} will provide at most {} request per second. Try increasing advanced.connection.pool.local.size",
+                    logPrefix,
+                    maxRequestsPerSecond,
+                    hosts,
+                    connections,
+                    maxRequestPerSecondByForConnections);
+        }
+        this.numberOfHosts = hosts;
+
+        maxConnectionsLimiter.setRate(maxRequestPerSecondByForConnections);
+
+        if(limitConcurrency){
+            concurrencyPermits.resize(updatedConcurrentRequests - maxConcurrentRequests);
+
+            this.maxConcurrentRequests = updatedConcurrentRequests;
         }
+        LOG.info(
+                "[{}] Sized connection limits for {} hosts and {} connections: {} requests per second and {} in-flight requests",
+                logPrefix,
+                hosts,
+                connections,
+                maxRequestPerSecondByForConnections,
+                maxConcurrentRequests);
+    }
 
     /***
      * Calculate the number of request per second based on the number of connections, number of hosts, and 2000 request per second.
@@ -251,6 +770,17 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
             return  numberOfConnectionsPerHost * numberOfHosts * REQUEST_PER_CONNECTION_DEFAULT;
         }
 
+    /***
+     * Calculate the number of requests that can be in flight on the connection pools before requests fail with busy connections.
+     * @param numberOfHosts Number of hosts in the peers table. Depends on region and end point
+     * @param numberOfConnectionsPerHost Number of connections for each host ip
+     * @param maxRequestsPerConnection Number of in-flight requests each connection allows (advanced.connection.max-requests-per-connection)
+     * @return max in-flight requests
+     */
+        public static int calculateMaxConcurrentRequests(Integer numberOfHosts, int numberOfConnectionsPerHost, int maxRequestsPerConnection){
+            return numberOfHosts * numberOfConnectionsPerHost * maxRequestsPerConnection;
+        }
+
     /***
      * Calculate recommended connections based on the current maxRequestRate specified. Max Connections rate should be greater than configured max request rate
      * @param maxRequestsPerSecond number of configured request per second
@@ -263,7 +793,8 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
         }
 
     /***
-     * Blocking Rate limiter on register. Will timeout based on the configured timeout.
+     * Rate limiter on register. Blocks until permits are available or the configured timeout is reached. In non-blocking mode
+     * requests that cannot acquire permits immediately are queued and released by the admin executor.
      * @param request
      */
     @Override
@@ -275,56 +806,663 @@ public class AmazonKeyspacesFixedRateThrottler implements RequestThrottler {
             return;
         }
 
+        if(!hostsDiscovered.get()){
+            discoverHosts();
+        }
+
+        if(shadow){
+            registerShadow(request);
+        }else if(nonBlocking){
+            registerNonBlocking(request);
+        }else if(fair){
+            registerFair(request);
+        }else {
+            registerBlocking(request);
+        }
+    }
+
+    /***
+     * Account for the permits of the request as if it were throttled, and release it right away. A request that would have
+     * been rejected does not take permits, the same as when the throttler is enforced. Concurrency limits and the non-blocking
+     * queue are not simulated.
+     * @param request the throttled request
+     */
+    private void registerShadow(Throttled request) {
+        Statement<?> statement = ThrottledStatements.getStatement(request);
+
+        ThrottlerStats shadowStats = profileStats.computeIfAbsent(profileNameOf(statement), name -> new ThrottlerStats());
+
+        long timeoutNanos = (deadlineAware) ? remainingDeadlineNanos(request) : TimeUnit.MILLISECONDS.toNanos(registerTimeoutInMs);
+
+        int permits = permitsFor(statement);
+
+        long waitNanos = -1;
+
+        //Checked without a lock, so the projection is an estimate when requests race between the check and the reservation
+        long projectedWaitNanos = Math.max(maxConnectionsLimiter.getProjectedWaitNanos(permits), limiter.getProjectedWaitNanos(permits));
+
+        if(projectedWaitNanos <= timeoutNanos){
+            waitNanos = Math.max(maxConnectionsLimiter.reserve(permits), limiter.reserve(permits));
+        }
+        //Outcomes are only recorded in the shadow stats, the throttler stats and metrics count enforced requests
+        if(waitNanos < 0){
+            shadowStats.recordRejected();
+        }else{
+            shadowStats.recordAcquired(waitNanos);
+        }
+        request.onThrottleReady(false);
+    }
+
+    /***
+     * Name of the execution profile of the statement
+     * @param statement the statement of the request, may be null
+     * @return profile name, default when the statement does not set a profile
+     */
+    private static String profileNameOf(Statement<?> statement) {
+        String profileName = null;
+
+        if(statement != null){
+            profileName = (statement.getExecutionProfile() != null) ? statement.getExecutionProfile().getName() : statement.getExecutionProfileName();
+        }
+        return (profileName != null) ? profileName : DriverExecutionProfile.DEFAULT_NAME;
+    }
+
+    /***
+     * In fair mode, count the request as waiting for the duration of the blocking acquisition, and fail it right away when
+     * max-queue-size requests are already waiting
+     * @param request the throttled request
+     */
+    private void registerFair(Throttled request) {
+        if(waiters.incrementAndGet() > maxQueueSize){
+            waiters.decrementAndGet();
+            fail(request, String.format("The session has too many requests waiting for permits (max-queue-size: %d)", maxQueueSize));
+            return;
+        }
+        try {
+            registerBlocking(request);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private void registerBlocking(Throttled request) {
 
             long startTime = System.currentTimeMillis();
 
-            //fail if connections not available which should be higher limit than maxRequestRate
-           //can occur if bursting for a single second where the rate limiter is over 2 minutes.
-           if(maxConnectionsLimiter.tryAcquire(1, registerTimeoutInMs, TimeUnit.MILLISECONDS) == false){
-               fail(request, String.format("Timeout waiting for connection permits. Increase number of connections. request timeout: %d seconds)", this.maxRequestsPerSecond, this.registerTimeoutInMs));
-           }
+            long startNanos = System.nanoTime();
 
-            long elapsedTime = System.currentTimeMillis() - startTime;
+            long timeoutInMs = registerTimeoutInMs;
 
-            //registerTimeoutInMs should account for acquiring from both limiters. Ensure that this value is greater than or equal to 0
-            long timeoutForRequestPermits = (elapsedTime>=registerTimeoutInMs)?0:registerTimeoutInMs - elapsedTime;
+            if(deadlineAware){
+                long deadlineNanos = remainingDeadlineNanos(request);
+
+                //fail now rather than after waiting for permits that cannot arrive before the deadline
+                if(rejectProjectedWait(request, 0, deadlineNanos)){
+                    return;
+                }
+                timeoutInMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos);
+            }
+
+            //fail if in-flight capacity does not free up before the timeout, before taking rate permits that would be wasted
+            if(limitConcurrency && !acquireConcurrencyPermit(timeoutInMs)){
+                fail(request, String.format("Timeout waiting for in-flight permits. Increase number of connections or max-requests-per-connection (current max in-flight: %d, request timeout: %d ms)", this.maxConcurrentRequests, this.registerTimeoutInMs));
+                return;
+            }
 
+            int permits = permitsFor(ThrottledStatements.getStatement(request));
 
-            if(limiter.tryAcquire(1, timeoutForRequestPermits, TimeUnit.MILLISECONDS)){
+            //Reserve from both limiters together, or from neither, so that a timed out request does not hold connection permits.
+            //registerTimeoutInMs should account for acquiring from both limiters
+            if(reservePermits(permits, remainingTimeout(startTime, timeoutInMs))){
+                trackInFlight(request);
+                recordAcquired(System.nanoTime() - startNanos);
                 request.onThrottleReady(false);
             }else{
-                fail(request, String.format("Timeout waiting for rate permits. Increase maxRequestsPerSecond (current maxrequests/s: %d, request timeout: %d seconds)", this.maxRequestsPerSecond, this.registerTimeoutInMs));
+                releaseConcurrencyPermit();
+                fail(request, String.format("Timeout waiting for %d rate permits. Increase maxRequestsPerSecond or the number of connections (current maxrequests/s: %d, request timeout: %d ms)", permits, this.maxRequestsPerSecond, this.registerTimeoutInMs));
+            }
+        }
+
+    /***
+     * Number of permits the statement takes from the limiters. A positive decimal value under the weight payload key takes
+     * precedence, then batch statements take one permit per child statement, and all other statements take one permit.
+     * @param statement the statement of the request, may be null
+     * @return number of permits, at least 1
+     */
+    public int permitsFor(Statement<?> statement) {
+        if(statement == null){
+            return 1;
+        }
+        ByteBuffer value = statement.getCustomPayload().get(weightPayloadKey);
+
+        if(value != null){
+            String weight = StandardCharsets.UTF_8.decode(value.duplicate()).toString().trim();
+            try {
+                int permits = Integer.parseInt(weight);
+
+                if(permits > 0){
+                    return permits;
+                }
+            } catch (NumberFormatException e) {
+                //fall through to the default weight
+            }
+            LOG.warn("[{}] Ignoring custom payload {} with value {}, expected a positive number of permits", logPrefix, weightPayloadKey, weight);
+        }
+        if(batchChildPermits && statement instanceof BatchStatement){
+            return Math.max(1, ((BatchStatement) statement).size());
+        }
+        return 1;
+    }
+
+    /***
+     * Reserve the permits of a request from both limiters, or from neither if the next free permit of either limiter
+     * is further away than the timeout. The permits beyond the first are paid for by the following requests, the same as
+     * acquiring several permits from a single Guava Ratelimiter. In fair mode reservations are made in the order the
+     * reservation lock is granted, which is arrival order.
+     * @param permits number of permits
+     * @param timeoutInMs time the request may wait in ms
+     * @return true if the permits were reserved and the wait has elapsed
+     */
+    private boolean reservePermits(int permits, long timeoutInMs) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+
+        long waitNanos;
+
+        if(fair){
+            reservationLock.lock();
+            try {
+                waitNanos = tryReserveBoth(permits, timeoutNanos);
+            } finally {
+                reservationLock.unlock();
+            }
+        }else{
+            waitNanos = tryReserveBoth(permits, timeoutNanos);
+        }
+        if(waitNanos < 0){
+            return false;
+        }
+        if(waitNanos > 0){
+            Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return true;
+    }
+
+    /***
+     * Reserve permits from the connection limiter, then from the rate limiter. When the rate limiter refuses, the permits
+     * reserved from the connection limiter are refunded, so that neither limiter is charged alone
+     * @param permits number of permits
+     * @param timeoutNanos time the request may wait for the next free permit of each limiter
+     * @return wait in nanoseconds before the permits can be used, or -1 if nothing was reserved
+     */
+    private long tryReserveBoth(int permits, long timeoutNanos) {
+        long connectionsWaitNanos = maxConnectionsLimiter.tryReserve(permits, timeoutNanos);
+
+        if(connectionsWaitNanos < 0){
+            return -1;
+        }
+        long rateWaitNanos = limiter.tryReserve(permits, timeoutNanos);
+
+        if(rateWaitNanos < 0){
+            maxConnectionsLimiter.refund(permits);
+            return -1;
+        }
+        return Math.max(connectionsWaitNanos, rateWaitNanos);
+    }
+
+    /***
+     * Time left of the timeout. Ensure that this value is greater than or equal to 0
+     * @param startTime time the request started waiting in ms
+     * @param timeoutInMs time the request may wait in ms
+     * @return remaining timeout in ms
+     */
+    private long remainingTimeout(long startTime, long timeoutInMs) {
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        return (elapsedTime>=timeoutInMs)?0:timeoutInMs - elapsedTime;
+    }
+
+    /***
+     * Time the request has left to acquire permits. The deadline is the register timeout, or the statement timeout if shorter,
+     * counted from the time the request was created.
+     * @param request the throttled request
+     * @return remaining time in nanoseconds, greater than or equal to 0
+     */
+    private long remainingDeadlineNanos(Throttled request) {
+        long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(registerTimeoutInMs);
+
+        Statement<?> statement = ThrottledStatements.getStatement(request);
+
+        if(statement != null && statement.getTimeout() != null){
+            deadlineNanos = Math.min(deadlineNanos, statement.getTimeout().toNanos());
+        }
+        Long startTimeNanos = ThrottledStatements.getStartTimeNanos(request);
+
+        if(startTimeNanos != null){
+            deadlineNanos -= System.nanoTime() - startTimeNanos;
+        }
+        return Math.max(0, deadlineNanos);
+    }
+
+    /***
+     * Fail the request if the projected wait for permits from the next free ticket of both limiters exceeds its deadline
+     * @param request the throttled request
+     * @param queuedRequests number of requests that will be served first
+     * @param deadlineNanos time the request has left
+     * @return true if the request was failed
+     */
+    private boolean rejectProjectedWait(Throttled request, int queuedRequests, long deadlineNanos) {
+        //The limiters refill at the same time, so the wait is the longest of the two
+        long projectedWaitNanos = Math.max(maxConnectionsLimiter.getProjectedWaitNanos(queuedRequests + 1),
+                limiter.getProjectedWaitNanos(queuedRequests + 1));
+
+        if(projectedWaitNanos <= deadlineNanos){
+            return false;
+        }
+        fail(request, String.format("Projected wait for rate permits of %d ms exceeds the remaining request deadline of %d ms. Increase maxRequestsPerSecond (current maxrequests/s: %d, request timeout: %d ms)",
+                TimeUnit.NANOSECONDS.toMillis(projectedWaitNanos), TimeUnit.NANOSECONDS.toMillis(deadlineNanos), this.maxRequestsPerSecond, this.registerTimeoutInMs));
+        return true;
+    }
+
+    private boolean acquireConcurrencyPermit(long timeoutInMs) {
+        try {
+            return concurrencyPermits.tryAcquire(timeoutInMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void releaseConcurrencyPermit() {
+        if(limitConcurrency){
+            concurrencyPermits.release();
+        }
+    }
+
+    /***
+     * Record the request as holding a concurrency permit. Must happen before the request is sent, since it can complete on another thread
+     * @param request request that acquired its permits
+     */
+    private void trackInFlight(Throttled request) {
+        if(limitConcurrency){
+            inFlight.add(request);
+        }
+    }
+
+    /***
+     * Release the concurrency permit of a completed request. Requests that never acquired a permit, such as requests that
+     * timed out in the queue, are ignored
+     * @param request completed request
+     */
+    private void releaseInFlight(Throttled request) {
+        if(limitConcurrency && inFlight.remove(request)){
+            concurrencyPermits.release();
+        }
+    }
+
+    private void registerNonBlocking(Throttled request) {
+        long deadlineNanos = (deadlineAware) ? remainingDeadlineNanos(request) : TimeUnit.MILLISECONDS.toNanos(registerTimeoutInMs);
+
+        lock.lock();
+        try {
+            if (closed) {
+                fail(request, "The session is shutting down");
+                return;
+            }
+            //Only bypass the queue if nobody is waiting, otherwise requests would be served out of order
+            int permits = permitsFor(ThrottledStatements.getStatement(request));
+
+            if (queue.isEmpty() && tryAcquirePermits(request, permits)) {
+                recordAcquired(0);
+                request.onThrottleReady(false);
+                return;
+            }
+            if (queue.size() >= maxQueueSize) {
+                fail(request, String.format("The session has too many requests waiting for permits (max-queue-size: %d)", maxQueueSize));
+                return;
+            }
+            //Shed the request now if the requests ahead of it will use the permits until after its deadline
+            if (deadlineAware && rejectProjectedWait(request, queue.size(), deadlineNanos)) {
+                return;
+            }
+            boolean wasEmpty = queue.isEmpty();
+
+            long now = System.nanoTime();
+
+            queue.add(new QueuedRequest(request, permits, now, now + deadlineNanos));
+
+            LOG.trace("[{}] Enqueuing request, current queue size {}", logPrefix, queue.size());
+
+            if (wasEmpty) {
+                scheduler.schedule(this::drain, drainIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Releases queued requests in arrival order while both limiters have permits, and fails the requests that
+     * have waited longer than the register timeout. Reschedules itself while the queue is not empty.
+     */
+    private void drain() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+
+            QueuedRequest head;
+
+            while ((head = queue.peek()) != null) {
+                if (now - head.deadlineNanos >= 0) {
+                    queue.poll();
+                    fail(head.request, String.format("Timeout waiting for permits in queue. Increase maxRequestsPerSecond (current maxrequests/s: %d, request timeout: %d ms)", this.maxRequestsPerSecond, this.registerTimeoutInMs));
+                } else if (tryAcquirePermits(head.request, head.permits)) {
+                    queue.poll();
+                    recordAcquired(now - head.enqueuedNanos);
+                    head.request.onThrottleReady(true);
+                } else {
+                    break;
+                }
+            }
+            if (!queue.isEmpty()) {
+                scheduler.schedule(this::drain, drainIntervalNanos, TimeUnit.NANOSECONDS);
             }
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /***
+     * Attempt to acquire an in-flight permit and the permits of the request from both limiters without waiting. Permits
+     * are reserved from both limiters only when both have a permit free now, so that neither limiter is charged alone.
+     * Called while holding the queue lock, the limiters are not locked.
+     * @param request request that will hold the permits
+     * @param permits number of permits of the request
+     * @return true if the request can be sent
+     */
+    private boolean tryAcquirePermits(Throttled request, int permits) {
+        if(limitConcurrency && !concurrencyPermits.tryAcquire()){
+            return false;
+        }
+        if(tryReserveBoth(permits, 0) >= 0){
+            trackInFlight(request);
+            return true;
+        }
+        releaseConcurrencyPermit();
+        return false;
+    }
 
-        private static void fail(Throttled request, String message) {
+        private void fail(Throttled request, String message) {
+            recordRejected();
             request.onThrottleFailure(new RequestThrottlingException(message));
         }
 
         @Override
         public void signalSuccess(@NonNull Throttled request) {
-           //nothing to do
+            releaseInFlight(request);
         }
 
         @Override
         public void signalError(@NonNull Throttled request, @NonNull Throwable error) {
+            releaseInFlight(request);
             LOG.warn(logPrefix + " signalError Throttled Request", error);
         }
 
         @Override
         public void signalTimeout(@NonNull Throttled request) {
+            releaseInFlight(request);
+            if(nonBlocking){
+                lock.lock();
+                try {
+                    //The request may have timed out while still waiting in the queue
+                    queue.removeIf(queued -> queued.request == request);
+                } finally {
+                    lock.unlock();
+                }
+            }
             LOG.warn( "[{}] Timeout Throttled Request signalTimeout", logPrefix);
         }
 
         @Override
-        public void close() { }
+        public void close() {
+            context.getEventBus().unregister(channelEventKey, ChannelEvent.class);
+            context.getEventBus().unregister(nodeStateEventKey, NodeStateEvent.class);
+            context.getEventBus().unregister(topologyEventKey, TopologyEvent.class);
+            context.getEventBus().unregister(configChangeEventKey, ConfigChangeEvent.class);
+
+            metrics.close();
+
+            if(mbeanName != null){
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                try {
+                    server.unregisterMBean(mbeanName);
+                } catch (JMException e) {
+                    LOG.debug("[{}] Could not unregister throttler MBean", logPrefix, e);
+                }
+            }
+
+            lock.lock();
+            try {
+                closed = true;
+
+                QueuedRequest queued;
+
+                while ((queued = queue.poll()) != null) {
+                    fail(queued.request, "The session is shutting down");
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isNonBlocking(){
+            return this.nonBlocking;
+        }
+
+        public DriverContext getContext(){
+            return this.context;
+        }
+
+        public int getNumberOfHosts(){
+            return this.numberOfHosts;
+        }
+
+        @Override
+        public double getMaxConnectionsRequestsPerSecond(){
+            return maxConnectionsLimiter.getRate();
+        }
+
+        public boolean isDeadlineAware(){
+            return this.deadlineAware;
+        }
+
+        public boolean isLimitConcurrency(){
+            return this.limitConcurrency;
+        }
+
+        public int getMaxConcurrentRequests(){
+            return this.maxConcurrentRequests;
+        }
+
+        @Override
+        public int getInFlightRequests(){
+            return inFlight.size();
+        }
+
+        @Override
+        public boolean isShadow(){
+            return this.shadow;
+        }
+
+        /***
+         * Stats recorded in shadow mode by execution profile name. Requests without a profile are recorded under default
+         * @return stats by profile name
+         */
+        @Override
+        public Map<String, ThrottlerStats> getProfileStats(){
+            return profileStats;
+        }
+
+        public boolean isFair(){
+            return this.fair;
+        }
+
+        /***
+         * @return true if blocking reservations take the reservation lock, which only fair mode does
+         */
+        boolean usesReservationLock(){
+            return reservationLock != null;
+        }
+
+        @Override
+        public double getWaitP50Millis(){
+            return stats.getWaitPercentileMillis(50.0);
+        }
+
+        @Override
+        public double getWaitP99Millis(){
+            return stats.getWaitPercentileMillis(99.0);
+        }
+
+        @Override
+        public double getWaitP999Millis(){
+            return stats.getWaitPercentileMillis(99.9);
+        }
+
+        public boolean isBatchChildPermits(){
+            return this.batchChildPermits;
+        }
+
+        public String getWeightPayloadKey(){
+            return this.weightPayloadKey;
+        }
+
+        public RateLimiterEngine getLimiterEngine(){
+            return this.limiterEngine;
+        }
+
+        @Override
+        public int getQueueSize(){
+            lock.lock();
+            try {
+                //Only one of the two is used, depending on non-blocking or fair mode
+                return queue.size() + waiters.get();
+            } finally {
+                lock.unlock();
+            }
+        }
 
+        @Override
         public long getMaxRequestsPerSecond(){
             return this.maxRequestsPerSecond;
         }
 
-        public void setMaxRequestsPerSecond(long maxRequestsPerSecond){
+        @Override
+        public synchronized void setMaxRequestsPerSecond(long maxRequestsPerSecond){
+            validateMaxRequestsPerSecond(maxRequestsPerSecond);
+
+            if(maxRequestsPerSecond > maxConnectionsLimiter.getRate()){
+                LOG.warn(
+                        "[{}] Cannot reach Max Request Per Second of {}. Open connections will provide at most {} request per second. Try increasing advanced.connection.pool.local.size",
+                        logPrefix,
+                        maxRequestsPerSecond,
+                        (long) maxConnectionsLimiter.getRate());
+            }
+            LOG.debug("[{}] Changing maxRequestsPerSecond from {} to {}", logPrefix, this.maxRequestsPerSecond, maxRequestsPerSecond);
+
             this.maxRequestsPerSecond = maxRequestsPerSecond;
             limiter.setRate(maxRequestsPerSecond);
         }
+
+        @Override
+        public long getRegisterTimeoutInMs(){
+            return this.registerTimeoutInMs;
+        }
+
+        @Override
+        public synchronized void setRegisterTimeoutInMs(long registerTimeoutInMs){
+            validateRegisterTimeout(registerTimeoutInMs);
+
+            LOG.info("[{}] Changing registerTimeoutInMs from {} to {}", logPrefix, this.registerTimeoutInMs, registerTimeoutInMs);
+
+            this.registerTimeoutInMs = registerTimeoutInMs;
+        }
+
+        @Override
+        public int getBurstSeconds(){
+            return REQUEST_BURST_CAPACITY_IN_SECONDS;
+        }
+
+        @Override
+        public double getStoredPermits(){
+            return limiter.getStoredPermits();
+        }
+
+        @Override
+        public long getAcquiredCount(){
+            return stats.getAcquiredCount();
+        }
+
+        @Override
+        public long getRejectedCount(){
+            return stats.getRejectedCount();
+        }
+
+        @Override
+        public double getAverageWaitMillis(){
+            return stats.getAverageWaitMillis();
+        }
+
+        @Override
+        public double getMaxWaitMillis(){
+            return stats.getMaxWaitMillis();
+        }
+
+        @Override
+        public void resetStats(){
+            stats.reset();
+            profileStats.clear();
+        }
+
+        public ObjectName getMBeanName(){
+            return this.mbeanName;
+        }
+
+    /***
+     * Semaphore whose number of permits can shrink as well as grow when the number of hosts changes. Permits held by in-flight
+     * requests are not revoked, the available permits go negative until they are released.
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+
+        private ResizableSemaphore(int permits, boolean fair) {
+            super(permits, fair);
+        }
+
+        private void resize(int delta) {
+            if(delta > 0){
+                release(delta);
+            }else if(delta < 0){
+                reducePermits(-delta);
+            }
+        }
+    }
+
+    /***
+     * Request waiting for permits in non-blocking mode along with the time it will fail if not released
+     */
+    private static final class QueuedRequest {
+        private final Throttled request;
+        private final int permits;
+        private final long enqueuedNanos;
+        private final long deadlineNanos;
+
+        private QueuedRequest(Throttled request, int permits, long enqueuedNanos, long deadlineNanos) {
+            this.request = request;
+            this.permits = permits;
+            this.enqueuedNanos = enqueuedNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
     }
+}
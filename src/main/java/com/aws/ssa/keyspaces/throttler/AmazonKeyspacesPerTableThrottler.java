@@ -0,0 +1,313 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.aws.ssa.keyspaces.metrics.ThrottlerMetrics;
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.RequestThrottlingException;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.throttling.RequestThrottler;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import com.datastax.oss.driver.internal.core.adminrequest.ThrottledAdminRequestHandler;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.BurstyRateLimiterFactory;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.RateLimiter;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request throttler that limits the rate of requests per second for each table. In Amazon Keyspaces each table has its own
+ * provisioned capacity, and a single limiter for the session lets a busy table use the permits needed by the other tables.
+ * Each table gets its own Guava SmoothBursty Ratelimiter that allows two minutes of capacity to aggregate if not used.
+ *
+ * The target table is resolved from the prepared statement metadata, or from the keyspace and query of simple statements.
+ * Tables that are not listed use max-requests-per-second, and each gets its own limiter. Requests for which the table cannot be
+ * resolved share a single limiter at max-requests-per-second. Limiters are looked up without locking, and only created on the first
+ * request to a table.
+ *
+ * This is a blocking implementation but it will timeout based on the configured register timeout
+ *
+ * The wait and rejection metrics are published like those of the {@link AmazonKeyspacesFixedRateThrottler}, the rate gauge
+ * reports max-requests-per-second of the tables that are not listed.
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesPerTableThrottler
+ *           max-requests-per-second = 1000
+ *           register-timeout = 3 seconds
+ *           tables {
+ *              my_keyspace.hot_table = 5000
+ *              my_keyspace.cold_table = 100
+ *           }
+ *     }
+ * }
+ * </pre>
+ *  max-requests-per-second : the number of CQL request per second max for tables not listed
+ *  register-timeout : time to wait for permits from limiter. Should be less than request timeout
+ *  tables.keyspace.table : the number of CQL request per second max for the table
+ */
+@ThreadSafe
+public class AmazonKeyspacesPerTableThrottler implements RequestThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesPerTableThrottler.class);
+
+    private final String logPrefix;
+
+    /***
+     * Rate of tables that are not listed under advanced.throttler.tables
+     */
+    private final long defaultRequestsPerSecond;
+
+    /***
+     * Configured rate of each listed table by keyspace and table
+     */
+    private final Map<CqlIdentifier, Map<CqlIdentifier, Long>> configuredRequestsPerSecond;
+
+    /***
+     * Rate limiter of each table by keyspace and table. Two levels avoid building a key for each request
+     */
+    private final ConcurrentMap<CqlIdentifier, ConcurrentMap<CqlIdentifier, RateLimiter>> limiters = new ConcurrentHashMap<>();
+
+    /***
+     * Rate limiter used when the table cannot be resolved
+     */
+    private final RateLimiter unresolvedLimiter;
+
+    /***
+     * Configured timeout per operation or time to wait for permits from ratelimiter
+     */
+    private final long registerTimeoutInMs;
+
+    /***
+     * Wait, rejection and rate metrics published to the driver's metric registry, recording nothing when the driver metrics are disabled
+     */
+    private final ThrottlerMetrics metrics;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesPerTableThrottler(DriverContext context) {
+        this(context,
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND,
+                                AmazonKeyspacesFixedRateThrottler.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND_DEFAULT),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT, context.getConfig()
+                                .getDefaultProfile()
+                                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis(),
+                readTableRates(context.getConfig().getDefaultProfile()));
+    }
+
+    /*** Initialization of the Throttler ***/
+    public AmazonKeyspacesPerTableThrottler(DriverContext context, long defaultRequestsPerSecond, long registerTimeoutInMs,
+                                            Map<String, Long> tableRequestsPerSecond) {
+        this.logPrefix = context.getSessionName();
+
+        this.defaultRequestsPerSecond = defaultRequestsPerSecond;
+
+        this.registerTimeoutInMs = registerTimeoutInMs;
+
+        //must be greater than 0
+        if(this.defaultRequestsPerSecond <= 0){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                    logPrefix,
+                    defaultRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + defaultRequestsPerSecond );
+        }
+
+        //Requires some timeout
+        if(this.registerTimeoutInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be set greater than zero, currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to zero, currently " + registerTimeoutInMs );
+        }
+        long requestTimeout = context.getConfig()
+                .getDefaultProfile()
+                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT).toMillis();
+
+        if(this.registerTimeoutInMs > requestTimeout){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be less than or equal to request-timeout (basic.request.timeout), currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout set for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to request timeout (basic.request.timeout), register timeout:" + registerTimeoutInMs + "ms , request timeout:"+ requestTimeout +" ms");
+        }
+
+        Map<CqlIdentifier, Map<CqlIdentifier, Long>> configured = new HashMap<>();
+
+        for(Map.Entry<String, Long> table : tableRequestsPerSecond.entrySet()){
+            String[] qualifiedName = table.getKey().split("\\.", 2);
+
+            if(qualifiedName.length != 2){
+                throw new IllegalArgumentException("Throttler table (advanced.throttler.tables) must be qualified with the keyspace as keyspace.table, currently " + table.getKey());
+            }
+            if(table.getValue() == null || table.getValue() <= 0){
+                throw new IllegalArgumentException("Throttler max request per second for table " + table.getKey() + " (advanced.throttler.tables) must be set greater than zero, currently " + table.getValue());
+            }
+            configured.computeIfAbsent(CqlIdentifier.fromCql(qualifiedName[0]), keyspace -> new HashMap<>())
+                    .put(CqlIdentifier.fromCql(qualifiedName[1]), table.getValue());
+
+            LOG.info(
+                    "[{}] Initializing table {} with maxRequestsPerSecond = {}",
+                    logPrefix,
+                    table.getKey(),
+                    table.getValue());
+        }
+        this.configuredRequestsPerSecond = Collections.unmodifiableMap(configured);
+
+        LOG.info(
+                "[{}] Initializing with default maxRequestsPerSecond = {} and registerTimeoutInMs = {}",
+                logPrefix,
+                defaultRequestsPerSecond,
+                registerTimeoutInMs);
+
+        //Aggregate permits over two minutes to allow for burst of unused capacity
+        this.unresolvedLimiter = BurstyRateLimiterFactory.create(defaultRequestsPerSecond, AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+
+        this.metrics = new ThrottlerMetrics(context, this::getDefaultRequestsPerSecond);
+    }
+
+    /***
+     * Read the rates listed under advanced.throttler.tables. Each entry is keyspace.table = max request per second
+     * @param profile the profile of the throttler
+     * @return rate by qualified table name
+     */
+    public static Map<String, Long> readTableRates(DriverExecutionProfile profile){
+        String prefix = KeyspacesThrottleOption.KEYSPACES_THROTTLE_TABLES.getPath() + ".";
+
+        Map<String, Long> rates = new HashMap<>();
+
+        for(Map.Entry<String, Object> entry : profile.entrySet()){
+            if(entry.getKey().startsWith(prefix)){
+                Object value = entry.getValue();
+
+                rates.put(entry.getKey().substring(prefix.length()), (value instanceof Number) ? ((Number) value).longValue() : Long.valueOf(String.valueOf(value)));
+            }
+        }
+        return rates;
+    }
+
+    /***
+     * Limiter for the table. Lookups of known tables do not lock, new tables are added on the first request
+     * @param keyspace keyspace of the table
+     * @param table name of the table
+     * @return the limiter of the table, or the shared limiter if the table is not known
+     */
+    public RateLimiter getLimiter(@Nullable CqlIdentifier keyspace, @Nullable CqlIdentifier table){
+        if(keyspace == null || table == null){
+            return unresolvedLimiter;
+        }
+        ConcurrentMap<CqlIdentifier, RateLimiter> tables = limiters.get(keyspace);
+
+        if(tables == null){
+            tables = limiters.computeIfAbsent(keyspace, key -> new ConcurrentHashMap<>());
+        }
+        RateLimiter limiter = tables.get(table);
+
+        if(limiter == null){
+            limiter = tables.computeIfAbsent(table, key -> createLimiter(keyspace, key));
+        }
+        return limiter;
+    }
+
+    private RateLimiter createLimiter(CqlIdentifier keyspace, CqlIdentifier table){
+        long requestsPerSecond = getMaxRequestsPerSecond(keyspace, table);
+
+        LOG.debug("[{}] Creating limiter for table {}.{} with maxRequestsPerSecond = {}", logPrefix, keyspace.asCql(true), table.asCql(true), requestsPerSecond);
+
+        //Aggregate permits over two minutes to allow for burst of unused capacity
+        return BurstyRateLimiterFactory.create(requestsPerSecond, AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+    }
+
+    /***
+     * Configured rate of the table, or max-requests-per-second if the table is not listed
+     */
+    public long getMaxRequestsPerSecond(CqlIdentifier keyspace, CqlIdentifier table){
+        Map<CqlIdentifier, Long> tables = configuredRequestsPerSecond.get(keyspace);
+
+        Long requestsPerSecond = (tables == null) ? null : tables.get(table);
+
+        return (requestsPerSecond == null) ? defaultRequestsPerSecond : requestsPerSecond;
+    }
+
+    /***
+     * Blocking Rate limiter on register. Will timeout based on the configured timeout.
+     * @param request
+     */
+    @Override
+    public void register(@NonNull Throttled request) {
+
+        //Allow admin request
+        if(request instanceof ThrottledAdminRequestHandler) {
+            request.onThrottleReady(false);
+            return;
+        }
+
+        Statement<?> statement = ThrottledStatements.getStatement(request);
+
+        CqlIdentifier keyspace = (statement == null) ? null : ThrottledStatements.getKeyspace(statement, ThrottledStatements.getSessionKeyspace(request));
+
+        CqlIdentifier table = (statement == null) ? null : ThrottledStatements.getTable(statement);
+
+        long startNanos = System.nanoTime();
+
+        if(getLimiter(keyspace, table).tryAcquire(1, registerTimeoutInMs, TimeUnit.MILLISECONDS)){
+            metrics.recordAcquired(System.nanoTime() - startNanos);
+
+            request.onThrottleReady(false);
+        }else{
+            metrics.recordRejected();
+
+            fail(request, String.format("Timeout waiting for rate permits for table %s.%s. Increase the table max requests per second (current maxrequests/s: %d, request timeout: %d ms)",
+                    keyspace, table, (keyspace == null || table == null) ? defaultRequestsPerSecond : getMaxRequestsPerSecond(keyspace, table), this.registerTimeoutInMs));
+        }
+    }
+
+    private static void fail(Throttled request, String message) {
+        request.onThrottleFailure(new RequestThrottlingException(message));
+    }
+
+    @Override
+    public void signalSuccess(@NonNull Throttled request) {
+        //nothing to do
+    }
+
+    @Override
+    public void signalError(@NonNull Throttled request, @NonNull Throwable error) {
+        LOG.warn(logPrefix + " signalError Throttled Request", error);
+    }
+
+    @Override
+    public void signalTimeout(@NonNull Throttled request) {
+        LOG.warn( "[{}] Timeout Throttled Request signalTimeout", logPrefix);
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    public long getDefaultRequestsPerSecond(){
+        return this.defaultRequestsPerSecond;
+    }
+}
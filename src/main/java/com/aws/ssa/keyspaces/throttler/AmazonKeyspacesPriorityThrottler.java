@@ -0,0 +1,374 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.aws.ssa.keyspaces.metrics.ThrottlerMetrics;
+import com.datastax.oss.driver.api.core.RequestThrottlingException;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.throttling.RequestThrottler;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import com.datastax.oss.driver.internal.core.adminrequest.ThrottledAdminRequestHandler;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A request throttler that splits the rate of requests per second between an interactive lane and a bulk lane, so that
+ * background work such as backfills does not take the permits needed by latency sensitive requests. Requests are placed in the
+ * bulk lane when their execution profile is listed in bulk-profiles, or when the custom payload key is set to bulk. All other
+ * requests are interactive.
+ *
+ * The bulk lane has a reserved minimum share of max-requests-per-second, and the interactive lane has the rest. Each lane
+ * first takes permits from its own limiter, and permits left unused by one lane flow to the other when no request of that lane
+ * is waiting for them:
+ *  strict : the interactive lane has priority. The bulk lane only uses interactive permits once no interactive request has been
+ *  seen for a second, so the stored burst of the interactive lane is kept for interactive traffic.
+ *  weighted : both lanes use permits left by the other lane whenever they are available, and the shares act as weights.
+ * The combined rate of both lanes never exceeds max-requests-per-second.
+ *
+ * This is a blocking implementation but it will timeout based on the configured register timeout
+ *
+ * The wait and rejection metrics of both lanes are published like those of the {@link AmazonKeyspacesFixedRateThrottler}.
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesPriorityThrottler
+ *           max-requests-per-second = 1000
+ *           register-timeout = 3 seconds
+ *           priority {
+ *              mode = strict
+ *              bulk-min-share = 0.1
+ *              bulk-profiles = [ backfill ]
+ *              payload-key = keyspaces-priority
+ *           }
+ *     }
+ * }
+ * </pre>
+ *  priority.mode : strict or weighted access to the permits of the other lane
+ *  priority.bulk-min-share : share of max-requests-per-second reserved for the bulk lane
+ *  priority.bulk-profiles : execution profiles whose requests are placed in the bulk lane
+ *  priority.payload-key : custom payload key with value bulk or interactive that selects the lane of a request
+ */
+@ThreadSafe
+public class AmazonKeyspacesPriorityThrottler implements RequestThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesPriorityThrottler.class);
+
+    public enum Lane { INTERACTIVE, BULK }
+
+    public enum Mode { STRICT, WEIGHTED }
+
+    /*** Time without interactive requests after which the interactive lane is idle ***/
+    private static final long INTERACTIVE_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String logPrefix;
+
+    /***
+     * Permits of the interactive lane, max-requests-per-second less the bulk share
+     */
+    private final PermitLimiter interactiveLimiter;
+
+    /***
+     * Permits reserved for the bulk lane
+     */
+    private final PermitLimiter bulkLimiter;
+
+    /***
+     * Number of requests of each lane blocked waiting for their own limiter
+     */
+    private final AtomicInteger interactiveWaiting = new AtomicInteger();
+
+    private final AtomicInteger bulkWaiting = new AtomicInteger();
+
+    /***
+     * Time of the last interactive request. In strict mode the bulk lane borrows interactive permits once the lane is idle
+     */
+    private volatile long lastInteractiveNanos = System.nanoTime() - INTERACTIVE_IDLE_NANOS;
+
+    private final long maxRequestsPerSecond;
+
+    private final double bulkMinShare;
+
+    private final Mode mode;
+
+    private final Set<String> bulkProfiles;
+
+    private final String payloadKey;
+
+    /***
+     * Configured timeout per operation or time to wait for permits from ratelimiter
+     */
+    private final long registerTimeoutInMs;
+
+    /***
+     * Wait, rejection and rate metrics published to the driver's metric registry, recording nothing when the driver metrics are disabled
+     */
+    private final ThrottlerMetrics metrics;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesPriorityThrottler(DriverContext context) {
+        this(context,
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND,
+                                AmazonKeyspacesFixedRateThrottler.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND_DEFAULT),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_TIMEOUT, context.getConfig()
+                                .getDefaultProfile()
+                                .getDuration(DefaultDriverOption.REQUEST_TIMEOUT)).toMillis(),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PRIORITY_MODE, KeyspacesThrottleOption.DEFAULT_PRIORITY_MODE),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getDouble(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PRIORITY_BULK_MIN_SHARE, KeyspacesThrottleOption.DEFAULT_PRIORITY_BULK_MIN_SHARE),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getStringList(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PRIORITY_BULK_PROFILES, Collections.emptyList()),
+                context.getConfig()
+                        .getDefaultProfile()
+                        .getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PRIORITY_PAYLOAD_KEY, KeyspacesThrottleOption.DEFAULT_PRIORITY_PAYLOAD_KEY));
+    }
+
+    /*** Initialization of the Throttler ***/
+    public AmazonKeyspacesPriorityThrottler(DriverContext context, long maxRequestsPerSecond, long registerTimeoutInMs, String mode,
+                                            double bulkMinShare, List<String> bulkProfiles, String payloadKey) {
+        this.logPrefix = context.getSessionName();
+
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+
+        this.registerTimeoutInMs = registerTimeoutInMs;
+
+        this.bulkMinShare = bulkMinShare;
+
+        this.bulkProfiles = Collections.unmodifiableSet(new HashSet<>(bulkProfiles));
+
+        this.payloadKey = payloadKey;
+
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        //must be greater than 0
+        if(this.maxRequestsPerSecond <= 0){
+            LOG.error(
+                    "[{}]  Throttler max request per second (advanced.throttler.max-requests-per-second) must be set greater than zero, currently {}",
+                    logPrefix,
+                    maxRequestsPerSecond);
+
+            throw new IllegalArgumentException("Throttler maxRequestsPerSecond (advanced.throttler.max-requests-per-second) must be set greater than zero, currently " + maxRequestsPerSecond );
+        }
+
+        if(!(this.bulkMinShare > 0.0 && this.bulkMinShare < 1.0)){
+            LOG.error(
+                    "[{}]  Throttler bulk min share (advanced.throttler.priority.bulk-min-share) must be between zero and one, currently {}",
+                    logPrefix,
+                    bulkMinShare);
+
+            throw new IllegalArgumentException("Throttler bulkMinShare (advanced.throttler.priority.bulk-min-share) must be between zero and one, currently " + bulkMinShare);
+        }
+
+        try {
+            this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOG.error(
+                    "[{}]  Throttler priority mode (advanced.throttler.priority.mode) must be strict or weighted, currently {}",
+                    logPrefix,
+                    mode);
+
+            throw new IllegalArgumentException("Throttler priority mode (advanced.throttler.priority.mode) must be strict or weighted, currently " + mode);
+        }
+
+        //Requires some timeout
+        if(this.registerTimeoutInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be set greater than zero, currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to zero, currently " + registerTimeoutInMs );
+        }
+        long requestTimeout = profile.getDuration(DefaultDriverOption.REQUEST_TIMEOUT).toMillis();
+
+        if(this.registerTimeoutInMs > requestTimeout){
+            LOG.error(
+                    "[{}]  Throttler register timeout (advanced.throttler.register-timeout) must be less than or equal to request-timeout (basic.request.timeout), currently {}",
+                    logPrefix,
+                    registerTimeoutInMs);
+
+            throw new IllegalArgumentException("Invalid timeout set for registerTimeoutInMs (advanced.throttler.register-timeout) must be set greater or equal to request timeout (basic.request.timeout), register timeout:" + registerTimeoutInMs + "ms , request timeout:"+ requestTimeout +" ms");
+        }
+
+        RateLimiterEngine limiterEngine = RateLimiterEngine.fromConfig(
+                profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_LIMITER_ENGINE, KeyspacesThrottleOption.DEFAULT_LIMITER_ENGINE));
+
+        LOG.info(
+                "[{}] Initializing with maxRequestsPerSecond = {}, registerTimeoutInMs = {}, mode = {}, bulkMinShare = {} and bulkProfiles = {}",
+                logPrefix,
+                maxRequestsPerSecond,
+                registerTimeoutInMs,
+                this.mode,
+                bulkMinShare,
+                bulkProfiles);
+
+        //Aggregate permits over two minutes to allow for burst of unused capacity
+        this.interactiveLimiter = limiterEngine.create(maxRequestsPerSecond * (1.0 - bulkMinShare), AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+
+        this.bulkLimiter = limiterEngine.create(maxRequestsPerSecond * bulkMinShare, AmazonKeyspacesFixedRateThrottler.REQUEST_BURST_CAPACITY_IN_SECONDS);
+
+        this.metrics = new ThrottlerMetrics(context, this::getMaxRequestsPerSecond);
+    }
+
+    /***
+     * Bulk if the execution profile is listed in bulk-profiles or the payload key is set to bulk, otherwise interactive.
+     * The payload takes precedence over the profile.
+     * @param statement the statement of the request
+     * @return the lane of the request
+     */
+    public Lane laneOf(@Nullable Statement<?> statement){
+        if(statement == null){
+            return Lane.INTERACTIVE;
+        }
+        ByteBuffer value = statement.getCustomPayload().get(payloadKey);
+
+        if(value != null){
+            String lane = StandardCharsets.UTF_8.decode(value.duplicate()).toString().trim();
+
+            if(Lane.BULK.name().equalsIgnoreCase(lane)){
+                return Lane.BULK;
+            }
+            if(Lane.INTERACTIVE.name().equalsIgnoreCase(lane)){
+                return Lane.INTERACTIVE;
+            }
+        }
+        String profileName = (statement.getExecutionProfile() != null) ? statement.getExecutionProfile().getName() : statement.getExecutionProfileName();
+
+        return (profileName != null && bulkProfiles.contains(profileName)) ? Lane.BULK : Lane.INTERACTIVE;
+    }
+
+    /***
+     * Acquire a permit for the lane without waiting. Tries the lane limiter, then the permits left unused by the other lane
+     * @param lane lane of the request
+     * @return true if a permit was acquired
+     */
+    public boolean tryAcquire(Lane lane){
+        if(lane == Lane.INTERACTIVE){
+            this.lastInteractiveNanos = System.nanoTime();
+
+            return interactiveLimiter.tryAcquire() || (bulkWaiting.get() == 0 && bulkLimiter.tryAcquire());
+        }
+        boolean borrow = (mode == Mode.WEIGHTED || isInteractiveIdle()) && interactiveWaiting.get() == 0;
+
+        return bulkLimiter.tryAcquire() || (borrow && interactiveLimiter.tryAcquire());
+    }
+
+    /***
+     * Acquire a permit for the lane, waiting for the lane limiter up to the register timeout
+     * @param lane lane of the request
+     * @return true if a permit was acquired
+     */
+    public boolean acquire(Lane lane){
+        if(tryAcquire(lane)){
+            return true;
+        }
+        AtomicInteger waiting = (lane == Lane.INTERACTIVE) ? interactiveWaiting : bulkWaiting;
+
+        PermitLimiter own = (lane == Lane.INTERACTIVE) ? interactiveLimiter : bulkLimiter;
+
+        waiting.incrementAndGet();
+        try {
+            return own.tryAcquire(1, registerTimeoutInMs, TimeUnit.MILLISECONDS);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private boolean isInteractiveIdle(){
+        return System.nanoTime() - lastInteractiveNanos > INTERACTIVE_IDLE_NANOS;
+    }
+
+    /***
+     * Blocking Rate limiter on register. Will timeout based on the configured timeout.
+     * @param request
+     */
+    @Override
+    public void register(@NonNull Throttled request) {
+
+        //Allow admin request
+        if(request instanceof ThrottledAdminRequestHandler) {
+            request.onThrottleReady(false);
+            return;
+        }
+
+        Lane lane = laneOf(ThrottledStatements.getStatement(request));
+
+        long startNanos = System.nanoTime();
+
+        if(acquire(lane)){
+            metrics.recordAcquired(System.nanoTime() - startNanos);
+
+            request.onThrottleReady(false);
+        }else{
+            metrics.recordRejected();
+
+            fail(request, String.format("Timeout waiting for %s rate permits. Increase the max requests per second (current maxrequests/s: %d, bulk min share: %.2f, request timeout: %d ms)",
+                    lane.name().toLowerCase(Locale.ROOT), this.maxRequestsPerSecond, this.bulkMinShare, this.registerTimeoutInMs));
+        }
+    }
+
+    private static void fail(Throttled request, String message) {
+        request.onThrottleFailure(new RequestThrottlingException(message));
+    }
+
+    @Override
+    public void signalSuccess(@NonNull Throttled request) {
+        //nothing to do
+    }
+
+    @Override
+    public void signalError(@NonNull Throttled request, @NonNull Throwable error) {
+        LOG.warn(logPrefix + " signalError Throttled Request", error);
+    }
+
+    @Override
+    public void signalTimeout(@NonNull Throttled request) {
+        LOG.warn( "[{}] Timeout Throttled Request signalTimeout", logPrefix);
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    public long getMaxRequestsPerSecond(){
+        return this.maxRequestsPerSecond;
+    }
+
+    public double getBulkMinShare(){
+        return this.bulkMinShare;
+    }
+
+    public Mode getMode(){
+        return this.mode;
+    }
+
+    public int getWaiting(Lane lane){
+        return (lane == Lane.INTERACTIVE) ? interactiveWaiting.get() : bulkWaiting.get();
+    }
+}
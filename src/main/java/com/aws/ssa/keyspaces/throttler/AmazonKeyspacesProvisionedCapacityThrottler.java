@@ -0,0 +1,344 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.type.codec.TypeCodec;
+import com.datastax.oss.driver.api.core.type.codec.TypeCodecs;
+import com.datastax.oss.driver.internal.core.adminrequest.AdminRequestHandler;
+import com.datastax.oss.driver.internal.core.adminrequest.AdminResult;
+import com.datastax.oss.driver.internal.core.adminrequest.AdminRow;
+import com.datastax.oss.driver.internal.core.channel.DriverChannel;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A capacity unit throttler that sets its rates from the provisioned throughput of a table. Amazon Keyspaces exposes the
+ * capacity mode of each table in the custom_properties of system_schema_mcs.tables. The read and write capacity units are
+ * queried over the control connection when the session starts, and refreshed on the configured interval so that the rates follow
+ * changes made by auto-scaling without restarting the session.
+ *
+ * Until the capacity is first read, and for tables in on-demand (PAY_PER_REQUEST) mode, the configured max-write-units-per-second
+ * and max-read-units-per-second are used.
+ * @see AmazonKeyspacesCapacityUnitThrottler
+ *
+ * <p>To activate this throttler, modify the {@code advanced.throttler} section in the driver
+ * configuration, for example:
+ *
+ * <pre>
+ * datastax-java-driver {
+ *    advanced.throttler = {
+ *           class = com.aws.ssa.keyspaces.throttler.AmazonKeyspacesProvisionedCapacityThrottler
+ *           max-write-units-per-second = 1000
+ *           max-read-units-per-second = 3000
+ *           register-timeout = 3 seconds
+ *           provisioned {
+ *              keyspace = my_keyspace
+ *              table = my_table
+ *              refresh-interval = 1 minute
+ *           }
+ *     }
+ * }
+ * </pre>
+ *  provisioned.keyspace : keyspace of the table to read the provisioned capacity from
+ *  provisioned.table : table to read the provisioned capacity from
+ *  provisioned.refresh-interval : how often the provisioned capacity is read again
+ *
+ * Until the capacity is first loaded, for example while the control connection opens, it is read again after a backoff
+ * doubling from 1 second up to 1 minute. After 10 failed attempts, for example when the table does not exist, an error is
+ * logged and the throttler keeps the configured capacity.
+ */
+@ThreadSafe
+public class AmazonKeyspacesProvisionedCapacityThrottler extends AmazonKeyspacesCapacityUnitThrottler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmazonKeyspacesProvisionedCapacityThrottler.class);
+
+    public static final String CAPACITY_QUERY = "SELECT custom_properties FROM system_schema_mcs.tables WHERE keyspace_name = :keyspace_name AND table_name = :table_name";
+
+    public static final String CAPACITY_MODE = "capacity_mode";
+
+    public static final String THROUGHPUT_MODE = "throughput_mode";
+
+    public static final String PROVISIONED = "PROVISIONED";
+
+    public static final String READ_CAPACITY_UNITS = "read_capacity_units";
+
+    public static final String WRITE_CAPACITY_UNITS = "write_capacity_units";
+
+    /*** Delay before trying again when the control connection is not ready or the query failed ***/
+    public static final Duration RETRY_INTERVAL = Duration.ofSeconds(1);
+
+    /*** Longest delay between attempts to read the capacity before it is first loaded ***/
+    public static final Duration MAX_RETRY_INTERVAL = Duration.ofMinutes(1);
+
+    /*** Attempts to read the capacity before giving up and keeping the configured rates ***/
+    public static final int MAX_LOAD_ATTEMPTS = 10;
+
+    private static final TypeCodec<Map<String, Map<String, String>>> CUSTOM_PROPERTIES_CODEC =
+            TypeCodecs.mapOf(TypeCodecs.TEXT, TypeCodecs.mapOf(TypeCodecs.TEXT, TypeCodecs.TEXT));
+
+    private final String logPrefix;
+
+    private final InternalDriverContext context;
+
+    private final String keyspace;
+
+    private final String table;
+
+    private final long refreshIntervalInMs;
+
+    private final Duration queryTimeout;
+
+    private final int pageSize;
+
+    /***
+     * Driver admin executor used to refresh the capacity
+     */
+    private final EventExecutor scheduler;
+
+    private volatile ScheduledFuture<?> nextRefresh;
+
+    private volatile boolean loaded;
+
+    /***
+     * Attempts that failed to load the capacity, only updated by the refresh task
+     */
+    private volatile int failedAttempts;
+
+    private volatile boolean abandoned;
+
+    private volatile boolean closed;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public AmazonKeyspacesProvisionedCapacityThrottler(DriverContext context) {
+        super(context);
+
+        DriverExecutionProfile profile = context.getConfig().getDefaultProfile();
+
+        this.logPrefix = context.getSessionName();
+
+        this.context = (InternalDriverContext) context;
+
+        this.keyspace = profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PROVISIONED_KEYSPACE, null);
+
+        this.table = profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PROVISIONED_TABLE, null);
+
+        this.refreshIntervalInMs = profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PROVISIONED_REFRESH_INTERVAL,
+                KeyspacesThrottleOption.DEFAULT_PROVISIONED_REFRESH_INTERVAL).toMillis();
+
+        this.queryTimeout = profile.getDuration(DefaultDriverOption.METADATA_SCHEMA_REQUEST_TIMEOUT);
+
+        this.pageSize = profile.getInt(DefaultDriverOption.METADATA_SCHEMA_REQUEST_PAGE_SIZE);
+
+        if(this.keyspace == null || this.keyspace.isEmpty() || this.table == null || this.table.isEmpty()){
+            LOG.error(
+                    "[{}]  Throttler provisioned keyspace and table (advanced.throttler.provisioned.keyspace, advanced.throttler.provisioned.table) must be set, currently {}.{}",
+                    logPrefix,
+                    keyspace,
+                    table);
+
+            throw new IllegalArgumentException("Throttler provisioned keyspace and table (advanced.throttler.provisioned.keyspace, advanced.throttler.provisioned.table) must be set, currently " + keyspace + "." + table);
+        }
+
+        if(this.refreshIntervalInMs <= 0){
+            LOG.error(
+                    "[{}]  Throttler refresh interval (advanced.throttler.provisioned.refresh-interval) must be set greater than zero, currently {}",
+                    logPrefix,
+                    refreshIntervalInMs);
+
+            throw new IllegalArgumentException("Throttler refreshInterval (advanced.throttler.provisioned.refresh-interval) must be set greater than zero, currently " + refreshIntervalInMs);
+        }
+
+        LOG.info(
+                "[{}] Initializing provisioned capacity of {}.{} with refreshIntervalInMs = {}",
+                logPrefix,
+                keyspace,
+                table,
+                refreshIntervalInMs);
+
+        this.scheduler = this.context.getNettyOptions().adminEventExecutorGroup().next();
+
+        //The control connection is opened after the throttler is created, so the first read is retried until it is ready
+        this.nextRefresh = scheduler.schedule(this::refresh, RETRY_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Query the provisioned capacity over the control connection, then schedule the next refresh
+     */
+    private void refresh() {
+        if(closed){
+            return;
+        }
+        DriverChannel channel = context.getControlConnection().channel();
+
+        if(channel == null){
+            LOG.debug("[{}] Control connection not ready, provisioned capacity of {}.{} not read", logPrefix, keyspace, table);
+
+            scheduleRefresh();
+            return;
+        }
+
+        AdminRequestHandler.query(
+                        channel,
+                        CAPACITY_QUERY,
+                        ImmutableMap.of("keyspace_name", keyspace, "table_name", table),
+                        queryTimeout,
+                        pageSize,
+                        logPrefix)
+                .start()
+                .whenComplete((result, error) -> {
+                    if(error != null){
+                        LOG.warn("[{}] Failed to read provisioned capacity of {}.{}", logPrefix, keyspace, table, error);
+                    }else{
+                        applyResult(result);
+                    }
+                    scheduleRefresh();
+                });
+    }
+
+    /***
+     * Schedule the next refresh once the capacity is loaded, otherwise retry with an exponential backoff until
+     * MAX_LOAD_ATTEMPTS attempts have failed
+     */
+    private void scheduleRefresh() {
+        if(closed){
+            return;
+        }
+        if(loaded){
+            this.nextRefresh = scheduler.schedule(this::refresh, refreshIntervalInMs, TimeUnit.MILLISECONDS);
+        }else if(recordFailedAttempt()){
+            this.nextRefresh = scheduler.schedule(this::refresh, retryDelayMillis(failedAttempts), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /***
+     * Count an attempt that did not load the capacity
+     * @return true if the capacity should be read again, false once the throttler gave up
+     */
+    boolean recordFailedAttempt() {
+        int attempts = ++failedAttempts;
+
+        if(attempts >= MAX_LOAD_ATTEMPTS){
+            LOG.error("[{}] Could not read the provisioned capacity of {}.{} after {} attempts, keeping configured capacity", logPrefix, keyspace, table, attempts);
+
+            this.abandoned = true;
+
+            return false;
+        }
+        return true;
+    }
+
+    /***
+     * Delay before the next attempt, doubling from RETRY_INTERVAL up to MAX_RETRY_INTERVAL
+     * @param failedAttempts attempts that failed so far, at least 1
+     * @return delay in ms
+     */
+    static long retryDelayMillis(int failedAttempts) {
+        long delay = RETRY_INTERVAL.toMillis() << Math.min(failedAttempts - 1, 20);
+
+        return Math.min(delay, MAX_RETRY_INTERVAL.toMillis());
+    }
+
+    private void applyResult(AdminResult result) {
+        Iterator<AdminRow> rows = result.iterator();
+
+        if(!rows.hasNext()){
+            LOG.warn("[{}] Table {}.{} not found in system_schema_mcs.tables", logPrefix, keyspace, table);
+            return;
+        }
+        AdminRow row = rows.next();
+
+        Map<String, Map<String, String>> customProperties = row.isNull("custom_properties") ? null : row.get("custom_properties", CUSTOM_PROPERTIES_CODEC);
+
+        applyCapacityMode((customProperties == null) ? null : customProperties.get(CAPACITY_MODE));
+
+        this.loaded = true;
+    }
+
+    /***
+     * Set the limiter rates from the capacity_mode custom property of the table. On-demand tables keep the configured rates.
+     * @param capacityMode the capacity_mode map, with throughput_mode, read_capacity_units and write_capacity_units
+     * @return true if the rates were set from provisioned capacity
+     */
+    public boolean applyCapacityMode(@Nullable Map<String, String> capacityMode) {
+        if(capacityMode == null || !PROVISIONED.equalsIgnoreCase(capacityMode.get(THROUGHPUT_MODE))){
+            LOG.debug("[{}] Table {}.{} is not in provisioned mode, keeping configured capacity", logPrefix, keyspace, table);
+            return false;
+        }
+        long readUnits = parseUnits(capacityMode.get(READ_CAPACITY_UNITS));
+
+        long writeUnits = parseUnits(capacityMode.get(WRITE_CAPACITY_UNITS));
+
+        if(readUnits <= 0 || writeUnits <= 0){
+            LOG.warn("[{}] Invalid provisioned capacity for {}.{}: {}", logPrefix, keyspace, table, capacityMode);
+            return false;
+        }
+        if(readUnits != getMaxReadUnitsPerSecond() || writeUnits != getMaxWriteUnitsPerSecond()){
+            LOG.info(
+                    "[{}] Provisioned capacity of {}.{} changed to maxWriteUnitsPerSecond = {} and maxReadUnitsPerSecond = {}",
+                    logPrefix,
+                    keyspace,
+                    table,
+                    writeUnits,
+                    readUnits);
+
+            setMaxReadUnitsPerSecond(readUnits);
+
+            setMaxWriteUnitsPerSecond(writeUnits);
+        }
+        return true;
+    }
+
+    private static long parseUnits(@Nullable String units) {
+        if(units == null){
+            return 0;
+        }
+        try {
+            return Long.parseLong(units.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+
+        ScheduledFuture<?> refresh = this.nextRefresh;
+
+        if(refresh != null){
+            refresh.cancel(false);
+        }
+        super.close();
+    }
+
+    public String getKeyspace(){
+        return this.keyspace;
+    }
+
+    public String getTable(){
+        return this.table;
+    }
+
+    public boolean isLoaded(){
+        return this.loaded;
+    }
+
+    /***
+     * True when the capacity could not be read after MAX_LOAD_ATTEMPTS attempts and the configured rates are kept
+     */
+    public boolean isAbandoned(){
+        return this.abandoned;
+    }
+}
@@ -0,0 +1,186 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/***
+ * Coordinator for processes on the same host, for example pods sharing a volume or services on one instance. The leases of the
+ * group are kept in a small file, one line per member with its demand and the time of its last lease. Each lease takes an
+ * exclusive file lock, reads the file, drops expired members, writes it back and computes the share of the member.
+ *
+ * The file is set with advanced.throttler.coordinator.file, and defaults to amazon-keyspaces-&lt;group&gt;.lease in the temporary
+ * directory. Lease times use the wall clock, since they are compared between processes.
+ */
+@ThreadSafe
+public class FileRateCoordinator implements RateCoordinator {
+
+    /***
+     * File locks are held by the JVM, so sessions of the same JVM also take a lock per file
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> FILE_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+
+    private final LongSupplier clock;
+
+    private final long leaseTtlInMs;
+
+    private final double idleShare;
+
+    /*** Default constructor that takes in values from the configuration ***/
+    public FileRateCoordinator(DriverContext context) {
+        this(context.getConfig().getDefaultProfile());
+    }
+
+    private FileRateCoordinator(DriverExecutionProfile profile) {
+        this(Paths.get(profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_FILE,
+                        defaultFile(profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_GROUP, KeyspacesThrottleOption.DEFAULT_COORDINATOR_GROUP)))),
+                profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_LEASE_TTL, KeyspacesThrottleOption.DEFAULT_COORDINATOR_LEASE_TTL).toMillis(),
+                profile.getDouble(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_IDLE_SHARE, KeyspacesThrottleOption.DEFAULT_COORDINATOR_IDLE_SHARE));
+    }
+
+    public FileRateCoordinator(Path file, long leaseTtlInMs, double idleShare) {
+        this(file, System::currentTimeMillis, leaseTtlInMs, idleShare);
+    }
+
+    FileRateCoordinator(Path file, LongSupplier clock, long leaseTtlInMs, double idleShare) {
+        if(leaseTtlInMs <= 0){
+            throw new IllegalArgumentException("Coordinator lease ttl (advanced.throttler.coordinator.lease-ttl) must be set greater than zero, currently " + leaseTtlInMs);
+        }
+        if(idleShare < 0.0 || idleShare > 1.0){
+            throw new IllegalArgumentException("Coordinator idle share (advanced.throttler.coordinator.idle-share) must be between 0 and 1, currently " + idleShare);
+        }
+        this.file = file.toAbsolutePath().normalize();
+        this.clock = clock;
+        this.leaseTtlInMs = leaseTtlInMs;
+        this.idleShare = idleShare;
+    }
+
+    private static String defaultFile(String group) {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "amazon-keyspaces-" + group + ".lease").toString();
+    }
+
+    @Override
+    public double lease(String memberId, double demand, double totalRate) {
+        Map<String, Double> demands = update(memberId, demand);
+
+        return RateAllocator.allocate(totalRate, demands, idleShare).get(memberId);
+    }
+
+    @Override
+    public void leave(String memberId) {
+        update(memberId, Double.NaN);
+    }
+
+    /***
+     * Renew or remove the lease of a member under the file lock
+     * @param memberId unique id of the member
+     * @param demand demand of the member, NaN to remove the member
+     * @return demand of each member with a live lease
+     */
+    private Map<String, Double> update(String memberId, double demand) {
+        ReentrantLock lock = FILE_LOCKS.computeIfAbsent(file, path -> new ReentrantLock());
+
+        lock.lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+
+            long now = clock.getAsLong();
+
+            Map<String, Lease> leases = read(channel);
+
+            leases.values().removeIf(lease -> now - lease.renewedMillis > leaseTtlInMs);
+
+            if(Double.isNaN(demand)){
+                leases.remove(memberId);
+            }else{
+                leases.put(memberId, new Lease(demand, now));
+            }
+            write(channel, leases);
+
+            Map<String, Double> demands = new HashMap<>();
+
+            leases.forEach((member, lease) -> demands.put(member, lease.demand));
+
+            return demands;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update rate coordinator file " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Read the leases, one member per line with its id, demand and lease time in ms separated by tabs. Malformed lines are skipped
+     */
+    private static Map<String, Lease> read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+        while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0){
+            //read until the buffer is full
+        }
+        buffer.flip();
+
+        Map<String, Lease> leases = new LinkedHashMap<>();
+
+        for(String line : StandardCharsets.UTF_8.decode(buffer).toString().split("\n")){
+            String[] fields = line.split("\t");
+
+            if(fields.length == 3){
+                try {
+                    leases.put(fields[0], new Lease(Double.parseDouble(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    //skip the line
+                }
+            }
+        }
+        return leases;
+    }
+
+    private static void write(FileChannel channel, Map<String, Lease> leases) throws IOException {
+        StringBuilder content = new StringBuilder();
+
+        leases.forEach((member, lease) -> content.append(member).append('\t').append(lease.demand).append('\t').append(lease.renewedMillis).append('\n'));
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(content.toString());
+
+        channel.truncate(0);
+
+        while(buffer.hasRemaining()){
+            channel.write(buffer, buffer.position());
+        }
+        channel.force(false);
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    private static final class Lease {
+        private final double demand;
+        private final long renewedMillis;
+
+        private Lease(double demand, long renewedMillis) {
+            this.demand = demand;
+            this.renewedMillis = renewedMillis;
+        }
+    }
+}
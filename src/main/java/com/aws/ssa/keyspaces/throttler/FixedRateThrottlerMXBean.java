@@ -0,0 +1,63 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import java.util.Map;
+
+/***
+ * JMX control surface of the AmazonKeyspacesFixedRateThrottler. Registered when advanced.throttler.jmx-enabled is true under
+ * com.aws.ssa.keyspaces:type=FixedRateThrottler,session=&lt;session name&gt;
+ * @see AmazonKeyspacesFixedRateThrottler
+ */
+public interface FixedRateThrottlerMXBean {
+
+    long getMaxRequestsPerSecond();
+
+    /***
+     * Change the rate of the throttler without restarting the session. Stored permits are kept. The
+     * AmazonKeyspacesCoordinatedRateThrottler changes the rate of its group instead, since its own rate is set by its lease
+     * @param maxRequestsPerSecond new rate, must be greater than zero
+     */
+    void setMaxRequestsPerSecond(long maxRequestsPerSecond);
+
+    long getRegisterTimeoutInMs();
+
+    /***
+     * Change the time requests wait for permits
+     * @param registerTimeoutInMs new timeout, must be greater than zero and not more than the request timeout
+     */
+    void setRegisterTimeoutInMs(long registerTimeoutInMs);
+
+    int getBurstSeconds();
+
+    double getStoredPermits();
+
+    double getMaxConnectionsRequestsPerSecond();
+
+    int getQueueSize();
+
+    int getInFlightRequests();
+
+    long getAcquiredCount();
+
+    long getRejectedCount();
+
+    double getAverageWaitMillis();
+
+    double getMaxWaitMillis();
+
+    double getWaitP50Millis();
+
+    double getWaitP99Millis();
+
+    double getWaitP999Millis();
+
+    boolean isShadow();
+
+    /***
+     * Stats of shadow mode by execution profile, how many requests would have been delayed and for how long, and how many
+     * would have been rejected
+     * @return stats by profile name
+     */
+    Map<String, ThrottlerStats> getProfileStats();
+
+    void resetStats();
+}
@@ -0,0 +1,115 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ProjectedRateLimiter;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.RateLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Permit limiter backed by a Guava SmoothBursty Ratelimiter. Each acquire synchronizes on the limiter mutex.
+ *
+ * The Ratelimiter cannot give permits back, so refunded permits are kept as credits, taken without waiting by the next
+ * reservations before the Ratelimiter is asked.
+ */
+public class GuavaPermitLimiter implements PermitLimiter {
+
+    private final ProjectedRateLimiter projectedRateLimiter;
+
+    private final RateLimiter rateLimiter;
+
+    /***
+     * Permits refunded and not yet taken again
+     */
+    private final AtomicLong credits = new AtomicLong();
+
+    public GuavaPermitLimiter(double permitsPerSecond, double maxBurstSeconds) {
+        this.projectedRateLimiter = new ProjectedRateLimiter(permitsPerSecond, maxBurstSeconds);
+        this.rateLimiter = projectedRateLimiter.getRateLimiter();
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        return takeCredits(permits) || rateLimiter.tryAcquire(permits, timeout, unit);
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return takeCredits(1) || rateLimiter.tryAcquire();
+    }
+
+    /***
+     * Wait for the next free ticket, plus the stable interval for each additional permit. Stored permits are not counted
+     * beyond the first, so the projection errs on the longer side
+     */
+    @Override
+    public long getProjectedWaitNanos(int permits) {
+        if(credits.get() >= permits){
+            return 0;
+        }
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rateLimiter.getRate());
+
+        return projectedRateLimiter.projectedWaitNanos() + Math.max(0, permits - 1) * intervalNanos;
+    }
+
+    @Override
+    public long reserve(int permits) {
+        return takeCredits(permits) ? 0 : projectedRateLimiter.reserveNanos(permits);
+    }
+
+    /***
+     * Check for the next free permit, then reserve. Requests racing between the check and the reservation can push the wait
+     * past the timeout, in which case the permits are refunded
+     */
+    @Override
+    public long tryReserve(int permits, long timeoutNanos) {
+        if(takeCredits(permits)){
+            return 0;
+        }
+        if(projectedRateLimiter.projectedWaitNanos() > timeoutNanos){
+            return -1;
+        }
+        long waitNanos = projectedRateLimiter.reserveNanos(permits);
+
+        if(waitNanos > timeoutNanos){
+            refund(permits);
+            return -1;
+        }
+        return waitNanos;
+    }
+
+    @Override
+    public void refund(int permits) {
+        if(permits > 0){
+            credits.addAndGet(permits);
+        }
+    }
+
+    private boolean takeCredits(int permits) {
+        while(true){
+            long current = credits.get();
+
+            if(current < permits){
+                return false;
+            }
+            if(credits.compareAndSet(current, current - permits)){
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public double getStoredPermits() {
+        return projectedRateLimiter.storedPermits() + credits.get();
+    }
+
+    @Override
+    public void setRate(double permitsPerSecond) {
+        rateLimiter.setRate(permitsPerSecond);
+    }
+
+    @Override
+    public double getRate() {
+        return rateLimiter.getRate();
+    }
+}
@@ -0,0 +1,133 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DriverExecutionProfile;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/***
+ * Coordinator for sessions in the same JVM. Coordinators created from the driver configuration share the members of their
+ * group, set with advanced.throttler.coordinator.group. Mostly useful as a stand-in for the file coordinator in tests.
+ */
+@ThreadSafe
+public class InMemoryRateCoordinator implements RateCoordinator {
+
+    private static final ConcurrentMap<String, InMemoryRateCoordinator> GROUPS = new ConcurrentHashMap<>();
+
+    /***
+     * Coordinator holding the leases of the group, this coordinator unless it was created from the configuration
+     */
+    private final InMemoryRateCoordinator group;
+
+    private final LongSupplier ticker;
+
+    private final long leaseTtlNanos;
+
+    private final double idleShare;
+
+    /***
+     * Demand and time of the last lease of each member
+     */
+    @GuardedBy("this")
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    /*** Coordinator shared by the sessions of the configured group ***/
+    public InMemoryRateCoordinator(DriverContext context) {
+        this(shared(context.getConfig().getDefaultProfile()));
+    }
+
+    public InMemoryRateCoordinator(long leaseTtlInMs, double idleShare) {
+        this(System::nanoTime, leaseTtlInMs, idleShare);
+    }
+
+    InMemoryRateCoordinator(LongSupplier ticker, long leaseTtlInMs, double idleShare) {
+        if(leaseTtlInMs <= 0){
+            throw new IllegalArgumentException("Coordinator lease ttl (advanced.throttler.coordinator.lease-ttl) must be set greater than zero, currently " + leaseTtlInMs);
+        }
+        if(idleShare < 0.0 || idleShare > 1.0){
+            throw new IllegalArgumentException("Coordinator idle share (advanced.throttler.coordinator.idle-share) must be between 0 and 1, currently " + idleShare);
+        }
+        this.group = this;
+        this.ticker = ticker;
+        this.leaseTtlNanos = TimeUnit.MILLISECONDS.toNanos(leaseTtlInMs);
+        this.idleShare = idleShare;
+    }
+
+    private InMemoryRateCoordinator(InMemoryRateCoordinator group) {
+        this.group = group;
+        this.ticker = group.ticker;
+        this.leaseTtlNanos = group.leaseTtlNanos;
+        this.idleShare = group.idleShare;
+    }
+
+    private static InMemoryRateCoordinator shared(DriverExecutionProfile profile) {
+        String group = profile.getString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_GROUP, KeyspacesThrottleOption.DEFAULT_COORDINATOR_GROUP);
+
+        return GROUPS.computeIfAbsent(group, name -> new InMemoryRateCoordinator(
+                profile.getDuration(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_LEASE_TTL, KeyspacesThrottleOption.DEFAULT_COORDINATOR_LEASE_TTL).toMillis(),
+                profile.getDouble(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_IDLE_SHARE, KeyspacesThrottleOption.DEFAULT_COORDINATOR_IDLE_SHARE)));
+    }
+
+    @Override
+    public double lease(String memberId, double demand, double totalRate) {
+        return group.leaseInGroup(memberId, demand, totalRate);
+    }
+
+    @Override
+    public void leave(String memberId) {
+        group.leaveGroup(memberId);
+    }
+
+    private synchronized double leaseInGroup(String memberId, double demand, double totalRate) {
+        long now = ticker.getAsLong();
+
+        leases.put(memberId, new Lease(demand, now));
+
+        Map<String, Double> demands = new HashMap<>();
+
+        for(Iterator<Map.Entry<String, Lease>> it = leases.entrySet().iterator(); it.hasNext(); ){
+            Map.Entry<String, Lease> lease = it.next();
+
+            if(now - lease.getValue().renewedNanos > leaseTtlNanos){
+                it.remove();
+            }else{
+                demands.put(lease.getKey(), lease.getValue().demand);
+            }
+        }
+        return RateAllocator.allocate(totalRate, demands, idleShare).get(memberId);
+    }
+
+    private synchronized void leaveGroup(String memberId) {
+        leases.remove(memberId);
+    }
+
+    /***
+     * Number of members holding a lease, including members whose lease expired since the last renewal of the group
+     * @return number of members
+     */
+    public int getMembers() {
+        return group.countMembers();
+    }
+
+    private synchronized int countMembers() {
+        return leases.size();
+    }
+
+    private static final class Lease {
+        private final double demand;
+        private final long renewedNanos;
+
+        private Lease(double demand, long renewedNanos) {
+            this.demand = demand;
+            this.renewedNanos = renewedNanos;
+        }
+    }
+}
@@ -2,13 +2,103 @@ package com.aws.ssa.keyspaces.throttler;
 
 import com.datastax.oss.driver.api.core.config.DriverOption;
 
+import java.time.Duration;
+
 public enum KeyspacesThrottleOption implements DriverOption {
 
     KEYSPACES_THROTTLE_NUMBER_OF_HOSTS("advanced.throttler.number-of-hosts"),
-    KEYSPACES_THROTTLE_TIMEOUT("advanced.throttler.register-timeout");;
+    KEYSPACES_THROTTLE_TIMEOUT("advanced.throttler.register-timeout"),
+    KEYSPACES_THROTTLE_NON_BLOCKING("advanced.throttler.non-blocking"),
+    KEYSPACES_THROTTLE_LIMITER_ENGINE("advanced.throttler.limiter-engine"),
+    KEYSPACES_THROTTLE_LIMIT_CONCURRENCY("advanced.throttler.limit-concurrency"),
+    KEYSPACES_THROTTLE_DEADLINE_AWARE("advanced.throttler.deadline-aware"),
+    KEYSPACES_THROTTLE_BATCH_CHILD_PERMITS("advanced.throttler.batch-child-permits"),
+    KEYSPACES_THROTTLE_WEIGHT_PAYLOAD_KEY("advanced.throttler.weight-payload-key"),
+    KEYSPACES_THROTTLE_JMX_ENABLED("advanced.throttler.jmx-enabled"),
+    KEYSPACES_THROTTLE_FAIR("advanced.throttler.fair"),
+    KEYSPACES_THROTTLE_SHADOW("advanced.throttler.shadow"),
+    KEYSPACES_THROTTLE_COORDINATOR_CLASS("advanced.throttler.coordinator.class"),
+    KEYSPACES_THROTTLE_COORDINATOR_GROUP("advanced.throttler.coordinator.group"),
+    KEYSPACES_THROTTLE_COORDINATOR_MEMBER_ID("advanced.throttler.coordinator.member-id"),
+    KEYSPACES_THROTTLE_COORDINATOR_LEASE_INTERVAL("advanced.throttler.coordinator.lease-interval"),
+    KEYSPACES_THROTTLE_COORDINATOR_LEASE_TTL("advanced.throttler.coordinator.lease-ttl"),
+    KEYSPACES_THROTTLE_COORDINATOR_IDLE_SHARE("advanced.throttler.coordinator.idle-share"),
+    KEYSPACES_THROTTLE_COORDINATOR_FILE("advanced.throttler.coordinator.file"),
+    KEYSPACES_THROTTLE_MAX_WRITE_UNITS_PER_SECOND("advanced.throttler.max-write-units-per-second"),
+    KEYSPACES_THROTTLE_MAX_READ_UNITS_PER_SECOND("advanced.throttler.max-read-units-per-second"),
+    KEYSPACES_THROTTLE_EXPECTED_READ_SIZE("advanced.throttler.expected-read-size"),
+    KEYSPACES_THROTTLE_ADAPTIVE_MIN_REQUESTS_PER_SECOND("advanced.throttler.adaptive.min-requests-per-second"),
+    KEYSPACES_THROTTLE_ADAPTIVE_ADDITIVE_INCREASE("advanced.throttler.adaptive.additive-increase"),
+    KEYSPACES_THROTTLE_ADAPTIVE_MULTIPLICATIVE_DECREASE("advanced.throttler.adaptive.multiplicative-decrease"),
+    KEYSPACES_THROTTLE_ADAPTIVE_SUCCESS_THRESHOLD("advanced.throttler.adaptive.success-threshold"),
+    KEYSPACES_THROTTLE_ADAPTIVE_DECREASE_COOLDOWN("advanced.throttler.adaptive.decrease-cooldown"),
+    KEYSPACES_THROTTLE_TABLES("advanced.throttler.tables"),
+    KEYSPACES_THROTTLE_PROVISIONED_KEYSPACE("advanced.throttler.provisioned.keyspace"),
+    KEYSPACES_THROTTLE_PROVISIONED_TABLE("advanced.throttler.provisioned.table"),
+    KEYSPACES_THROTTLE_PROVISIONED_REFRESH_INTERVAL("advanced.throttler.provisioned.refresh-interval"),
+    KEYSPACES_THROTTLE_PRIORITY_MODE("advanced.throttler.priority.mode"),
+    KEYSPACES_THROTTLE_PRIORITY_BULK_MIN_SHARE("advanced.throttler.priority.bulk-min-share"),
+    KEYSPACES_THROTTLE_PRIORITY_BULK_PROFILES("advanced.throttler.priority.bulk-profiles"),
+    KEYSPACES_THROTTLE_PRIORITY_PAYLOAD_KEY("advanced.throttler.priority.payload-key");
 
     public static final int DEFAULT_NUMBER_OF_HOSTS = 1;
 
+    public static final boolean DEFAULT_NON_BLOCKING = false;
+
+    public static final String DEFAULT_LIMITER_ENGINE = "guava";
+
+    public static final boolean DEFAULT_LIMIT_CONCURRENCY = false;
+
+    public static final boolean DEFAULT_DEADLINE_AWARE = false;
+
+    public static final boolean DEFAULT_BATCH_CHILD_PERMITS = true;
+
+    public static final String DEFAULT_WEIGHT_PAYLOAD_KEY = "keyspaces-weight";
+
+    public static final boolean DEFAULT_JMX_ENABLED = false;
+
+    public static final boolean DEFAULT_FAIR = false;
+
+    public static final boolean DEFAULT_SHADOW = false;
+
+    public static final String DEFAULT_COORDINATOR_CLASS = "FileRateCoordinator";
+
+    public static final String DEFAULT_COORDINATOR_GROUP = "default";
+
+    public static final Duration DEFAULT_COORDINATOR_LEASE_INTERVAL = Duration.ofSeconds(5);
+
+    public static final Duration DEFAULT_COORDINATOR_LEASE_TTL = Duration.ofSeconds(15);
+
+    public static final double DEFAULT_COORDINATOR_IDLE_SHARE = 0.1;
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+
+    public static final Duration DEFAULT_DRAIN_INTERVAL = Duration.ofMillis(10);
+
+    public static final long DEFAULT_MAX_WRITE_UNITS_PER_SECOND = 1000;
+
+    public static final long DEFAULT_MAX_READ_UNITS_PER_SECOND = 1000;
+
+    public static final long DEFAULT_EXPECTED_READ_SIZE = 4096;
+
+    public static final long DEFAULT_ADAPTIVE_MIN_REQUESTS_PER_SECOND = 10;
+
+    public static final long DEFAULT_ADAPTIVE_ADDITIVE_INCREASE = 10;
+
+    public static final double DEFAULT_ADAPTIVE_MULTIPLICATIVE_DECREASE = 0.7;
+
+    public static final int DEFAULT_ADAPTIVE_SUCCESS_THRESHOLD = 100;
+
+    public static final Duration DEFAULT_ADAPTIVE_DECREASE_COOLDOWN = Duration.ofSeconds(1);
+
+    public static final Duration DEFAULT_PROVISIONED_REFRESH_INTERVAL = Duration.ofMinutes(1);
+
+    public static final String DEFAULT_PRIORITY_MODE = "strict";
+
+    public static final double DEFAULT_PRIORITY_BULK_MIN_SHARE = 0.1;
+
+    public static final String DEFAULT_PRIORITY_PAYLOAD_KEY = "keyspaces-priority";
+
     private final String path;
 
     KeyspacesThrottleOption(String path) {
@@ -0,0 +1,159 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that acquires permits with a single compare-and-set instead of a lock. It follows the semantics of the
+ * Guava SmoothBursty Ratelimiter: permits are generated at a fixed rate, unused permits are stored for up to maxBurstSeconds,
+ * and a request that is granted may take more permits than are stored, in which case the following requests pay for it.
+ *
+ * The whole state is the time at which the next permit is free (the theoretical arrival time of the generic cell rate
+ * algorithm). Stored permits are represented by that time being in the past, up to the burst window. A request computes how long
+ * it must wait, gives up if that is longer than its timeout, and otherwise moves the time forward by the cost of its permits
+ * and sleeps outside of any lock.
+ */
+@ThreadSafe
+public class LockFreeRateLimiter implements PermitLimiter {
+
+    private final LongSupplier ticker;
+
+    /***
+     * Window over which unused permits are stored
+     */
+    private final long maxBurstNanos;
+
+    /***
+     * Time at which the next permit is free
+     */
+    private final AtomicLong nextFreeNanos;
+
+    /***
+     * Nanoseconds between permits
+     */
+    private volatile double stableIntervalNanos;
+
+    public LockFreeRateLimiter(double permitsPerSecond, double maxBurstSeconds) {
+        this(System::nanoTime, permitsPerSecond, maxBurstSeconds);
+    }
+
+    LockFreeRateLimiter(LongSupplier ticker, double permitsPerSecond, double maxBurstSeconds) {
+        if(maxBurstSeconds < 0){
+            throw new IllegalArgumentException("maxBurstSeconds must be greater or equal to zero, currently " + maxBurstSeconds);
+        }
+        this.ticker = ticker;
+
+        this.maxBurstNanos = (long) (maxBurstSeconds * TimeUnit.SECONDS.toNanos(1));
+
+        //Start without stored permits, the same as SmoothBursty
+        this.nextFreeNanos = new AtomicLong(ticker.getAsLong());
+
+        setRate(permitsPerSecond);
+    }
+
+    @Override
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        long waitNanos = tryReserve(permits, Math.max(unit.toNanos(timeout), 0));
+
+        if(waitNanos < 0){
+            return false;
+        }
+        if(waitNanos > 0){
+            Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public long tryReserve(int permits, long timeoutNanos) {
+        if(permits <= 0){
+            throw new IllegalArgumentException("Requested permits must be greater than zero, currently " + permits);
+        }
+        while(true){
+            long now = ticker.getAsLong();
+
+            long next = nextFreeNanos.get();
+
+            //Permits older than the burst window are no longer stored
+            long start = Math.max(next, now - maxBurstNanos);
+
+            long waitNanos = start - now;
+
+            if(waitNanos > timeoutNanos){
+                return -1;
+            }
+            if(nextFreeNanos.compareAndSet(next, start + (long) (permits * stableIntervalNanos))){
+                return Math.max(0, waitNanos);
+            }
+        }
+    }
+
+    /***
+     * Move the time of the next free permit back by the cost of the permits. Stored permits are still capped by the burst
+     * window when they are next read
+     */
+    @Override
+    public void refund(int permits) {
+        if(permits > 0){
+            nextFreeNanos.addAndGet(-(long) (permits * stableIntervalNanos));
+        }
+    }
+
+    @Override
+    public long reserve(int permits) {
+        if(permits <= 0){
+            throw new IllegalArgumentException("Requested permits must be greater than zero, currently " + permits);
+        }
+        while(true){
+            long now = ticker.getAsLong();
+
+            long next = nextFreeNanos.get();
+
+            long start = Math.max(next, now - maxBurstNanos);
+
+            if(nextFreeNanos.compareAndSet(next, start + (long) (permits * stableIntervalNanos))){
+                return Math.max(0, start - now);
+            }
+        }
+    }
+
+    @Override
+    public long getProjectedWaitNanos(int permits) {
+        long now = ticker.getAsLong();
+
+        long start = Math.max(nextFreeNanos.get(), now - maxBurstNanos);
+
+        //Permits beyond the first are paid for by the following request
+        return Math.max(0, start + (long) (Math.max(0, permits - 1) * stableIntervalNanos) - now);
+    }
+
+    @Override
+    public double getStoredPermits() {
+        long now = ticker.getAsLong();
+
+        long start = Math.max(nextFreeNanos.get(), now - maxBurstNanos);
+
+        return Math.max(0, now - start) / stableIntervalNanos;
+    }
+
+    /***
+     * Changing the rate keeps the stored window of time, so the stored permits scale with the new rate
+     * @param permitsPerSecond new rate
+     */
+    @Override
+    public void setRate(double permitsPerSecond) {
+        if(!(permitsPerSecond > 0.0) || Double.isNaN(permitsPerSecond)){
+            throw new IllegalArgumentException("permitsPerSecond must be greater than zero, currently " + permitsPerSecond);
+        }
+        this.stableIntervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    }
+
+    @Override
+    public double getRate() {
+        return TimeUnit.SECONDS.toNanos(1) / stableIntervalNanos;
+    }
+}
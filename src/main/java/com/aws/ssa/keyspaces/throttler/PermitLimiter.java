@@ -0,0 +1,67 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Meters permits per second for the throttlers. Implementations are selected with advanced.throttler.limiter-engine
+ * @see RateLimiterEngine
+ */
+public interface PermitLimiter {
+
+    /***
+     * Acquire permits if they can be obtained within the timeout, waiting until they are available
+     * @param permits number of permits
+     * @param timeout maximum time to wait for the permits
+     * @param unit unit of the timeout
+     * @return true if the permits were acquired
+     */
+    boolean tryAcquire(int permits, long timeout, TimeUnit unit);
+
+    /***
+     * Acquire a permit only if it is available without waiting
+     * @return true if the permit was acquired
+     */
+    default boolean tryAcquire() {
+        return tryAcquire(1, 0, TimeUnit.MICROSECONDS);
+    }
+
+    /***
+     * Projected wait before the given number of permits could be acquired, from the time the next permit is free.
+     * Does not reserve permits
+     * @param permits number of permits, for example the position of a request in a queue
+     * @return wait in nanoseconds, 0 if the permits are available now
+     */
+    long getProjectedWaitNanos(int permits);
+
+    /***
+     * Reserve permits without waiting for them. The caller must wait for the returned time before using the permits
+     * @param permits number of permits
+     * @return wait in nanoseconds, 0 if the permits can be used now
+     */
+    long reserve(int permits);
+
+    /***
+     * Reserve permits without waiting for them, only if the next free permit is within the timeout. The caller must wait for
+     * the returned time before using the permits
+     * @param permits number of permits
+     * @param timeoutNanos time the caller may wait for the next free permit
+     * @return wait in nanoseconds, 0 if the permits can be used now, or -1 if nothing was reserved
+     */
+    long tryReserve(int permits, long timeoutNanos);
+
+    /***
+     * Give back permits reserved by a request that will not use them, for example when a second limiter refused the request
+     * @param permits number of permits reserved
+     */
+    void refund(int permits);
+
+    /***
+     * Permits stored from unused capacity that can be acquired without waiting, up to the burst window
+     * @return number of stored permits, an estimate under contention
+     */
+    double getStoredPermits();
+
+    void setRate(double permitsPerSecond);
+
+    double getRate();
+}
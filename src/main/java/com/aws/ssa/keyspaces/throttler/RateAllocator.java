@@ -0,0 +1,60 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * Max-min fair allocation of a total rate between members by demand. Members asking for less than an equal share get what they
+ * ask for, and the rest is split between the members asking for more. Every member is granted at least the idle share of an
+ * equal share, so that an idle member can start sending requests before its next lease. Rate left once every demand is met
+ * is split evenly, so that the whole total rate is always granted.
+ */
+public final class RateAllocator {
+
+    private RateAllocator() {
+    }
+
+    /***
+     * Allocate the total rate between members
+     * @param totalRate rate shared by the group in requests per second
+     * @param demands rate each member would use, by member id
+     * @param idleShare fraction of an equal share granted to members with less demand, between 0 and 1
+     * @return rate granted to each member, by member id
+     */
+    public static Map<String, Double> allocate(double totalRate, Map<String, Double> demands, double idleShare) {
+        Map<String, Double> grants = new HashMap<>();
+
+        int members = demands.size();
+
+        if(members == 0){
+            return grants;
+        }
+        double floor = totalRate / members * idleShare;
+
+        List<Map.Entry<String, Double>> byDemand = new ArrayList<>(demands.entrySet());
+
+        byDemand.sort(Map.Entry.comparingByValue());
+
+        double remaining = totalRate;
+
+        int left = members;
+
+        //Smallest demands first, so that each member can take at most an equal share of what the previous members left
+        for(Map.Entry<String, Double> member : byDemand){
+            double grant = Math.min(Math.max(member.getValue(), floor), remaining / left);
+
+            grants.put(member.getKey(), grant);
+
+            remaining -= grant;
+            left--;
+        }
+        if(remaining > 0){
+            double extra = remaining / members;
+
+            grants.replaceAll((member, grant) -> grant + extra);
+        }
+        return grants;
+    }
+}
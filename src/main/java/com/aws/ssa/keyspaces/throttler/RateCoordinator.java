@@ -0,0 +1,33 @@
+package com.aws.ssa.keyspaces.throttler;
+
+/***
+ * Shares a total rate between the members of a group, for example the sessions of every pod writing to the same table.
+ * Each member renews its lease on an interval, reporting the rate it would use, and is granted its share of the total rate.
+ * Members that stop renewing are dropped after the lease ttl, and their share goes to the remaining members.
+ *
+ * Implementations are selected with advanced.throttler.coordinator.class and must provide a public constructor taking the
+ * DriverContext.
+ * @see AmazonKeyspacesCoordinatedRateThrottler
+ * @see RateAllocator
+ */
+public interface RateCoordinator extends AutoCloseable {
+
+    /***
+     * Join the group or renew the lease of the member, and read its share of the total rate
+     * @param memberId unique id of the member in the group
+     * @param demand rate in requests per second the member would use, the total rate when it is limited by its share
+     * @param totalRate rate shared by the group in requests per second
+     * @return rate granted to the member in requests per second
+     */
+    double lease(String memberId, double demand, double totalRate);
+
+    /***
+     * Leave the group, so that the share of the member is given to the other members without waiting for the lease ttl
+     * @param memberId unique id of the member in the group
+     */
+    void leave(String memberId);
+
+    @Override
+    default void close() {
+    }
+}
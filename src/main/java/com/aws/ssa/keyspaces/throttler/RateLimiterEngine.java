@@ -0,0 +1,40 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import java.util.Locale;
+
+/***
+ * Implementation used to meter permits, configured with advanced.throttler.limiter-engine
+ */
+public enum RateLimiterEngine {
+
+    /*** Guava SmoothBursty Ratelimiter, synchronized on each acquire ***/
+    GUAVA {
+        @Override
+        public PermitLimiter create(double permitsPerSecond, double maxBurstSeconds) {
+            return new GuavaPermitLimiter(permitsPerSecond, maxBurstSeconds);
+        }
+    },
+
+    /*** Compare-and-set token bucket without a lock on the register path ***/
+    LOCK_FREE {
+        @Override
+        public PermitLimiter create(double permitsPerSecond, double maxBurstSeconds) {
+            return new LockFreeRateLimiter(permitsPerSecond, maxBurstSeconds);
+        }
+    };
+
+    public abstract PermitLimiter create(double permitsPerSecond, double maxBurstSeconds);
+
+    /***
+     * Parse the configured engine, for example guava or lock-free
+     * @param name configured name
+     * @return the engine
+     */
+    public static RateLimiterEngine fromConfig(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Throttler limiter engine (advanced.throttler.limiter-engine) must be guava or lock-free, currently " + name);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import com.datastax.oss.driver.internal.core.cql.CqlRequestHandler;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/***
+ * Helper used by the throttlers to look at the statement behind a {@link Throttled} request. The driver passes the request
+ * handler to the throttler, and the handler does not expose the statement it is executing. The field is resolved once
+ * and read through a {@link MethodHandle}, so the lookup on the register path is cheap. If the driver internals change
+ * the helper returns null and throttlers fall back to charging a single permit.
+ */
+public final class ThrottledStatements {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThrottledStatements.class);
+
+    private static final MethodHandle INITIAL_STATEMENT = findGetter(CqlRequestHandler.class, "initialStatement");
+
+    private static final MethodHandle SESSION_KEYSPACE = findGetter(CqlRequestHandler.class, "keyspace");
+
+    private static final MethodHandle START_TIME_NANOS = findGetter(CqlRequestHandler.class, "startTimeNanos");
+
+    /*** Matches the optionally qualified table name following FROM, INTO or UPDATE in a CQL query ***/
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+            "\\b(?:FROM|INTO|UPDATE)\\s+(\"[^\"]+\"|\\w+)(?:\\s*\\.\\s*(\"[^\"]+\"|\\w+))?",
+            Pattern.CASE_INSENSITIVE);
+
+    private ThrottledStatements() {
+    }
+
+    /***
+     * Statement executed by the throttled request
+     * @param request the request passed to the throttler
+     * @return the statement, or null if the request is not a CQL request or the statement cannot be resolved
+     */
+    @Nullable
+    public static Statement<?> getStatement(Throttled request) {
+        if (INITIAL_STATEMENT == null || !(request instanceof CqlRequestHandler)) {
+            return null;
+        }
+        try {
+            return (Statement<?>) INITIAL_STATEMENT.invoke((CqlRequestHandler) request);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /***
+     * Time the request was created, as read from {@link System#nanoTime()}
+     * @param request the request passed to the throttler
+     * @return the start time, or null if the request is not a CQL request or the time cannot be resolved
+     */
+    @Nullable
+    public static Long getStartTimeNanos(Throttled request) {
+        if (START_TIME_NANOS == null || !(request instanceof CqlRequestHandler)) {
+            return null;
+        }
+        try {
+            return (long) START_TIME_NANOS.invoke((CqlRequestHandler) request);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /***
+     * Keyspace the session is connected to, used when the statement does not specify a keyspace
+     * @param request the request passed to the throttler
+     * @return the session keyspace, or null if not set
+     */
+    @Nullable
+    public static CqlIdentifier getSessionKeyspace(Throttled request) {
+        if (SESSION_KEYSPACE == null || !(request instanceof CqlRequestHandler)) {
+            return null;
+        }
+        try {
+            return (CqlIdentifier) SESSION_KEYSPACE.invoke((CqlRequestHandler) request);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /***
+     * Keyspace targeted by the statement. Prepared statements use the metadata returned when preparing, other statements
+     * use the keyspace set on the statement, the routing keyspace, or the keyspace qualifying the table in the query.
+     * Batches use the first statement.
+     * @param statement the statement
+     * @param sessionKeyspace keyspace used when the statement does not specify one
+     * @return the keyspace, or null if it cannot be resolved
+     */
+    @Nullable
+    public static CqlIdentifier getKeyspace(Statement<?> statement, @Nullable CqlIdentifier sessionKeyspace) {
+        if (statement instanceof BatchStatement) {
+            Iterator<BatchableStatement<?>> children = ((BatchStatement) statement).iterator();
+
+            CqlIdentifier keyspace = statement.getKeyspace();
+
+            return (keyspace != null || !children.hasNext()) ? keyspace : getKeyspace(children.next(), sessionKeyspace);
+        }
+        if (statement instanceof BoundStatement) {
+            ColumnDefinitions definitions = getDefinitions(((BoundStatement) statement).getPreparedStatement());
+
+            if (definitions != null) {
+                return definitions.get(0).getKeyspace();
+            }
+        }
+        CqlIdentifier keyspace = (statement == null) ? null : statement.getKeyspace();
+
+        if (keyspace == null && statement != null) {
+            keyspace = statement.getRoutingKeyspace();
+        }
+        if (keyspace == null && statement instanceof SimpleStatement) {
+            Matcher matcher = TABLE_PATTERN.matcher(((SimpleStatement) statement).getQuery());
+
+            if (matcher.find() && matcher.group(2) != null) {
+                keyspace = CqlIdentifier.fromCql(matcher.group(1));
+            }
+        }
+        return (keyspace == null) ? sessionKeyspace : keyspace;
+    }
+
+    /***
+     * Table targeted by the statement. Prepared statements use the metadata returned when preparing, simple statements
+     * use the table following FROM, INTO or UPDATE in the query. Batches use the first statement.
+     * @param statement the statement
+     * @return the table, or null if it cannot be resolved
+     */
+    @Nullable
+    public static CqlIdentifier getTable(Statement<?> statement) {
+        if (statement instanceof BatchStatement) {
+            Iterator<BatchableStatement<?>> children = ((BatchStatement) statement).iterator();
+
+            return children.hasNext() ? getTable(children.next()) : null;
+        }
+        if (statement instanceof BoundStatement) {
+            ColumnDefinitions definitions = getDefinitions(((BoundStatement) statement).getPreparedStatement());
+
+            return (definitions == null) ? null : definitions.get(0).getTable();
+        }
+        if (statement instanceof SimpleStatement) {
+            Matcher matcher = TABLE_PATTERN.matcher(((SimpleStatement) statement).getQuery());
+
+            if (matcher.find()) {
+                return CqlIdentifier.fromCql((matcher.group(2) != null) ? matcher.group(2) : matcher.group(1));
+            }
+        }
+        return null;
+    }
+
+    /***
+     * Writes describe the table through the bind variables, reads through the result columns
+     */
+    @Nullable
+    private static ColumnDefinitions getDefinitions(PreparedStatement prepared) {
+        if (prepared.getVariableDefinitions().size() > 0) {
+            return prepared.getVariableDefinitions();
+        }
+        if (prepared.getResultSetDefinitions().size() > 0) {
+            return prepared.getResultSetDefinitions();
+        }
+        return null;
+    }
+
+    static MethodHandle findGetter(Class<?> type, String fieldName) {
+        try {
+            Field field = type.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (Exception e) {
+            LOG.warn("Unable to access {}.{}, throttlers will not be able to inspect requests", type.getSimpleName(), fieldName, e);
+            return null;
+        }
+    }
+}
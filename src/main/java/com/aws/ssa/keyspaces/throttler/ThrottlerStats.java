@@ -0,0 +1,99 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import net.jcip.annotations.ThreadSafe;
+import org.HdrHistogram.ConcurrentHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * Counts requests that acquired permits and requests that were rejected, along with the time requests waited for permits.
+ * Counters are striped and the wait histogram records without locking, so that recording does not add contention to register.
+ */
+@ThreadSafe
+public class ThrottlerStats {
+
+    private final LongAdder acquired = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /***
+     * Distribution of waits in nanoseconds with 3 significant digits, resized as longer waits are recorded
+     */
+    private final ConcurrentHistogram waitHistogram = new ConcurrentHistogram(3);
+
+    /***
+     * Record a request that acquired its permits
+     * @param waitNanos time the request waited for permits
+     */
+    public void recordAcquired(long waitNanos) {
+        acquired.increment();
+
+        totalWaitNanos.add(waitNanos);
+
+        waitHistogram.recordValue(Math.max(0, waitNanos));
+
+        //Skip the update on the common path where the wait is not a new maximum
+        if(waitNanos > maxWaitNanos.get()){
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+    }
+
+    /***
+     * Record a request that failed to acquire its permits
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /***
+     * Mean time requests waited for permits, 0 if no request acquired permits
+     * @return mean wait in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        long count = acquired.sum();
+
+        return (count == 0) ? 0.0 : totalWaitNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /***
+     * Longest time a request waited for permits since the last reset
+     * @return max wait in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /***
+     * Wait at a percentile of the requests that acquired permits since the last reset
+     * @param percentile percentile between 0 and 100, for example 99.9
+     * @return wait in milliseconds, 0 if no request acquired permits
+     */
+    public double getWaitPercentileMillis(double percentile) {
+        return waitHistogram.getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /***
+     * Reset all counters. Requests recorded during the reset may be counted in either period
+     */
+    public void reset() {
+        acquired.reset();
+        rejected.reset();
+        totalWaitNanos.reset();
+        maxWaitNanos.set(0);
+        waitHistogram.reset();
+    }
+}
@@ -0,0 +1,59 @@
+package com.datastax.oss.driver.shaded.guava.common.util.concurrent;
+
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.RateLimiter.SleepingStopwatch;
+
+import java.util.concurrent.TimeUnit;
+
+/***
+ * SmoothBursty Ratelimiter that keeps a reference to its stopwatch, so that the wait for the next permit can be read from the
+ * next free ticket time without reserving it.
+ */
+public class ProjectedRateLimiter {
+
+    private final SleepingStopwatch stopwatch;
+
+    private final RateLimiter rateLimiter;
+
+    public ProjectedRateLimiter(double permitsPerSecond, double maxBurstSeconds) {
+        this.stopwatch = SleepingStopwatch.createFromSystemTimer();
+        this.rateLimiter = BurstyRateLimiterFactory.create(stopwatch, permitsPerSecond, maxBurstSeconds);
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /***
+     * Time until the next permit is free. Read without the limiter mutex, so the value is an estimate under contention
+     * @return wait in nanoseconds, 0 if a permit is available now
+     */
+    public long projectedWaitNanos() {
+        long nowMicros = stopwatch.readMicros();
+
+        return TimeUnit.MICROSECONDS.toNanos(Math.max(0, rateLimiter.queryEarliestAvailable(nowMicros) - nowMicros));
+    }
+
+    /***
+     * Permits stored from unused capacity, including permits generated since the last acquire. Read without the limiter
+     * mutex, so the value is an estimate under contention
+     * @return number of stored permits
+     */
+    public double storedPermits() {
+        SmoothRateLimiter smoothRateLimiter = (SmoothRateLimiter) rateLimiter;
+
+        long nowMicros = stopwatch.readMicros();
+
+        long idleMicros = Math.max(0, nowMicros - rateLimiter.queryEarliestAvailable(nowMicros));
+
+        return Math.min(smoothRateLimiter.maxPermits, smoothRateLimiter.storedPermits + idleMicros / smoothRateLimiter.stableIntervalMicros);
+    }
+
+    /***
+     * Reserve permits without sleeping, as acquire does before it sleeps
+     * @param permits number of permits
+     * @return time the caller must wait before using the permits, in nanoseconds
+     */
+    public long reserveNanos(int permits) {
+        return TimeUnit.MICROSECONDS.toNanos(rateLimiter.reserve(permits));
+    }
+}
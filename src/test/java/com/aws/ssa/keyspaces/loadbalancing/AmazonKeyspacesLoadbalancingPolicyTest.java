@@ -1,23 +1,39 @@
 package com.aws.ssa.keyspaces.loadbalancing;
 
 
+import com.aws.ssa.keyspaces.metrics.KeyspacesMetrics;
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
 import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
 import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
 import com.datastax.oss.driver.api.core.metadata.Node;
 import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.api.core.session.Session;
 import com.datastax.oss.driver.internal.core.config.typesafe.DefaultProgrammaticDriverConfigLoaderBuilder;
 import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.metadata.DefaultEndPoint;
+import com.datastax.oss.driver.internal.core.metadata.DefaultNode;
 import com.datastax.oss.driver.internal.core.util.collection.QueryPlan;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class AmazonKeyspacesLoadbalancingPolicyTest {
 
+    private static final SimpleStatement STATEMENT = SimpleStatement.newInstance("SELECT * FROM ks.tbl");
+
     @Test
     public void emptyQueryPlan() {
 
@@ -99,5 +115,368 @@ public class AmazonKeyspacesLoadbalancingPolicyTest {
         assertEquals("us-east-1", DriverConfigLoader.fromClasspath("loadbalancer-example").getInitialConfig().getDefaultProfile().getString(DefaultDriverOption.LOAD_BALANCING_LOCAL_DATACENTER));
     }
 
-}
+    /***
+     * Policy reading the in-flight requests and open connections of nodes from maps instead of the session's pools
+     */
+    private static class LoadStubPolicy extends AmazonKeyspacesRoundRobinLoadBalancingPolicy {
+
+        private final Map<Node, Integer> inFlight = new HashMap<>();
+
+        private final Map<Node, Integer> connections = new HashMap<>();
+
+        LoadStubPolicy(DriverContext context) {
+            super(context, "default");
+        }
+
+        @Override
+        protected int getInFlight(Node node, Session session) {
+            return inFlight.getOrDefault(node, 0);
+        }
+
+        @Override
+        protected int getSize(Node node, Session session) {
+            return connections.getOrDefault(node, 0);
+        }
+    }
+
+    private static DriverContext powerOfTwoChoicesContext() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_MODE, KeyspacesLoadBalancingOption.MODE_POWER_OF_TWO_CHOICES)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    private static Node node(DriverContext context, int port) {
+        return new DefaultNode(new DefaultEndPoint(new InetSocketAddress("127.0.0.1", port)), (InternalDriverContext) context);
+    }
+
+    @Test
+    public void powerOfTwoChoicesPrefersLessLoadedNode() {
+        DriverContext context = powerOfTwoChoicesContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        assertTrue(policy.isPowerOfTwoChoices());
+
+        Node busy = node(context, 9042);
+        Node idle = node(context, 9043);
+
+        //per connection: 100 / 2 = 50 against 90 / 3 = 30
+        policy.inFlight.put(busy, 100);
+        policy.connections.put(busy, 2);
+        policy.inFlight.put(idle, 90);
+        policy.connections.put(idle, 3);
+
+        for(int i = 0; i < 100; i++){
+            Queue<Node> queryPlan = policy.newQueryPlan(null, null, new Node[]{busy, idle});
+
+            assertSame(idle, queryPlan.poll());
+            assertSame(busy, queryPlan.poll());
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesAvoidsNodeWithoutConnections() {
+        DriverContext context = powerOfTwoChoicesContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        Node closed = node(context, 9042);
+        Node open = node(context, 9043);
+
+        policy.inFlight.put(open, 1000);
+        policy.connections.put(open, 1);
+
+        assertTrue(policy.isLessLoaded(open, closed, null));
+        assertFalse(policy.isLessLoaded(closed, open, null));
+        assertFalse(policy.isLessLoaded(closed, node(context, 9044), null));
+    }
+
+    @Test
+    public void powerOfTwoChoicesKeepsRestOfPlanRandom() {
+        DriverContext context = powerOfTwoChoicesContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        Node[] nodes = new Node[9];
+
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = node(context, 9042 + i);
+            policy.connections.put(nodes[i], 1);
+        }
+        Map<Node, Integer> firsts = new HashMap<>();
+
+        for(int i = 0; i < 1000; i++){
+            firsts.merge(policy.newQueryPlan(null, null, nodes.clone()).poll(), 1, Integer::sum);
+        }
+        //with equal loads every node leads some plans
+        assertEquals(nodes.length, firsts.size());
+    }
+
+    @Test
+    public void invalidMode() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_MODE, "least-latency")
+                .build(), ProgrammaticArguments.builder().build());
+
+        assertThrows(IllegalArgumentException.class, () -> new AmazonKeyspacesRoundRobinLoadBalancingPolicy(context, "default"));
+    }
+
+    @Test
+    public void coprimeStrides() {
+        assertArrayEquals(new int[]{1}, AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot.coprimeStrides(1));
+        assertArrayEquals(new int[]{1, 2}, AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot.coprimeStrides(3));
+        assertArrayEquals(new int[]{1, 2, 4, 5, 7, 8}, AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot.coprimeStrides(9));
+    }
+
+    @Test
+    public void snapshotQueryPlanVisitsEveryNodeOnce() {
+        DriverContext context = new DefaultDriverContext(new DefaultProgrammaticDriverConfigLoaderBuilder().build(), ProgrammaticArguments.builder().build());
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy st = new AmazonKeyspacesRoundRobinLoadBalancingPolicy(context, "default");
+
+        Node[] nodes = new Node[9];
+
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = node(context, 9042 + i);
+        }
+        Node[] clone = nodes.clone();
+
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot snapshot = new AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot(0, nodes);
+
+        int[][] positions = new int[nodes.length][nodes.length];
+
+        for(int i = 0; i < 9000; i++){
+            Queue<Node> queryPlan = st.newQueryPlan(null, null, snapshot);
+
+            assertEquals(nodes.length, queryPlan.size());
+
+            Set<Node> seen = new HashSet<>();
+
+            for(int position = 0; position < nodes.length; position++){
+                Node node = queryPlan.poll();
+
+                assertTrue(seen.add(node));
+
+                positions[Arrays.asList(nodes).indexOf(node)][position]++;
+            }
+            assertNull(queryPlan.poll());
+            assertTrue(queryPlan.isEmpty());
+        }
+        //the snapshot is shared, plans never reorder it
+        assertArrayEquals(clone, nodes);
+
+        //every node leads about one plan in nine
+        for(int[] nodePositions : positions){
+            assertTrue(nodePositions[0] > 800 && nodePositions[0] < 1200, "first " + nodePositions[0]);
+        }
+    }
+
+    @Test
+    public void snapshotQueryPlanLeadsWithEveryPair() {
+        DriverContext context = new DefaultDriverContext(new DefaultProgrammaticDriverConfigLoaderBuilder().build(), ProgrammaticArguments.builder().build());
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy st = new AmazonKeyspacesRoundRobinLoadBalancingPolicy(context, "default");
+
+        //6 nodes have only 2 coprime strides, so a stride alone puts 12 of the 30 ordered pairs at the first two positions
+        Node[] nodes = new Node[6];
+
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = node(context, 9042 + i);
+        }
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot snapshot = new AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot(0, nodes);
+
+        int[][] pairs = new int[nodes.length][nodes.length];
+
+        for(int i = 0; i < 60000; i++){
+            Queue<Node> queryPlan = st.newQueryPlan(null, null, snapshot);
+
+            int first = Arrays.asList(nodes).indexOf(queryPlan.poll());
+            int second = Arrays.asList(nodes).indexOf(queryPlan.poll());
 
+            pairs[first][second]++;
+        }
+        //every ordered pair leads about one plan in 30
+        for(int first = 0; first < nodes.length; first++){
+            for(int second = 0; second < nodes.length; second++){
+                if(first == second){
+                    assertEquals(0, pairs[first][second]);
+                }else{
+                    assertTrue(pairs[first][second] > 1600 && pairs[first][second] < 2400, "pair " + first + "," + second + ": " + pairs[first][second]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void permutationQueryPlanOrdersSecondStep() {
+        DriverContext context = new DefaultDriverContext(new DefaultProgrammaticDriverConfigLoaderBuilder().build(), ProgrammaticArguments.builder().build());
+
+        Node[] nodes = new Node[]{node(context, 9042), node(context, 9043), node(context, 9044), node(context, 9045), node(context, 9046)};
+
+        //start 0, stride 1: 0, 1, 2, 3, 4 with step 3 moved to the front and step 1 second
+        PermutationQueryPlan queryPlan = new PermutationQueryPlan(nodes, 0, 1, 3, 1);
+
+        assertSame(nodes[3], queryPlan.poll());
+        assertSame(nodes[1], queryPlan.poll());
+        assertSame(nodes[0], queryPlan.poll());
+        assertSame(nodes[2], queryPlan.poll());
+        assertSame(nodes[4], queryPlan.poll());
+        assertNull(queryPlan.poll());
+    }
+
+    @Test
+    public void permutationQueryPlanSwapsHead() {
+        DriverContext context = new DefaultDriverContext(new DefaultProgrammaticDriverConfigLoaderBuilder().build(), ProgrammaticArguments.builder().build());
+
+        Node[] nodes = new Node[]{node(context, 9042), node(context, 9043), node(context, 9044), node(context, 9045)};
+
+        //start 1, stride 3: 1, 0, 3, 2 with the head swapped to 0, 1, 3, 2
+        PermutationQueryPlan queryPlan = new PermutationQueryPlan(nodes, 1, 3, 1);
+
+        assertSame(nodes[0], queryPlan.peek());
+
+        Iterator<Node> iterator = queryPlan.iterator();
+
+        assertSame(nodes[0], iterator.next());
+        assertSame(nodes[1], iterator.next());
+        assertSame(nodes[3], iterator.next());
+        assertSame(nodes[2], iterator.next());
+        assertFalse(iterator.hasNext());
+
+        assertSame(nodes[0], queryPlan.poll());
+        assertEquals(3, queryPlan.size());
+    }
+
+    @Test
+    public void powerOfTwoChoicesOnSnapshot() {
+        DriverContext context = powerOfTwoChoicesContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        Node busy = node(context, 9042);
+        Node idle = node(context, 9043);
+
+        policy.inFlight.put(busy, 10);
+        policy.connections.put(busy, 1);
+        policy.connections.put(idle, 1);
+
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot snapshot = new AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot(0, new Node[]{busy, idle});
+
+        for(int i = 0; i < 100; i++){
+            assertSame(idle, policy.newQueryPlan(null, null, snapshot).poll());
+        }
+    }
+
+    @Test
+    public void permutationQueryPlanMovesHeadStep() {
+        DriverContext context = new DefaultDriverContext(new DefaultProgrammaticDriverConfigLoaderBuilder().build(), ProgrammaticArguments.builder().build());
+
+        Node[] nodes = new Node[]{node(context, 9042), node(context, 9043), node(context, 9044), node(context, 9045)};
+
+        //start 0, stride 1: 0, 1, 2, 3 with step 2 moved to the front
+        PermutationQueryPlan queryPlan = new PermutationQueryPlan(nodes, 0, 1, 2);
+
+        assertSame(nodes[2], queryPlan.poll());
+        assertSame(nodes[0], queryPlan.poll());
+        assertSame(nodes[1], queryPlan.poll());
+        assertSame(nodes[3], queryPlan.poll());
+        assertNull(queryPlan.poll());
+    }
+
+    private static DriverContext connectionHeadroomContext() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_MODE, KeyspacesLoadBalancingOption.MODE_CONNECTION_HEADROOM)
+                .withInt(KeyspacesLoadBalancingOption.KEYSPACES_LOAD_BALANCING_REQUESTS_PER_CONNECTION, 10)
+                .withStringList(DefaultDriverOption.METRICS_SESSION_ENABLED, Collections.singletonList("cql-requests"))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    private static void served(DriverContext context, AmazonKeyspacesRoundRobinLoadBalancingPolicy policy, Node node) {
+        policy.onNodeSuccess(STATEMENT, 0, context.getConfig().getDefaultProfile(), node, "test");
+    }
+
+    @Test
+    public void connectionHeadroomSpreadsByConnections() {
+        DriverContext context = connectionHeadroomContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        assertTrue(policy.isConnectionHeadroom());
+        assertTrue(policy.getRequestTracker().isPresent());
+
+        Node small = node(context, 9042);
+        Node large = node(context, 9043);
+
+        policy.connections.put(small, 1);
+        policy.connections.put(large, 2);
+
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot snapshot = new AmazonKeyspacesRoundRobinLoadBalancingPolicy.NodeSnapshot(0, new Node[]{small, large});
+
+        //the node with two connections leads until both have the same headroom
+        for(int i = 0; i < 10; i++){
+            Node head = policy.newQueryPlan(null, null, snapshot).poll();
+
+            assertSame(large, head);
+
+            served(context, policy, head);
+        }
+        for(int i = 0; i < 20; i++){
+            served(context, policy, policy.newQueryPlan(null, null, snapshot).poll());
+        }
+        assertEquals(0, policy.getHeadroom(small, null));
+        assertEquals(0, policy.getHeadroom(large, null));
+        assertEquals(10, policy.rateOf(small).sum());
+        assertEquals(20, policy.rateOf(large).sum());
+
+        //requests in flight are taken from the headroom
+        policy.inFlight.put(large, 5);
+
+        assertEquals(-5, policy.getHeadroom(large, null));
+    }
+
+    @Test
+    public void connectionHeadroomCountsServingNode() {
+        DriverContext context = connectionHeadroomContext();
+
+        LoadStubPolicy policy = new LoadStubPolicy(context);
+
+        Node head = node(context, 9042);
+        Node retried = node(context, 9043);
+
+        policy.connections.put(head, 1);
+        policy.connections.put(retried, 1);
+
+        //a request retried on the second node of the plan counts against the node that served it
+        policy.onNodeError(STATEMENT, new RuntimeException("timeout"), 0, context.getConfig().getDefaultProfile(), head, "test");
+        served(context, policy, retried);
+        served(context, policy, retried);
+
+        assertEquals(1, policy.rateOf(head).sum());
+        assertEquals(2, policy.rateOf(retried).sum());
+        assertEquals(8, policy.getHeadroom(retried, null));
+    }
+
+    @Test
+    public void connectionUtilizationGauge() {
+        DriverContext context = connectionHeadroomContext();
+
+        AmazonKeyspacesRoundRobinLoadBalancingPolicy policy = new AmazonKeyspacesRoundRobinLoadBalancingPolicy(context, "default");
+
+        Node node = node(context, 9042);
+
+        assertEquals(0.0, policy.getConnectionUtilization(node), 0.0);
+
+        served(context, policy, node);
+
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        String name = context.getSessionName() + ".keyspaces.nodes." + node.getEndPoint().asMetricPrefix() + ".default.connection-utilization";
+
+        assertTrue(registry.getGauges().containsKey(name));
+
+        //a node without open connections is over its quota as soon as it has requests
+        assertEquals(Double.POSITIVE_INFINITY, registry.getGauges().get(name).getValue());
+
+        policy.close();
+
+        assertFalse(registry.getGauges().containsKey(name));
+    }
+}
@@ -0,0 +1,150 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import com.aws.ssa.keyspaces.retry.AmazonKeyspacesExponentialRetryPolicy;
+import com.aws.ssa.keyspaces.retry.AmazonKeyspacesRetryPolicy;
+import com.aws.ssa.keyspaces.retry.KeyspacesRetryOption;
+import com.aws.ssa.keyspaces.throttler.AmazonKeyspacesCapacityUnitThrottler;
+import com.aws.ssa.keyspaces.throttler.AmazonKeyspacesFixedRateThrottler;
+import com.aws.ssa.keyspaces.throttler.ThrottledRequestStub;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.servererrors.WriteType;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyspacesMetricsTest {
+
+    private static final SimpleStatement WRITE = SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (1)");
+
+    private static DriverContext context(boolean metricsEnabled) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withStringList(DefaultDriverOption.METRICS_SESSION_ENABLED, metricsEnabled ? Collections.singletonList("cql-requests") : Collections.emptyList())
+                .withInt(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_ATTEMPTS, 1)
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MIN_WAIT, Duration.ofMillis(1))
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_WAIT, Duration.ofMillis(2))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    @Test
+    public void disabledWithoutDriverMetrics() {
+        DriverContext context = context(false);
+
+        assertNull(KeyspacesMetrics.registryOf(context));
+        assertSame(RetryMetrics.DISABLED, RetryMetrics.forContext(context));
+
+        //recording without a registry is a no-op
+        RetryMetrics.DISABLED.recordDecision(RetryMetrics.ErrorType.READ_TIMEOUT, RetryDecision.RETRY_SAME);
+        RetryMetrics.DISABLED.recordBackoff(10);
+    }
+
+    @Test
+    public void retryDecisionsByErrorType() {
+        DriverContext context = context(true);
+
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        assertNotNull(registry);
+
+        AmazonKeyspacesRetryPolicy policy = new AmazonKeyspacesRetryPolicy(context);
+
+        assertEquals(RetryDecision.RETRY_SAME, policy.onWriteTimeout(WRITE, ConsistencyLevel.LOCAL_QUORUM, WriteType.SIMPLE, 2, 0, 0));
+        assertEquals(RetryDecision.RETHROW, policy.onWriteTimeout(WRITE, ConsistencyLevel.LOCAL_QUORUM, WriteType.SIMPLE, 2, 0, 1));
+        assertEquals(RetryDecision.RETHROW, policy.onReadTimeout(WRITE, ConsistencyLevel.LOCAL_QUORUM, 2, 0, false, 1));
+
+        String session = context.getSessionName();
+
+        assertEquals(1, registry.counter(session + ".keyspaces.retry.write-timeout.retry-same").getCount());
+        assertEquals(1, registry.counter(session + ".keyspaces.retry.write-timeout.rethrow").getCount());
+        assertEquals(1, registry.counter(session + ".keyspaces.retry.read-timeout.rethrow").getCount());
+        assertEquals(0, registry.counter(session + ".keyspaces.retry.read-timeout.retry-same").getCount());
+    }
+
+    @Test
+    public void backoffTimer() {
+        DriverContext context = context(true);
+
+        AmazonKeyspacesExponentialRetryPolicy policy = new AmazonKeyspacesExponentialRetryPolicy(context);
+
+        assertEquals(RetryDecision.RETRY_SAME, policy.onUnavailable(WRITE, ConsistencyLevel.LOCAL_QUORUM, 2, 0, 0));
+
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        assertEquals(1, registry.timer(context.getSessionName() + ".keyspaces.retry.backoff").getCount());
+        assertEquals(1, registry.counter(context.getSessionName() + ".keyspaces.retry.unavailable.retry-same").getCount());
+    }
+
+    @Test
+    public void throttlerWaitAndRate() {
+        DriverContext context = context(true);
+
+        AmazonKeyspacesFixedRateThrottler throttler = new AmazonKeyspacesFixedRateThrottler(context, 100, 2000, 9, 2);
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        throttler.register(request);
+
+        assertTrue(request.isReady());
+
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        String session = context.getSessionName();
+
+        assertEquals(1, registry.timer(session + ".keyspaces.throttler.wait").getCount());
+        assertEquals(0, registry.counter(session + ".keyspaces.throttler.rejected").getCount());
+
+        Gauge<?> rate = registry.getGauges().get(session + ".keyspaces.throttler.rate");
+
+        assertEquals(100L, rate.getValue());
+
+        throttler.setMaxRequestsPerSecond(200);
+
+        assertEquals(200L, rate.getValue());
+
+        throttler.close();
+
+        assertFalse(registry.getGauges().containsKey(session + ".keyspaces.throttler.rate"));
+    }
+
+    @Test
+    public void capacityUnitThrottlerMetrics() {
+        DriverContext context = context(true);
+
+        AmazonKeyspacesCapacityUnitThrottler throttler = new AmazonKeyspacesCapacityUnitThrottler(context, 100, 300, 4096, 2000);
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        throttler.register(request);
+
+        assertTrue(request.isReady());
+
+        MetricRegistry registry = KeyspacesMetrics.registryOf(context);
+
+        String session = context.getSessionName();
+
+        assertEquals(1, registry.timer(session + ".keyspaces.throttler.wait").getCount());
+
+        assertEquals(100L, registry.getGauges().get(session + ".keyspaces.throttler.write-units-rate").getValue());
+        assertEquals(300L, registry.getGauges().get(session + ".keyspaces.throttler.read-units-rate").getValue());
+
+        throttler.setMaxWriteUnitsPerSecond(200);
+
+        assertEquals(200L, registry.getGauges().get(session + ".keyspaces.throttler.write-units-rate").getValue());
+
+        throttler.close();
+
+        assertFalse(registry.getGauges().containsKey(session + ".keyspaces.throttler.write-units-rate"));
+        assertFalse(registry.getGauges().containsKey(session + ".keyspaces.throttler.read-units-rate"));
+    }
+}
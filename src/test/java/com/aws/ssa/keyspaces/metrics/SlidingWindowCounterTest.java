@@ -0,0 +1,57 @@
+package com.aws.ssa.keyspaces.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlidingWindowCounterTest {
+
+    @Test
+    public void windowSlides() {
+        AtomicLong ticker = new AtomicLong();
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(ticker::get, 1000);
+
+        for(int i = 0; i < 10; i++){
+            counter.increment();
+            ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        //the first bucket left the window
+        assertEquals(9, counter.sum());
+
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void tryIncrementStopsAtLimit() {
+        AtomicLong ticker = new AtomicLong();
+
+        SlidingWindowCounter counter = new SlidingWindowCounter(ticker::get, 1000);
+
+        counter.increment();
+
+        ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+        //the event of the older bucket counts toward the limit
+        assertTrue(counter.tryIncrement(3));
+        assertTrue(counter.tryIncrement(3));
+        assertFalse(counter.tryIncrement(3));
+        assertEquals(3, counter.sum());
+
+        //once the older bucket leaves the window there is room for one more
+        ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+
+        assertTrue(counter.tryIncrement(3));
+        assertFalse(counter.tryIncrement(3));
+    }
+
+    @Test
+    public void invalidWindow() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowCounter(5));
+    }
+}
@@ -0,0 +1,108 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.connection.ClosedConnectionException;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.ServerError;
+import com.datastax.oss.driver.api.core.servererrors.WriteType;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AmazonKeyspacesCategoryRetryPolicyTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withInt(KeyspacesErrorCategory.CAPACITY.option("max-attempts"), 2)
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("min-wait"), Duration.ofMillis(5))
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("max-wait"), Duration.ofMillis(20))
+                .withString(KeyspacesErrorCategory.TRANSIENT.option("decision"), "RETRY_SAME")
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    @Test
+    public void classifiesMessages() {
+        assertEquals(KeyspacesErrorCategory.PARTITION_HOTSPOT, KeyspacesErrorCategory.fromMessage("StoragePartitionThroughputCapacityExceeded"));
+        assertEquals(KeyspacesErrorCategory.CAPACITY, KeyspacesErrorCategory.fromMessage("Throughput exceeds the current capacity of your table"));
+        assertEquals(KeyspacesErrorCategory.CAPACITY, KeyspacesErrorCategory.fromMessage("Request throttled"));
+        assertEquals(KeyspacesErrorCategory.TRANSIENT, KeyspacesErrorCategory.fromMessage("Internal Server Error"));
+        assertEquals(KeyspacesErrorCategory.TRANSIENT, KeyspacesErrorCategory.fromMessage(null));
+
+        assertEquals(KeyspacesErrorCategory.CAPACITY, AmazonKeyspacesCategoryRetryPolicy.categoryOf(new OverloadedException(null)));
+    }
+
+    @Test
+    public void capacityRetriesSameUntilAttemptsSpent() {
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context());
+
+        assertEquals(RetryDecision.RETRY_SAME, policy.onWriteTimeout(null, ConsistencyLevel.LOCAL_QUORUM, WriteType.SIMPLE, 2, 0, 0));
+        assertEquals(RetryDecision.RETRY_SAME, policy.onReadTimeout(null, ConsistencyLevel.LOCAL_QUORUM, 2, 0, false, 1));
+        assertEquals(RetryDecision.RETHROW, policy.onReadTimeout(null, ConsistencyLevel.LOCAL_QUORUM, 2, 0, false, 2));
+    }
+
+    @Test
+    public void abortedRetriesNextWithoutWaiting() {
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context());
+
+        long start = System.nanoTime();
+
+        assertEquals(RetryDecision.RETRY_NEXT, policy.onRequestAborted(null, new ClosedConnectionException("closed"), 0));
+        assertTrue(System.nanoTime() - start < 5_000_000L);
+    }
+
+    @Test
+    public void errorResponseUsesConfiguredDecision() {
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context());
+
+        assertEquals(RetryDecision.RETRY_SAME, policy.getDecision(KeyspacesErrorCategory.TRANSIENT));
+        assertEquals(RetryDecision.RETRY_SAME, policy.onErrorResponse(null, new ServerError(null, "Internal Server Error"), 0));
+        assertEquals(RetryDecision.RETHROW, policy.onErrorResponse(null, new ServerError(null, "StoragePartitionThroughputCapacityExceeded"), 2));
+    }
+
+    @Test
+    public void sleepsForBackoffWhenBlocking() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, true)
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("min-wait"), Duration.ofMillis(100))
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("max-wait"), Duration.ofMillis(200))
+                .build(), ProgrammaticArguments.builder().build());
+
+        //Without the KeyspacesRetryDriverContext the policy falls back to blocking backoff
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context);
+
+        long start = System.nanoTime();
+
+        assertEquals(RetryDecision.RETRY_SAME, policy.onWriteTimeout(null, ConsistencyLevel.LOCAL_QUORUM, WriteType.SIMPLE, 2, 0, 0));
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertFalse(policy.isNonBlocking());
+    }
+
+    @Test
+    public void rethrowsToProcessorWhenNonBlocking() {
+        DriverContext context = new KeyspacesRetryDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, true)
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context);
+
+        assertTrue(policy.isNonBlocking());
+        assertEquals(RetryDecision.RETHROW, policy.onWriteTimeout(null, ConsistencyLevel.LOCAL_QUORUM, WriteType.SIMPLE, 2, 0, 0));
+        assertEquals(KeyspacesErrorCategory.CONNECTION, AmazonKeyspacesCategoryRetryPolicy.categoryOf((Throwable) new ClosedConnectionException("closed")));
+    }
+
+    @Test
+    public void invalidDecision() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesErrorCategory.CONNECTION.option("decision"), "IGNORE")
+                .build(), ProgrammaticArguments.builder().build());
+
+        assertThrows(IllegalArgumentException.class, () -> new AmazonKeyspacesCategoryRetryPolicy(context));
+    }
+}
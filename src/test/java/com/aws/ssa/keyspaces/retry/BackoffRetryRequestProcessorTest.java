@@ -0,0 +1,230 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.connection.ClosedConnectionException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.WriteType;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.session.DefaultSession;
+import com.datastax.oss.driver.internal.core.session.RequestProcessor;
+import com.datastax.oss.driver.internal.core.util.concurrent.CompletableFutures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackoffRetryRequestProcessorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static InternalDriverContext context(boolean nonBlocking) {
+        return new KeyspacesRetryDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, nonBlocking)
+                .withInt(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_ATTEMPTS, 2)
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MIN_WAIT, Duration.ofMillis(20))
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_WAIT, Duration.ofMillis(50))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    /***
+     * Processor failing the first attempts with the given error, then succeeding
+     */
+    private BackoffRetryRequestProcessor failing(int failures, RuntimeException error, AtomicInteger attempts) {
+        return new BackoffRetryRequestProcessor() {
+            @Override
+            protected CompletionStage<AsyncResultSet> attempt(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+                if(attempts.incrementAndGet() <= failures){
+                    return CompletableFutures.failedFuture(error);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            protected ScheduledExecutorService scheduler(InternalDriverContext context) {
+                return scheduler;
+            }
+        };
+    }
+
+    private static ReadTimeoutException readTimeout() {
+        return new ReadTimeoutException(null, ConsistencyLevel.LOCAL_QUORUM, 1, 2, false);
+    }
+
+    @Test
+    public void retriesAfterBackoff() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+
+        failing(2, readTimeout(), attempts).process(SimpleStatement.newInstance("SELECT * FROM ks.tbl"), null, context(true), "test")
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+    }
+
+    @Test
+    public void rethrowsAfterMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<AsyncResultSet> result = failing(10, readTimeout(), attempts)
+                .process(SimpleStatement.newInstance("SELECT * FROM ks.tbl"), null, context(true), "test").toCompletableFuture();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+
+        assertTrue(error.getCause() instanceof ReadTimeoutException);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void retriesStopAtRequestTimeout() {
+        InternalDriverContext context = new KeyspacesRetryDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, true)
+                .withInt(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_ATTEMPTS, 1000)
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MIN_WAIT, Duration.ofMillis(20))
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_MAX_WAIT, Duration.ofMillis(20))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofMillis(200))
+                .build(), ProgrammaticArguments.builder().build());
+
+        List<Duration> timeouts = new CopyOnWriteArrayList<>();
+
+        BackoffRetryRequestProcessor processor = new BackoffRetryRequestProcessor() {
+            @Override
+            protected CompletionStage<AsyncResultSet> attempt(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+                timeouts.add(requestTimeoutOf(request, context.getConfig().getDefaultProfile()));
+
+                return CompletableFutures.failedFuture(readTimeout());
+            }
+
+            @Override
+            protected ScheduledExecutorService scheduler(InternalDriverContext context) {
+                return scheduler;
+            }
+        };
+        long start = System.nanoTime();
+
+        CompletableFuture<AsyncResultSet> result = processor.process(SimpleStatement.newInstance("SELECT * FROM ks.tbl"), null, context, "test").toCompletableFuture();
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+
+        //the retries share the 200 ms of the request instead of getting 200 ms each
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(timeouts.size() > 1 && timeouts.size() <= 10);
+        assertEquals(Duration.ofMillis(200), timeouts.get(0));
+
+        for(int i = 1; i < timeouts.size(); i++){
+            assertTrue(timeouts.get(i).compareTo(timeouts.get(i - 1)) < 0);
+        }
+    }
+
+    @Test
+    public void categoryRetriesCountedPerCategory() throws Exception {
+        InternalDriverContext context = new KeyspacesRetryDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(DefaultDriverOption.RETRY_POLICY_CLASS, AmazonKeyspacesCategoryRetryPolicy.class.getName())
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, true)
+                .withInt(KeyspacesErrorCategory.CAPACITY.option("max-attempts"), 2)
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("min-wait"), Duration.ofMillis(5))
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("max-wait"), Duration.ofMillis(10))
+                .withInt(KeyspacesErrorCategory.CONNECTION.option("max-attempts"), 2)
+                .build(), ProgrammaticArguments.builder().build());
+
+        AtomicInteger attempts = new AtomicInteger();
+
+        //capacity and connection errors alternate, four retries in total but two of each category
+        BackoffRetryRequestProcessor processor = new BackoffRetryRequestProcessor() {
+            @Override
+            protected CompletionStage<AsyncResultSet> attempt(Statement<?> request, DefaultSession session, InternalDriverContext context, String sessionLogPrefix) {
+                int attempt = attempts.incrementAndGet();
+
+                if(attempt <= 4){
+                    return CompletableFutures.failedFuture((attempt % 2 == 1) ? readTimeout() : new ClosedConnectionException("closed"));
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            protected ScheduledExecutorService scheduler(InternalDriverContext context) {
+                return scheduler;
+            }
+        };
+        processor.process(SimpleStatement.newInstance("SELECT * FROM ks.tbl").setIdempotent(true), null, context, "test")
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    public void blockingProfileNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<AsyncResultSet> result = failing(10, readTimeout(), attempts)
+                .process(SimpleStatement.newInstance("SELECT * FROM ks.tbl"), null, context(false), "test").toCompletableFuture();
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retryableFollowsIdempotence() {
+        InternalDriverContext context = context(true);
+
+        WriteTimeoutException writeTimeout = new WriteTimeoutException(null, ConsistencyLevel.LOCAL_QUORUM, 1, 2, WriteType.SIMPLE);
+
+        SimpleStatement statement = SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (1)");
+
+        assertTrue(BackoffRetryRequestProcessor.isRetryable(readTimeout(), statement, context.getConfig().getDefaultProfile()));
+        assertFalse(BackoffRetryRequestProcessor.isRetryable(writeTimeout, statement, context.getConfig().getDefaultProfile()));
+        assertTrue(BackoffRetryRequestProcessor.isRetryable(writeTimeout, statement.setIdempotent(true), context.getConfig().getDefaultProfile()));
+        assertFalse(BackoffRetryRequestProcessor.isRetryable(new InvalidQueryException(null, "invalid"), statement.setIdempotent(true), context.getConfig().getDefaultProfile()));
+    }
+
+    @Test
+    public void contextInstallsProcessor() {
+        boolean installed = false;
+
+        for(RequestProcessor<?, ?> processor : context(true).getRequestProcessorRegistry().getProcessors()){
+            installed |= processor instanceof BackoffRetryRequestProcessor;
+        }
+        assertTrue(installed);
+    }
+
+    @Test
+    public void policyRethrowsWhenNonBlocking() {
+        AmazonKeyspacesExponentialRetryPolicy policy = new AmazonKeyspacesExponentialRetryPolicy(context(true));
+
+        assertTrue(policy.isNonBlocking());
+        assertEquals(RetryDecision.RETHROW, policy.determineRetryDecision(0));
+
+        //without the retry context the policy keeps its blocking backoff
+        DefaultDriverContext defaultContext = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_NON_BLOCKING, true).build(), ProgrammaticArguments.builder().build());
+
+        assertFalse(new AmazonKeyspacesExponentialRetryPolicy(defaultContext).isNonBlocking());
+    }
+}
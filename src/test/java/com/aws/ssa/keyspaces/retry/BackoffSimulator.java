@@ -0,0 +1,183 @@
+package com.aws.ssa.keyspaces.retry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/***
+ * Offline simulator comparing backoff strategies on a synthetic capacity-exceeded scenario. A burst of requests arrives at a
+ * table with a fixed capacity per second, spread evenly across milliseconds. Attempts beyond the capacity of their millisecond fail, as a write timeout would,
+ * and are retried after the backoff of the strategy until max-attempts.
+ *
+ * For each strategy the simulator reports the retry load, attempts per request, the requests that gave up and the time until the
+ * last request completed.
+ *
+ * Run with: java com.aws.ssa.keyspaces.retry.BackoffSimulator [requests] [capacity per second] [burst ms] [max attempts] [min wait ms] [max wait ms]
+ */
+public class BackoffSimulator {
+
+    private final int requests;
+
+    private final int capacityPerSecond;
+
+    private final long burstMillis;
+
+    private final int maxAttempts;
+
+    private final long minWaitMillis;
+
+    private final long maxWaitMillis;
+
+    public BackoffSimulator(int requests, int capacityPerSecond, long burstMillis, int maxAttempts, long minWaitMillis, long maxWaitMillis) {
+        this.requests = requests;
+        this.capacityPerSecond = capacityPerSecond;
+        this.burstMillis = burstMillis;
+        this.maxAttempts = maxAttempts;
+        this.minWaitMillis = minWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public static void main(String[] args) {
+        long[] values = {20_000, 5_000, 1_000, 10, 10, 1_000};
+
+        for(int i = 0; i < Math.min(args.length, values.length); i++){
+            values[i] = Long.parseLong(args[i]);
+        }
+        BackoffSimulator simulator = new BackoffSimulator((int) values[0], (int) values[1], values[2], (int) values[3], values[4], values[5]);
+
+        System.out.println("requests=" + values[0] + " capacity/s=" + values[1] + " burst=" + values[2] + "ms max-attempts=" + values[3]
+                + " min-wait=" + values[4] + "ms max-wait=" + values[5] + "ms");
+
+        System.out.printf("%-20s %10s %10s %10s %14s %12s%n", "strategy", "attempts", "per-req", "gave-up", "completion-ms", "p99-ms");
+
+        for(KeyspacesBackoffStrategy strategy : KeyspacesBackoffStrategy.values()){
+            System.out.println(simulator.run(strategy));
+        }
+    }
+
+    /***
+     * Replay the scenario with a strategy
+     * @param strategy backoff between retries
+     * @return aggregate retry load and completion time
+     */
+    public Result run(BackoffStrategy strategy) {
+        //arrivals and retries by time, each entry holds the time, request and retries so far
+        PriorityQueue<long[]> attempts = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+
+        for(int request = 0; request < requests; request++){
+            attempts.add(new long[]{request * burstMillis / requests, request, 0, 0, request * burstMillis / requests});
+        }
+        long currentMilli = -1;
+
+        long servedThisMilli = 0;
+
+        long capacityThisMilli = 0;
+
+        long totalAttempts = 0;
+
+        long gaveUp = 0;
+
+        long completion = 0;
+
+        List<Long> latencies = new ArrayList<>();
+
+        while(!attempts.isEmpty()){
+            long[] attempt = attempts.poll();
+
+            long time = attempt[0];
+
+            if(time != currentMilli){
+                currentMilli = time;
+                servedThisMilli = 0;
+                capacityThisMilli = capacityOf(time);
+            }
+            totalAttempts++;
+
+            if(servedThisMilli < capacityThisMilli){
+                servedThisMilli++;
+
+                completion = Math.max(completion, time);
+
+                latencies.add(time - attempt[4]);
+            }else{
+                int retries = (int) attempt[2];
+
+                if(retries >= maxAttempts){
+                    gaveUp++;
+
+                    completion = Math.max(completion, time);
+                }else{
+                    long delay = strategy.delayMillis(retries, attempt[3], minWaitMillis, maxWaitMillis);
+
+                    //a timeout is reported after at least a millisecond
+                    attempts.add(new long[]{time + Math.max(1, delay), attempt[1], retries + 1, delay, attempt[4]});
+                }
+            }
+        }
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+
+        Arrays.sort(sorted);
+
+        long p99 = (sorted.length == 0) ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * 0.99) - 1)];
+
+        return new Result(String.valueOf(strategy), requests, totalAttempts, gaveUp, completion, p99);
+    }
+
+    /***
+     * Attempts served in a millisecond. Capacity below 1000 per second is spread across milliseconds rather than rounded up,
+     * for example 500 per second serves one attempt every other millisecond
+     */
+    long capacityOf(long milli) {
+        return (milli + 1) * capacityPerSecond / 1000 - milli * capacityPerSecond / 1000;
+    }
+
+    public static final class Result {
+
+        private final String strategy;
+
+        private final long requests;
+
+        private final long attempts;
+
+        private final long gaveUp;
+
+        private final long completionMillis;
+
+        private final long p99Millis;
+
+        private Result(String strategy, long requests, long attempts, long gaveUp, long completionMillis, long p99Millis) {
+            this.strategy = strategy;
+            this.requests = requests;
+            this.attempts = attempts;
+            this.gaveUp = gaveUp;
+            this.completionMillis = completionMillis;
+            this.p99Millis = p99Millis;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public double getAttemptsPerRequest() {
+            return (double) attempts / requests;
+        }
+
+        public long getGaveUp() {
+            return gaveUp;
+        }
+
+        public long getCompletionMillis() {
+            return completionMillis;
+        }
+
+        public long getP99Millis() {
+            return p99Millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %10d %10.2f %10d %14d %12d", strategy, attempts, getAttemptsPerRequest(), gaveUp, completionMillis, p99Millis);
+        }
+    }
+}
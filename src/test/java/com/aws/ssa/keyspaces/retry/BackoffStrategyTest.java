@@ -0,0 +1,119 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackoffStrategyTest {
+
+    @Test
+    public void defaultKeepsOriginalBackoff() {
+        for(int i = 0; i < 100; i++){
+            assertEquals(10, KeyspacesBackoffStrategy.DEFAULT.delayMillis(0, 0, 10, 50));
+            assertEquals(11, KeyspacesBackoffStrategy.DEFAULT.delayMillis(1, 0, 10, 50));
+
+            long delay = KeyspacesBackoffStrategy.DEFAULT.delayMillis(3, 0, 10, 50);
+            assertTrue(delay >= 13 && delay < 18);
+
+            assertEquals(50, KeyspacesBackoffStrategy.DEFAULT.delayMillis(40, 0, 10, 50));
+        }
+    }
+
+    @Test
+    public void cappedExponential() {
+        assertEquals(10, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL.delayMillis(0, 0, 10, 1000));
+        assertEquals(80, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL.delayMillis(3, 0, 10, 1000));
+        assertEquals(1000, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL.delayMillis(10, 0, 10, 1000));
+        assertEquals(1000, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL.delayMillis(100, 0, 10, 1000));
+        assertEquals(0, KeyspacesBackoffStrategy.CAPPED_EXPONENTIAL.delayMillis(5, 0, 0, 0));
+    }
+
+    @Test
+    public void jitterStaysInBounds() {
+        for(int i = 0; i < 1000; i++){
+            long full = KeyspacesBackoffStrategy.FULL_JITTER.delayMillis(3, 0, 10, 1000);
+            assertTrue(full >= 0 && full <= 80);
+
+            long equal = KeyspacesBackoffStrategy.EQUAL_JITTER.delayMillis(3, 0, 10, 1000);
+            assertTrue(equal >= 40 && equal <= 80);
+
+            long decorrelated = KeyspacesBackoffStrategy.DECORRELATED_JITTER.delayMillis(3, 100, 10, 1000);
+            assertTrue(decorrelated >= 10 && decorrelated <= 300);
+
+            long capped = KeyspacesBackoffStrategy.DECORRELATED_JITTER.delayMillis(3, 900, 10, 1000);
+            assertTrue(capped >= 10 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void fromConfig() {
+        assertSame(KeyspacesBackoffStrategy.FULL_JITTER, KeyspacesBackoffStrategy.fromConfig("full-jitter"));
+        assertSame(KeyspacesBackoffStrategy.DECORRELATED_JITTER, KeyspacesBackoffStrategy.fromConfig("DECORRELATED_JITTER"));
+        assertTrue(KeyspacesBackoffStrategy.fromConfig(ConstantBackoff.class.getName()) instanceof ConstantBackoff);
+        assertThrows(IllegalArgumentException.class, () -> KeyspacesBackoffStrategy.fromConfig("linear"));
+    }
+
+    @Test
+    public void policyUsesConfiguredBackoff() {
+        DefaultDriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesRetryOption.KEYSPACES_RETRY_BACKOFF, "equal-jitter")
+                .build(), ProgrammaticArguments.builder().build());
+
+        assertSame(KeyspacesBackoffStrategy.EQUAL_JITTER, new AmazonKeyspacesExponentialRetryPolicy(context).getBackoffStrategy());
+    }
+
+    @Test
+    public void simulatorReportsEveryStrategy() {
+        BackoffSimulator simulator = new BackoffSimulator(2_000, 1_000, 100, 10, 10, 1_000);
+
+        for(KeyspacesBackoffStrategy strategy : KeyspacesBackoffStrategy.values()){
+            BackoffSimulator.Result result = simulator.run(strategy);
+
+            assertTrue(result.getAttempts() >= 2_000);
+            assertTrue(result.getCompletionMillis() > 0);
+        }
+    }
+
+    @Test
+    public void simulatorSpreadsFractionalCapacity() {
+        BackoffSimulator simulator = new BackoffSimulator(1, 500, 1, 1, 10, 1_000);
+
+        long served = 0;
+
+        for(long milli = 0; milli < 1_000; milli++){
+            served += simulator.capacityOf(milli);
+        }
+        assertEquals(500, served);
+        assertEquals(0, simulator.capacityOf(0));
+        assertEquals(1, simulator.capacityOf(1));
+    }
+
+    @Test
+    public void categoryBackoffFollowsPreviousDelay() {
+        DefaultDriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("min-wait"), Duration.ofMillis(10))
+                .withDuration(KeyspacesErrorCategory.CAPACITY.option("max-wait"), Duration.ofSeconds(10))
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesCategoryRetryPolicy policy = new AmazonKeyspacesCategoryRetryPolicy(context);
+
+        //decorrelated jitter waits at most three times the previous wait, whatever the retry count
+        for(int i = 0; i < 100; i++){
+            long delay = policy.backoffMillis(KeyspacesErrorCategory.CAPACITY, 8, 20);
+
+            assertTrue(delay >= 10 && delay <= 60);
+        }
+    }
+
+    public static class ConstantBackoff implements BackoffStrategy {
+        @Override
+        public long delayMillis(int retryCount, long previousDelayMillis, long minWaitMillis, long maxWaitMillis) {
+            return minWaitMillis;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.aws.ssa.keyspaces.retry;
+
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.retry.RetryDecision;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryBudgetTest {
+
+    private static DriverContext context(boolean enabled, int minRetriesPerSecond, boolean jmx) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_ENABLED, enabled)
+                .withInt(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_MIN_RETRIES_PER_SECOND, minRetriesPerSecond)
+                .withDuration(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_WINDOW, Duration.ofSeconds(1))
+                .withBoolean(KeyspacesRetryOption.KEYSPACES_RETRY_BUDGET_JMX_ENABLED, jmx)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    @Test
+    public void floorAllowsRetriesWithoutSuccesses() {
+        RetryBudget budget = new RetryBudget("test", () -> 0L, 1000, 0.1, 5);
+
+        for(int i = 0; i < 5; i++){
+            assertTrue(budget.tryAcquireRetry());
+        }
+        assertFalse(budget.tryAcquireRetry());
+        assertEquals(1, budget.getRejectedRetries());
+        assertEquals(0, budget.getAvailableRetries());
+    }
+
+    @Test
+    public void retriesFollowSuccessRatio() {
+        RetryBudget budget = new RetryBudget("test", () -> 0L, 1000, 0.1, 0);
+
+        for(int i = 0; i < 100; i++){
+            budget.recordSuccess();
+        }
+        assertEquals(100, budget.getSuccesses());
+        assertEquals(10, budget.getAvailableRetries());
+
+        for(int i = 0; i < 10; i++){
+            assertTrue(budget.tryAcquireRetry());
+        }
+        assertFalse(budget.tryAcquireRetry());
+    }
+
+    @Test
+    public void concurrentRetriesDoNotOverspend() throws Exception {
+        RetryBudget budget = new RetryBudget("test", () -> 0L, 1000, 0.1, 50);
+
+        AtomicLong granted = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        CountDownLatch start = new CountDownLatch(1);
+
+        for(int t = 0; t < 8; t++){
+            executor.execute(() -> {
+                Uninterruptibles.awaitUninterruptibly(start);
+
+                for(int i = 0; i < 1000; i++){
+                    if(budget.tryAcquireRetry()){
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(50, granted.get());
+        assertEquals(8000 - 50, budget.getRejectedRetries());
+    }
+
+    @Test
+    public void windowSlides() {
+        AtomicLong ticker = new AtomicLong();
+
+        RetryBudget budget = new RetryBudget("test", ticker::get, 1000, 0.5, 0);
+
+        for(int i = 0; i < 10; i++){
+            budget.recordSuccess();
+        }
+        assertEquals(5, budget.getAvailableRetries());
+
+        //half a window later the successes still count
+        ticker.set(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(10, budget.getSuccesses());
+
+        //a full window later they have expired
+        ticker.set(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(0, budget.getSuccesses());
+        assertFalse(budget.tryAcquireRetry());
+    }
+
+    @Test
+    public void invalidRatio() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryBudget("test", 1000, -1.0, 0));
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull(RetryBudget.forContext(context(false, 0, false)));
+    }
+
+    @Test
+    public void sharedByPoliciesAndTracker() {
+        DriverContext context = context(true, 0, false);
+
+        RetryBudgetRequestTracker tracker = new RetryBudgetRequestTracker(context);
+
+        AmazonKeyspacesRetryPolicy policy = new AmazonKeyspacesRetryPolicy(context);
+        AmazonKeyspacesExponentialRetryPolicy exponential = new AmazonKeyspacesExponentialRetryPolicy(context);
+
+        assertSame(tracker.getBudget(), RetryBudget.forContext(context));
+
+        //no successes yet and no floor, the budget is spent
+        assertEquals(RetryDecision.RETHROW, policy.determineRetryDecision(0));
+        assertEquals(RetryDecision.RETHROW, exponential.determineRetryDecision(0));
+
+        for(int i = 0; i < 10; i++){
+            tracker.onSuccess(null, 0, null, null, "test");
+        }
+        assertEquals(RetryDecision.RETRY_SAME, policy.determineRetryDecision(0));
+        assertEquals(RetryDecision.RETHROW, policy.determineRetryDecision(0));
+
+        tracker.close();
+    }
+
+    @Test
+    public void mbeanRegisteredWhenEnabled() {
+        DriverContext context = context(true, 1, true);
+
+        RetryBudget budget = RetryBudget.forContext(context);
+
+        assertNotNull(budget.getMBeanName());
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(budget.getMBeanName()));
+
+        budget.close();
+
+        assertNull(budget.getMBeanName());
+    }
+}
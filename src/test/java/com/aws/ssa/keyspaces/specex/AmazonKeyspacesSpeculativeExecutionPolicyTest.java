@@ -0,0 +1,151 @@
+package com.aws.ssa.keyspaces.specex;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AmazonKeyspacesSpeculativeExecutionPolicyTest {
+
+    private static final SimpleStatement READ = SimpleStatement.newInstance("SELECT * FROM ks.tbl WHERE k = 1");
+
+    private static DriverContext context(double maxHedgeRatio) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX, 2)
+                .withDouble(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MAX_HEDGE_RATIO, maxHedgeRatio)
+                .withInt(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_MAX_HEDGE_BURST, 5)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    /***
+     * Stats with an interval of 990 latencies of 10 ms and 10 of 200 ms
+     */
+    private static LatencyStats stats(AtomicLong ticker) {
+        LatencyStats stats = new LatencyStats(ticker::get, 1000, 100);
+
+        for(int i = 0; i < 1000; i++){
+            stats.recordLatency("default", TimeUnit.MILLISECONDS.toNanos(i < 990 ? 10 : 200));
+        }
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        return stats;
+    }
+
+    @Test
+    public void percentileOfLastInterval() {
+        AtomicLong ticker = new AtomicLong();
+
+        LatencyStats stats = stats(ticker);
+
+        long p50 = stats.percentileMicros("default", 50.0);
+        long p999 = stats.percentileMicros("default", 99.9);
+
+        assertEquals(10, TimeUnit.MICROSECONDS.toMillis(p50));
+        assertEquals(200, TimeUnit.MICROSECONDS.toMillis(p999));
+
+        //the next interval has no latencies
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(-1, stats.percentileMicros("default", 50.0));
+    }
+
+    @Test
+    public void noHedgeWithoutSamples() {
+        AmazonKeyspacesSpeculativeExecutionPolicy policy = new AmazonKeyspacesSpeculativeExecutionPolicy(context(1.0), "default", new LatencyStats(1000, 100));
+
+        assertEquals(-1, policy.nextExecution(null, null, READ, 1));
+    }
+
+    @Test
+    public void hedgesAfterPercentile() {
+        AtomicLong ticker = new AtomicLong();
+
+        LatencyStats stats = stats(ticker);
+
+        AmazonKeyspacesSpeculativeExecutionPolicy policy = new AmazonKeyspacesSpeculativeExecutionPolicy(context(1.0), "default", stats);
+
+        stats.recordRequest();
+
+        long delay = policy.nextExecution(null, null, READ, 1);
+
+        assertTrue(delay >= 10 && delay <= 11, "delay " + delay);
+
+        //max-executions counts the first execution
+        assertEquals(-1, policy.nextExecution(null, null, READ, 2));
+    }
+
+    @Test
+    public void hedgesCappedByRatio() {
+        AtomicLong ticker = new AtomicLong();
+
+        LatencyStats stats = stats(ticker);
+
+        AmazonKeyspacesSpeculativeExecutionPolicy policy = new AmazonKeyspacesSpeculativeExecutionPolicy(context(0.05), "default", stats);
+
+        for(int i = 0; i < 60; i++){
+            stats.recordRequest();
+        }
+        //60 requests at 5% earn 3 hedges, spent as the hedges fire
+        for(int i = 0; i < 3; i++){
+            assertTrue(policy.nextExecution(null, null, READ, 1) > 0);
+            assertEquals(-1, policy.nextExecution(null, null, READ, 2));
+        }
+        assertEquals(-1, policy.nextExecution(null, null, READ, 1));
+
+        //the burst caps the hedges saved up by idle periods
+        for(int i = 0; i < 10_000; i++){
+            stats.recordRequest();
+        }
+        int hedged = 0;
+
+        while(policy.nextExecution(null, null, READ, 1) > 0){
+            policy.nextExecution(null, null, READ, 2);
+            hedged++;
+        }
+        assertEquals(5, hedged);
+        assertEquals(8, policy.getHedges());
+        assertEquals(8, policy.getFiredHedges());
+    }
+
+    @Test
+    public void onlyFiredHedgesSpendTokens() {
+        AtomicLong ticker = new AtomicLong();
+
+        LatencyStats stats = stats(ticker);
+
+        AmazonKeyspacesSpeculativeExecutionPolicy policy = new AmazonKeyspacesSpeculativeExecutionPolicy(context(0.05), "default", stats);
+
+        int requests = 10_000;
+
+        //every request asks for a hedge, and one scheduled hedge in ten fires, the others are cancelled by the first execution
+        for(int i = 0; i < requests; i++){
+            stats.recordRequest();
+
+            if(policy.nextExecution(null, null, READ, 1) > 0 && policy.getHedges() % 10 == 0){
+                policy.nextExecution(null, null, READ, 2);
+            }
+        }
+        //charging scheduled hedges would cap them at 5% of requests, and only a tenth of those would fire
+        assertTrue(policy.getHedges() > requests * 0.05 * 2, "scheduled " + policy.getHedges());
+
+        double firedRatio = (double) policy.getFiredHedges() / requests;
+
+        assertTrue(firedRatio <= 0.05 + 5.0 / requests, "fired ratio " + firedRatio);
+    }
+
+    @Test
+    public void invalidPercentile() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withDouble(KeyspacesSpeculativeExecutionOption.KEYSPACES_SPECEX_PERCENTILE, 100.0)
+                .build(), ProgrammaticArguments.builder().build());
+
+        assertThrows(IllegalArgumentException.class, () -> new AmazonKeyspacesSpeculativeExecutionPolicy(context, "default"));
+    }
+}
@@ -0,0 +1,147 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.config.OptionsMap;
+import com.datastax.oss.driver.api.core.config.TypedDriverOption;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.WriteType;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AmazonKeyspacesAdaptiveRateThrottlerTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.fromClasspath("throttler-example"), ProgrammaticArguments.builder().build());
+    }
+
+    private static AmazonKeyspacesAdaptiveRateThrottler throttler(long cooldownInMs) {
+        return new AmazonKeyspacesAdaptiveRateThrottler(context(), 1000, 2000, 9, 2, 100, 50, 0.5, 10, cooldownInMs);
+    }
+
+    @Test
+    public void decreaseOnWriteTimeout() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(0);
+
+        st.signalError(new ThrottledRequestStub(), new WriteTimeoutException(null, ConsistencyLevel.LOCAL_QUORUM, 0, 2, WriteType.SIMPLE));
+
+        assertEquals(500, st.getMaxRequestsPerSecond());
+    }
+    @Test
+    public void ignoreNonCongestionError() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(0);
+
+        st.signalError(new ThrottledRequestStub(), new InvalidQueryException(null, "bad query"));
+
+        assertEquals(1000, st.getMaxRequestsPerSecond());
+    }
+    @Test
+    public void decreaseCooldown() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(60000);
+
+        st.signalTimeout(new ThrottledRequestStub());
+        st.signalTimeout(new ThrottledRequestStub());
+
+        assertEquals(500, st.getMaxRequestsPerSecond());
+    }
+    @Test
+    public void decreaseToFloor() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(0);
+
+        for(int i = 0; i < 10; i++){
+            st.signalTimeout(new ThrottledRequestStub());
+        }
+        assertEquals(100, st.getMaxRequestsPerSecond());
+    }
+    @Test
+    public void increaseAfterSuccessThreshold() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(0);
+
+        st.signalTimeout(new ThrottledRequestStub());
+
+        for(int i = 0; i < 9; i++){
+            st.signalSuccess(new ThrottledRequestStub());
+        }
+        assertEquals(500, st.getMaxRequestsPerSecond());
+
+        st.signalSuccess(new ThrottledRequestStub());
+
+        assertEquals(550, st.getMaxRequestsPerSecond());
+    }
+    @Test
+    public void increaseToCeiling() {
+        AmazonKeyspacesAdaptiveRateThrottler st = throttler(0);
+
+        for(int i = 0; i < 100; i++){
+            st.signalSuccess(new ThrottledRequestStub());
+        }
+        assertEquals(1000, st.getMaxRequestsPerSecond());
+        assertEquals(1000, st.getCeilingRequestsPerSecond());
+    }
+    @Test
+    public void reloadMovesCeiling() {
+        TypedDriverOption<Long> maxRequestsPerSecond = new TypedDriverOption<>(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND, GenericType.LONG);
+
+        OptionsMap options = OptionsMap.driverDefaults();
+        options.put(maxRequestsPerSecond, 1000L);
+
+        DriverConfigLoader loader = DriverConfigLoader.fromMap(options);
+
+        InternalDriverContext context = new DefaultDriverContext(loader, ProgrammaticArguments.builder().build());
+
+        //Fires ConfigChangeEvent on the context event bus when the options change
+        loader.onDriverInit(context);
+
+        AmazonKeyspacesAdaptiveRateThrottler st = new AmazonKeyspacesAdaptiveRateThrottler(context);
+
+        //A lower ceiling clamps the current rate, and increases stop at it
+        options.put(maxRequestsPerSecond, 400L);
+        assertEquals(400, st.getCeilingRequestsPerSecond());
+        assertEquals(400, st.getMaxRequestsPerSecond());
+
+        for(int i = 0; i < 100; i++){
+            st.signalSuccess(new ThrottledRequestStub());
+        }
+        assertEquals(400, st.getMaxRequestsPerSecond());
+
+        //A higher ceiling is reached by the following increases
+        options.put(maxRequestsPerSecond, 2000L);
+        assertEquals(2000, st.getCeilingRequestsPerSecond());
+        assertEquals(400, st.getMaxRequestsPerSecond());
+
+        for(int i = 0; i < 100; i++){
+            st.signalSuccess(new ThrottledRequestStub());
+        }
+        assertEquals(410, st.getMaxRequestsPerSecond());
+
+        //The JMX setter moves the ceiling the same way
+        st.setMaxRequestsPerSecond(300);
+        assertEquals(300, st.getCeilingRequestsPerSecond());
+        assertEquals(300, st.getMaxRequestsPerSecond());
+
+        //A ceiling below the floor is ignored
+        options.put(maxRequestsPerSecond, 5L);
+        assertEquals(300, st.getCeilingRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void decreaseBadValueException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesAdaptiveRateThrottler(context(), 1000, 2000, 9, 2, 100, 50, 1.5, 10, 0);
+        });
+    }
+    @Test
+    public void minGreaterThanMaxException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesAdaptiveRateThrottler(context(), 1000, 2000, 9, 2, 2000, 50, 0.5, 10, 0);
+        });
+    }
+}
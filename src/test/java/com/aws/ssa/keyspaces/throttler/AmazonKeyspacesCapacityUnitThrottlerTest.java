@@ -0,0 +1,124 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+
+public class AmazonKeyspacesCapacityUnitThrottlerTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .withLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_MAX_WRITE_UNITS_PER_SECOND, 500)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    @Test
+    public void capacityUnitCalculation() {
+        assertEquals(1, AmazonKeyspacesCapacityUnitThrottler.calculateWriteCapacityUnits(0));
+        assertEquals(1, AmazonKeyspacesCapacityUnitThrottler.calculateWriteCapacityUnits(1024));
+        assertEquals(2, AmazonKeyspacesCapacityUnitThrottler.calculateWriteCapacityUnits(1025));
+        assertEquals(40, AmazonKeyspacesCapacityUnitThrottler.calculateWriteCapacityUnits(40 * 1024));
+
+        assertEquals(1, AmazonKeyspacesCapacityUnitThrottler.calculateReadCapacityUnits(10));
+        assertEquals(1, AmazonKeyspacesCapacityUnitThrottler.calculateReadCapacityUnits(4096));
+        assertEquals(3, AmazonKeyspacesCapacityUnitThrottler.calculateReadCapacityUnits(9000));
+    }
+    @Test
+    public void readClassification() {
+        assertTrue(AmazonKeyspacesCapacityUnitThrottler.isRead(SimpleStatement.newInstance("  select * from ks.tbl")));
+        assertFalse(AmazonKeyspacesCapacityUnitThrottler.isRead(SimpleStatement.newInstance("INSERT INTO ks.tbl (id) VALUES (1)")));
+        assertFalse(AmazonKeyspacesCapacityUnitThrottler.isRead(BatchStatement.newInstance(BatchType.UNLOGGED)));
+    }
+    /***
+     * Bound statement of a prepared query, only the query of the prepared statement is available
+     */
+    private static BoundStatement boundStatement(String query) {
+        PreparedStatement prepared = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> "getQuery".equals(method.getName()) ? query : null);
+
+        return (BoundStatement) Proxy.newProxyInstance(BoundStatement.class.getClassLoader(),
+                new Class<?>[]{BoundStatement.class},
+                (proxy, method, args) -> "getPreparedStatement".equals(method.getName()) ? prepared : null);
+    }
+    @Test
+    public void preparedReadClassification() {
+        assertTrue(AmazonKeyspacesCapacityUnitThrottler.isRead(boundStatement("SELECT * FROM ks.tbl WHERE id = ?")));
+
+        //Conditional writes return the [applied] column but are metered as writes
+        assertFalse(AmazonKeyspacesCapacityUnitThrottler.isRead(boundStatement("INSERT INTO ks.tbl (id) VALUES (?) IF NOT EXISTS")));
+        assertFalse(AmazonKeyspacesCapacityUnitThrottler.isRead(boundStatement("UPDATE ks.tbl SET v = ? WHERE id = ? IF v = ?")));
+    }
+    @Test
+    public void writeUnitsFromStatementSize() {
+        AmazonKeyspacesCapacityUnitThrottler st = new AmazonKeyspacesCapacityUnitThrottler(context());
+
+        StringBuilder value = new StringBuilder();
+
+        for(int i = 0; i < 40 * 1024; i++){
+            value.append('x');
+        }
+        SimpleStatement large = SimpleStatement.newInstance("INSERT INTO ks.tbl (id, data) VALUES (?, ?)", "1", value.toString());
+        SimpleStatement small = SimpleStatement.newInstance("INSERT INTO ks.tbl (id, data) VALUES (?, ?)", "1", "x");
+
+        assertTrue(st.estimateWriteUnits(large) >= 40);
+        assertEquals(1, st.estimateWriteUnits(small));
+        assertEquals(3, st.estimateWriteUnits(BatchStatement.newInstance(BatchType.UNLOGGED, small, small, small)));
+    }
+    @Test
+    public void readPermitsByConsistency() {
+        AmazonKeyspacesCapacityUnitThrottler st = new AmazonKeyspacesCapacityUnitThrottler(context());
+
+        SimpleStatement read = SimpleStatement.newInstance("SELECT * FROM ks.tbl WHERE id = ?", "1");
+
+        assertEquals(1, st.estimateReadPermits(read.setConsistencyLevel(DefaultConsistencyLevel.LOCAL_ONE)));
+        assertEquals(2, st.estimateReadPermits(read.setConsistencyLevel(DefaultConsistencyLevel.LOCAL_QUORUM)));
+    }
+    @Test
+    public void unitsConfig() {
+        AmazonKeyspacesCapacityUnitThrottler st = new AmazonKeyspacesCapacityUnitThrottler(context());
+
+        assertEquals(500, st.getMaxWriteUnitsPerSecond());
+        assertEquals(KeyspacesThrottleOption.DEFAULT_MAX_READ_UNITS_PER_SECOND, st.getMaxReadUnitsPerSecond());
+
+        st.setMaxReadUnitsPerSecond(200);
+
+        assertEquals(200, st.getMaxReadUnitsPerSecond());
+    }
+    @Test
+    public void registerWithoutStatement() {
+        AmazonKeyspacesCapacityUnitThrottler st = new AmazonKeyspacesCapacityUnitThrottler(context());
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        st.register(request);
+
+        assertTrue(request.isReady());
+    }
+    @Test
+    public void unitsBadValueException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesCapacityUnitThrottler(context(), 0, 100, 4096, 1000);
+        });
+    }
+    @Test
+    public void timeOutGreaterThenRequestTimeout() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesCapacityUnitThrottler(context(), 100, 100, 4096, 10000);
+        });
+    }
+}
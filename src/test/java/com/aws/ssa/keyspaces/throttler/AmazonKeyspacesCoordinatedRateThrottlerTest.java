@@ -0,0 +1,117 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+
+public class AmazonKeyspacesCoordinatedRateThrottlerTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NON_BLOCKING, true)
+                .withInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, 10)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+    @Test
+    public void rebalancesAsPeersJoinIdleAndLeave() {
+        InMemoryRateCoordinator coordinator = new InMemoryRateCoordinator(15000, 0.1);
+
+        AmazonKeyspacesCoordinatedRateThrottler first = new AmazonKeyspacesCoordinatedRateThrottler(context(), coordinator, "first", 1000, 1000, 9, 2);
+
+        assertEquals(1000, first.getMaxRequestsPerSecond());
+
+        AmazonKeyspacesCoordinatedRateThrottler second = new AmazonKeyspacesCoordinatedRateThrottler(context(), coordinator, "second", 1000, 1000, 9, 2);
+
+        assertEquals(500, second.getMaxRequestsPerSecond());
+
+        //The first session received no requests, so it keeps the idle share and the second can use the rest
+        first.renewLease();
+        assertEquals(50, first.getMaxRequestsPerSecond());
+
+        //Requests are received faster than the share of the second session allows
+        for(int i = 0; i < 1000; i++){
+            second.register(new ThrottledRequestStub());
+        }
+        second.renewLease();
+        assertEquals(950, second.getMaxRequestsPerSecond());
+
+        first.close();
+
+        second.renewLease();
+        assertEquals(1000, second.getMaxRequestsPerSecond());
+        assertEquals(1, coordinator.getMembers());
+
+        second.close();
+        assertEquals(0, coordinator.getMembers());
+    }
+    @Test
+    public void startingRateLimitedByConnections() {
+        InMemoryRateCoordinator coordinator = new InMemoryRateCoordinator(15000, 0.1);
+
+        //One host with one connection provides 2000 request per second
+        AmazonKeyspacesCoordinatedRateThrottler st = new AmazonKeyspacesCoordinatedRateThrottler(context(), coordinator, "member", 40000, 1000, 1, 1);
+
+        assertEquals(2000, st.getMaxRequestsPerSecond());
+        assertEquals(40000, st.getTotalRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void rateOwnedByLease() {
+        InMemoryRateCoordinator coordinator = new InMemoryRateCoordinator(15000, 0.1);
+
+        AmazonKeyspacesCoordinatedRateThrottler st = new AmazonKeyspacesCoordinatedRateThrottler(context(), coordinator, "member", 1000, 1000, 9, 2);
+
+        //The rate set through JMX is the rate of the group, applied on the next lease
+        st.setMaxRequestsPerSecond(2000);
+        assertEquals(2000, st.getTotalRequestsPerSecond());
+        assertEquals(1000, st.getMaxRequestsPerSecond());
+
+        for(int i = 0; i < 1000; i++){
+            st.register(new ThrottledRequestStub());
+        }
+        st.renewLease();
+        assertEquals(2000, st.getMaxRequestsPerSecond());
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            st.setMaxRequestsPerSecond(0);
+        });
+        assertEquals(2000, st.getTotalRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void coordinatorFromConfig(@TempDir Path dir) {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_CLASS, "FileRateCoordinator")
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_FILE, dir.resolve("group.lease").toString())
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_MEMBER_ID, "pod-1")
+                .withLong(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND, 1000)
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesCoordinatedRateThrottler st = new AmazonKeyspacesCoordinatedRateThrottler(context);
+
+        assertTrue(st.getCoordinator() instanceof FileRateCoordinator);
+        assertEquals("pod-1", st.getMemberId());
+        assertEquals(1000, st.getMaxRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void badCoordinatorClassException() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_COORDINATOR_CLASS, "java.lang.String")
+                .build(), ProgrammaticArguments.builder().build());
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesCoordinatedRateThrottler(context);
+        });
+    }
+}
@@ -1,12 +1,37 @@
 package com.aws.ssa.keyspaces.throttler;
 
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
 import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.config.OptionsMap;
+import com.datastax.oss.driver.api.core.config.TypedDriverOption;
 import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
 import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
 import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import com.datastax.oss.driver.internal.core.context.InternalDriverContext;
+import com.datastax.oss.driver.internal.core.metadata.TopologyEvent;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
 public class AmazonKeyspacesFixedRateThrottlerTest {
 
     @Test
@@ -81,4 +106,534 @@ public class AmazonKeyspacesFixedRateThrottlerTest {
             new AmazonKeyspacesFixedRateThrottler(context, 10000, 1000, 1, 2);
         });
     }
+
+    private static DriverContext deadlineContext() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NON_BLOCKING, true)
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_DEADLINE_AWARE, true)
+                .withInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, 10)
+                .withDuration(DefaultDriverOption.REQUEST_THROTTLER_DRAIN_INTERVAL, Duration.ofMillis(5))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+    private static DriverContext nonBlockingContext(int maxQueueSize) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NON_BLOCKING, true)
+                .withInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, maxQueueSize)
+                .withDuration(DefaultDriverOption.REQUEST_THROTTLER_DRAIN_INTERVAL, Duration.ofMillis(5))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+    @Test
+    public void nonBlockingReadyWithoutQueue() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(10), 100, 2000, 9, 2);
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        st.register(request);
+
+        assertTrue(st.isNonBlocking());
+        assertTrue(request.isReady());
+        assertFalse(request.wasDelayed());
+        assertEquals(0, st.getQueueSize());
+    }
+    @Test
+    public void nonBlockingQueuesAndReleases() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(10), 5, 2000, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+
+        assertTrue(first.isReady());
+        assertFalse(second.isDone());
+        assertEquals(1, st.getQueueSize());
+
+        assertTrue(second.await(1000));
+        assertTrue(second.wasDelayed());
+        assertEquals(0, st.getQueueSize());
+    }
+    @Test
+    public void nonBlockingQueueFull() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(1), 1, 2000, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+        st.register(third);
+
+        assertTrue(first.isReady());
+        assertFalse(second.isDone());
+        assertTrue(third.isFailed());
+
+        st.close();
+
+        assertTrue(second.isFailed());
+    }
+    @Test
+    public void nonBlockingQueueTimeout() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(10), 1, 50, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+
+        assertTrue(second.await(500));
+        assertTrue(second.isFailed());
+    }
+    private static DriverContext concurrencyContext(boolean nonBlocking) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_LIMIT_CONCURRENCY, true)
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_NON_BLOCKING, nonBlocking)
+                .withInt(DefaultDriverOption.CONNECTION_MAX_REQUESTS, 2)
+                .withDuration(DefaultDriverOption.REQUEST_THROTTLER_DRAIN_INTERVAL, Duration.ofMillis(5))
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+    @Test
+    public void concurrencyCapFromConnections() {
+        assertEquals(9 * 2 * 1024, AmazonKeyspacesFixedRateThrottler.calculateMaxConcurrentRequests(9, 2, 1024));
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(concurrencyContext(false), 1000, 100, 1, 1);
+
+        assertTrue(st.isLimitConcurrency());
+        assertEquals(2, st.getMaxConcurrentRequests());
+    }
+    @Test
+    public void concurrencyPermitsReleasedOnSignal() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(concurrencyContext(false), 1000, 100, 1, 1);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+        st.register(third);
+
+        assertTrue(first.isReady());
+        assertTrue(second.isReady());
+        assertTrue(third.isFailed());
+        assertEquals(2, st.getInFlightRequests());
+
+        //Each request releases its permit once, and requests without permits release nothing
+        st.signalSuccess(first);
+        st.signalTimeout(first);
+        st.signalError(third, new RuntimeException());
+
+        ThrottledRequestStub fourth = new ThrottledRequestStub();
+        ThrottledRequestStub fifth = new ThrottledRequestStub();
+
+        st.register(fourth);
+        st.register(fifth);
+
+        assertTrue(fourth.isReady());
+        assertTrue(fifth.isFailed());
+    }
+    @Test
+    public void concurrencyNonBlockingReleasesQueue() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(concurrencyContext(true), 1000, 2000, 1, 1);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+        st.register(third);
+
+        assertTrue(second.isReady());
+        assertFalse(third.isDone());
+        assertEquals(1, st.getQueueSize());
+
+        st.signalSuccess(first);
+
+        assertTrue(third.await(1000));
+        assertTrue(third.isReady());
+        assertEquals(2, st.getInFlightRequests());
+    }
+    @Test
+    public void deadlineRejectsWithoutWaiting() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(deadlineContext(), 1, 500, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+
+        st.register(first);
+
+        long start = System.nanoTime();
+
+        st.register(second);
+
+        assertTrue(st.isDeadlineAware());
+        assertTrue(second.isFailed());
+        assertEquals(0, st.getQueueSize());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    @Test
+    public void deadlineRejectsBehindQueue() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(deadlineContext(), 1, 1500, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        st.register(first);
+        st.register(second);
+        st.register(third);
+
+        //Second can be served within its deadline, third would wait behind it for two seconds
+        assertTrue(first.isReady());
+        assertFalse(second.isDone());
+        assertTrue(third.isFailed());
+        assertEquals(1, st.getQueueSize());
+
+        st.close();
+    }
+    @Test
+    public void resizeForOpenConnections() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(concurrencyContext(false), 1000, 100, 1, 1);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+
+        //No session metadata yet, the configured number of hosts is kept
+        st.register(first);
+
+        assertEquals(1, st.getNumberOfHosts());
+        assertEquals(2000, st.getMaxConnectionsRequestsPerSecond(), 0.001);
+
+        st.resizeForConnections(3, 3);
+
+        assertEquals(3, st.getNumberOfHosts());
+        assertEquals(6000, st.getMaxConnectionsRequestsPerSecond(), 0.001);
+        assertEquals(6, st.getMaxConcurrentRequests());
+
+        //Events without open connections keep the current limits
+        ((InternalDriverContext) st.getContext()).getEventBus().fire(TopologyEvent.suggestDown(new InetSocketAddress("127.0.0.1", 9142)));
+
+        Thread.sleep(AmazonKeyspacesFixedRateThrottler.RESIZE_DELAY_IN_MS * 3);
+
+        assertEquals(6000, st.getMaxConnectionsRequestsPerSecond(), 0.001);
+
+        st.resizeForConnections(1, 1);
+
+        //One permit is still held by the first request
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        st.register(second);
+        st.register(third);
+
+        assertEquals(2, st.getMaxConcurrentRequests());
+        assertTrue(second.isReady());
+        assertTrue(third.isFailed());
+
+        st.close();
+    }
+    @Test
+    public void permitsForBatchAndPayload() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(10), 100, 2000, 9, 2);
+
+        SimpleStatement single = SimpleStatement.newInstance("SELECT * FROM ks.tbl");
+
+        BatchStatement batch = BatchStatement.newInstance(DefaultBatchType.UNLOGGED,
+                SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (1)"),
+                SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (2)"),
+                SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (3)"));
+
+        assertEquals(1, st.permitsFor(null));
+        assertEquals(1, st.permitsFor(single));
+        assertEquals(3, st.permitsFor(batch));
+
+        //The payload takes precedence over the batch size, and invalid values are ignored
+        assertEquals(7, st.permitsFor(single.setCustomPayload(weight("7"))));
+        assertEquals(2, st.permitsFor(batch.setCustomPayload(weight("2"))));
+        assertEquals(3, st.permitsFor(batch.setCustomPayload(weight("-1"))));
+        assertEquals(1, st.permitsFor(single.setCustomPayload(weight("heavy"))));
+
+        st.close();
+    }
+    @Test
+    public void batchChildPermitsDisabled() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_BATCH_CHILD_PERMITS, false)
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_WEIGHT_PAYLOAD_KEY, "cost")
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(context, 100, 2000, 9, 2);
+
+        BatchStatement batch = BatchStatement.newInstance(DefaultBatchType.UNLOGGED,
+                SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (1)"),
+                SimpleStatement.newInstance("INSERT INTO ks.tbl (k) VALUES (2)"));
+
+        assertFalse(st.isBatchChildPermits());
+        assertEquals("cost", st.getWeightPayloadKey());
+        assertEquals(1, st.permitsFor(batch));
+        assertEquals(1, st.permitsFor(batch.setCustomPayload(weight("4"))));
+
+        st.close();
+    }
+
+    private static Map<String, ByteBuffer> weight(String value) {
+        return Collections.singletonMap(KeyspacesThrottleOption.DEFAULT_WEIGHT_PAYLOAD_KEY, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+    @Test
+    public void reloadAppliesChangedRate() {
+        TypedDriverOption<Long> maxRequestsPerSecond = new TypedDriverOption<>(DefaultDriverOption.REQUEST_THROTTLER_MAX_REQUESTS_PER_SECOND, GenericType.LONG);
+
+        OptionsMap options = OptionsMap.driverDefaults();
+        options.put(maxRequestsPerSecond, 100L);
+
+        DriverConfigLoader loader = DriverConfigLoader.fromMap(options);
+
+        InternalDriverContext context = new DefaultDriverContext(loader, ProgrammaticArguments.builder().build());
+
+        //Fires ConfigChangeEvent on the context event bus when the options change
+        loader.onDriverInit(context);
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(context);
+
+        //A programmatic change is kept by reloads that do not change the rate
+        st.setMaxRequestsPerSecond(50);
+        options.put(TypedDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(3));
+        assertEquals(50, st.getMaxRequestsPerSecond());
+
+        options.put(maxRequestsPerSecond, 300L);
+        assertEquals(300, st.getMaxRequestsPerSecond());
+
+        //Invalid values are ignored
+        options.put(maxRequestsPerSecond, 0L);
+        assertEquals(300, st.getMaxRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void setRegisterTimeoutValidated() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(10), 100, 2000, 9, 2);
+
+        st.setRegisterTimeoutInMs(1000);
+        assertEquals(1000, st.getRegisterTimeoutInMs());
+
+        //Longer than the request timeout of 5 seconds
+        assertThrows(IllegalArgumentException.class, () -> {
+            st.setRegisterTimeoutInMs(10000);
+        });
+        assertThrows(IllegalArgumentException.class, () -> {
+            st.setMaxRequestsPerSecond(-1);
+        });
+        assertEquals(1000, st.getRegisterTimeoutInMs());
+        assertEquals(100, st.getMaxRequestsPerSecond());
+
+        st.close();
+    }
+    @Test
+    public void statsCountAcquiredAndRejected() {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(nonBlockingContext(1), 1, 2000, 9, 2);
+
+        st.register(new ThrottledRequestStub());
+        st.register(new ThrottledRequestStub());
+        st.register(new ThrottledRequestStub());
+
+        assertEquals(1, st.getAcquiredCount());
+        assertEquals(1, st.getRejectedCount());
+        assertEquals(120, st.getBurstSeconds());
+        assertEquals(0.0, st.getStoredPermits(), 0.1);
+
+        st.resetStats();
+        assertEquals(0, st.getAcquiredCount());
+        assertEquals(0, st.getRejectedCount());
+
+        st.close();
+    }
+    @Test
+    public void mbeanRegisteredWhenEnabled() throws Exception {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_JMX_ENABLED, true)
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(context, 100, 2000, 9, 2);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        ObjectName name = st.getMBeanName();
+
+        assertNotNull(name);
+        assertEquals(100L, server.getAttribute(name, "MaxRequestsPerSecond"));
+
+        server.setAttribute(name, new Attribute("MaxRequestsPerSecond", 200L));
+        assertEquals(200, st.getMaxRequestsPerSecond());
+        assertNotNull(server.getAttribute(name, "ProfileStats"));
+
+        st.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static DriverContext fairContext(int maxQueueSize) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_FAIR, true)
+                .withInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, maxQueueSize)
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+    @Test
+    public void fairServesInArrivalOrder() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(fairContext(10), 10, 2000, 9, 2);
+
+        ConcurrentLinkedQueue<Integer> order = new ConcurrentLinkedQueue<>();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < 5; i++){
+            int arrival = i;
+
+            Thread thread = new Thread(() -> {
+                ThrottledRequestStub request = new ThrottledRequestStub();
+                st.register(request);
+
+                if(request.isReady()){
+                    order.add(arrival);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+
+            //Permits are 100 ms apart, so arrivals 20 ms apart are waiting together
+            Thread.sleep(20);
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        assertTrue(st.isFair());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), new ArrayList<>(order));
+        assertEquals(5, st.getAcquiredCount());
+        assertTrue(st.getWaitP99Millis() >= st.getWaitP50Millis());
+        assertTrue(st.getWaitP99Millis() > 100);
+
+        st.close();
+    }
+    @Test
+    public void lockFreeReservesWithoutLock() throws InterruptedException {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_LIMITER_ENGINE, "lock-free")
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(context, 200, 2000, 9, 2);
+
+        //Outside fair mode there is no reservation lock for the threads to contend on
+        assertFalse(st.usesReservationLock());
+
+        ConcurrentLinkedQueue<ThrottledRequestStub> requests = new ConcurrentLinkedQueue<>();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < 8; i++){
+            Thread thread = new Thread(() -> {
+                for(int j = 0; j < 10; j++){
+                    ThrottledRequestStub request = new ThrottledRequestStub();
+                    st.register(request);
+                    requests.add(request);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        assertEquals(80, requests.size());
+        assertTrue(requests.stream().allMatch(ThrottledRequestStub::isReady));
+        assertEquals(80, st.getAcquiredCount());
+
+        st.close();
+
+        AmazonKeyspacesFixedRateThrottler fair = new AmazonKeyspacesFixedRateThrottler(fairContext(10), 10, 2000, 9, 2);
+
+        assertTrue(fair.usesReservationLock());
+
+        fair.close();
+    }
+    @Test
+    public void fairRejectsBeyondMaxQueueSize() throws InterruptedException {
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(fairContext(2), 2, 3000, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+
+        st.register(first);
+        assertTrue(first.isReady());
+
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        Thread secondThread = new Thread(() -> st.register(second));
+        Thread thirdThread = new Thread(() -> st.register(third));
+
+        secondThread.start();
+        thirdThread.start();
+
+        Thread.sleep(200);
+
+        assertEquals(2, st.getQueueSize());
+
+        ThrottledRequestStub fourth = new ThrottledRequestStub();
+
+        st.register(fourth);
+        assertTrue(fourth.isFailed());
+
+        secondThread.join();
+        thirdThread.join();
+
+        assertTrue(second.isReady());
+        assertTrue(third.isReady());
+        assertEquals(0, st.getQueueSize());
+
+        st.close();
+    }
+    @Test
+    public void shadowRecordsWithoutThrottling() {
+        DriverContext context = new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withBoolean(KeyspacesThrottleOption.KEYSPACES_THROTTLE_SHADOW, true)
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .build(), ProgrammaticArguments.builder().build());
+
+        AmazonKeyspacesFixedRateThrottler st = new AmazonKeyspacesFixedRateThrottler(context, 1, 1500, 9, 2);
+
+        ThrottledRequestStub first = new ThrottledRequestStub();
+        ThrottledRequestStub second = new ThrottledRequestStub();
+        ThrottledRequestStub third = new ThrottledRequestStub();
+
+        long start = System.nanoTime();
+
+        st.register(first);
+        st.register(second);
+        st.register(third);
+
+        //Released right away, without waiting for the permit of the second request
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(st.isShadow());
+        assertTrue(first.isReady());
+        assertTrue(second.isReady());
+        assertTrue(third.isReady());
+        assertFalse(second.wasDelayed());
+
+        //The second would have waited a second, the third would have waited past the register timeout
+        ThrottlerStats defaultStats = st.getProfileStats().get("default");
+
+        assertEquals(2, defaultStats.getAcquiredCount());
+        assertEquals(1, defaultStats.getRejectedCount());
+        assertTrue(defaultStats.getMaxWaitMillis() > 900);
+
+        //Shadow outcomes stay out of the throttler counters and metrics
+        assertEquals(0, st.getAcquiredCount());
+        assertEquals(0, st.getRejectedCount());
+
+        st.close();
+    }
 }
@@ -0,0 +1,100 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class AmazonKeyspacesPerTableThrottlerTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.fromString(
+                "datastax-java-driver {\n" +
+                "  basic.request.timeout = 5 seconds\n" +
+                "  advanced.throttler {\n" +
+                "    max-requests-per-second = 100\n" +
+                "    register-timeout = 1 second\n" +
+                "    tables {\n" +
+                "      my_keyspace.hot_table = 5000\n" +
+                "      my_keyspace.cold_table = 10\n" +
+                "    }\n" +
+                "  }\n" +
+                "}"), ProgrammaticArguments.builder().build());
+    }
+
+    @Test
+    public void tableRatesFromConfig() {
+        Map<String, Long> rates = AmazonKeyspacesPerTableThrottler.readTableRates(context().getConfig().getDefaultProfile());
+
+        assertEquals(2, rates.size());
+        assertEquals(5000L, rates.get("my_keyspace.hot_table"));
+        assertEquals(10L, rates.get("my_keyspace.cold_table"));
+    }
+    @Test
+    public void configuredAndDefaultRates() {
+        AmazonKeyspacesPerTableThrottler st = new AmazonKeyspacesPerTableThrottler(context());
+
+        CqlIdentifier keyspace = CqlIdentifier.fromCql("my_keyspace");
+
+        assertEquals(5000, st.getMaxRequestsPerSecond(keyspace, CqlIdentifier.fromCql("hot_table")));
+        assertEquals(10, st.getMaxRequestsPerSecond(keyspace, CqlIdentifier.fromCql("cold_table")));
+        assertEquals(100, st.getMaxRequestsPerSecond(keyspace, CqlIdentifier.fromCql("other_table")));
+        assertEquals(100, st.getDefaultRequestsPerSecond());
+    }
+    @Test
+    public void limiterPerTable() {
+        AmazonKeyspacesPerTableThrottler st = new AmazonKeyspacesPerTableThrottler(context());
+
+        CqlIdentifier keyspace = CqlIdentifier.fromCql("my_keyspace");
+
+        assertSame(st.getLimiter(keyspace, CqlIdentifier.fromCql("hot_table")), st.getLimiter(keyspace, CqlIdentifier.fromCql("hot_table")));
+        assertNotSame(st.getLimiter(keyspace, CqlIdentifier.fromCql("hot_table")), st.getLimiter(keyspace, CqlIdentifier.fromCql("other_table")));
+        assertNotSame(st.getLimiter(keyspace, CqlIdentifier.fromCql("other_table")), st.getLimiter(keyspace, CqlIdentifier.fromCql("another_table")));
+        assertSame(st.getLimiter(null, null), st.getLimiter(keyspace, null));
+        assertEquals(10.0, st.getLimiter(keyspace, CqlIdentifier.fromCql("cold_table")).getRate(), 0.001);
+    }
+    @Test
+    public void tableFromStatement() {
+        assertEquals(CqlIdentifier.fromCql("my_keyspace"), ThrottledStatements.getKeyspace(SimpleStatement.newInstance("INSERT INTO my_keyspace.hot_table (id) VALUES (1)"), null));
+        assertEquals(CqlIdentifier.fromCql("hot_table"), ThrottledStatements.getTable(SimpleStatement.newInstance("INSERT INTO my_keyspace.hot_table (id) VALUES (1)")));
+        assertEquals(CqlIdentifier.fromCql("\"Hot\""), ThrottledStatements.getTable(SimpleStatement.newInstance("select * from my_keyspace.\"Hot\" where id = 1")));
+        assertEquals(CqlIdentifier.fromCql("hot_table"), ThrottledStatements.getTable(SimpleStatement.newInstance("UPDATE hot_table SET a = 1 WHERE id = 1")));
+        assertEquals(CqlIdentifier.fromCql("session_ks"), ThrottledStatements.getKeyspace(SimpleStatement.newInstance("UPDATE hot_table SET a = 1 WHERE id = 1"), CqlIdentifier.fromCql("session_ks")));
+        assertEquals(CqlIdentifier.fromCql("statement_ks"), ThrottledStatements.getKeyspace(SimpleStatement.newInstance("DELETE FROM hot_table WHERE id = 1").setKeyspace("statement_ks"), null));
+    }
+    @Test
+    public void registerWithoutStatement() {
+        AmazonKeyspacesPerTableThrottler st = new AmazonKeyspacesPerTableThrottler(context());
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        st.register(request);
+
+        assertTrue(request.isReady());
+    }
+    @Test
+    public void unqualifiedTableException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesPerTableThrottler(context(), 100, 1000, Collections.singletonMap("hot_table", 10L));
+        });
+    }
+    @Test
+    public void tableRateBadValueException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesPerTableThrottler(context(), 100, 1000, Collections.singletonMap("my_keyspace.hot_table", 0L));
+        });
+    }
+    @Test
+    public void timeOutGreaterThenRequestTimeout() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesPerTableThrottler(context(), 100, 10000, Collections.emptyMap());
+        });
+    }
+}
@@ -0,0 +1,121 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+
+public class AmazonKeyspacesPriorityThrottlerTest {
+
+    private static DriverContext context() {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .withStringList(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PRIORITY_BULK_PROFILES, Collections.singletonList("backfill"))
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    private static AmazonKeyspacesPriorityThrottler throttler(String mode) {
+        return new AmazonKeyspacesPriorityThrottler(context(), 100, 1000, mode, 0.5,
+                Collections.emptyList(), KeyspacesThrottleOption.DEFAULT_PRIORITY_PAYLOAD_KEY);
+    }
+
+    private static int drain(AmazonKeyspacesPriorityThrottler st, AmazonKeyspacesPriorityThrottler.Lane lane) {
+        int acquired = 0;
+
+        for(int i = 0; i < 50; i++){
+            if(st.tryAcquire(lane)){
+                acquired++;
+            }
+        }
+        return acquired;
+    }
+
+    @Test
+    public void laneFromProfileAndPayload() {
+        AmazonKeyspacesPriorityThrottler st = new AmazonKeyspacesPriorityThrottler(context());
+
+        SimpleStatement statement = SimpleStatement.newInstance("SELECT * FROM ks.tbl");
+
+        assertEquals(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE, st.laneOf(null));
+        assertEquals(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE, st.laneOf(statement));
+        assertEquals(AmazonKeyspacesPriorityThrottler.Lane.BULK, st.laneOf(statement.setExecutionProfileName("backfill")));
+
+        ByteBuffer bulk = ByteBuffer.wrap("bulk".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer interactive = ByteBuffer.wrap("interactive".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(AmazonKeyspacesPriorityThrottler.Lane.BULK, st.laneOf(statement.setCustomPayload(Collections.singletonMap(KeyspacesThrottleOption.DEFAULT_PRIORITY_PAYLOAD_KEY, bulk))));
+        assertEquals(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE, st.laneOf(statement.setExecutionProfileName("backfill")
+                .setCustomPayload(Collections.singletonMap(KeyspacesThrottleOption.DEFAULT_PRIORITY_PAYLOAD_KEY, interactive))));
+    }
+    @Test
+    public void strictKeepsInteractivePermits() throws InterruptedException {
+        AmazonKeyspacesPriorityThrottler st = throttler("strict");
+
+        Thread.sleep(200);
+
+        //Interactive traffic is active, bulk only gets its reserved share
+        assertTrue(st.tryAcquire(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE));
+
+        assertTrue(drain(st, AmazonKeyspacesPriorityThrottler.Lane.BULK) <= 14);
+
+        //Reserved bulk permits are exhausted, interactive still has its own
+        assertTrue(drain(st, AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE) >= 6);
+    }
+    @Test
+    public void weightedSharesUnusedPermits() throws InterruptedException {
+        AmazonKeyspacesPriorityThrottler st = throttler("weighted");
+
+        Thread.sleep(200);
+
+        assertTrue(st.tryAcquire(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE));
+
+        assertTrue(drain(st, AmazonKeyspacesPriorityThrottler.Lane.BULK) >= 16);
+    }
+    @Test
+    public void unusedBulkPermitsFlowToInteractive() throws InterruptedException {
+        AmazonKeyspacesPriorityThrottler st = throttler("strict");
+
+        Thread.sleep(200);
+
+        assertTrue(drain(st, AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE) >= 16);
+    }
+    @Test
+    public void registerWithoutStatement() {
+        AmazonKeyspacesPriorityThrottler st = new AmazonKeyspacesPriorityThrottler(context());
+
+        ThrottledRequestStub request = new ThrottledRequestStub();
+
+        st.register(request);
+
+        assertTrue(request.isReady());
+        assertEquals(0, st.getWaiting(AmazonKeyspacesPriorityThrottler.Lane.INTERACTIVE));
+    }
+    @Test
+    public void configDefaults() {
+        AmazonKeyspacesPriorityThrottler st = new AmazonKeyspacesPriorityThrottler(context());
+
+        assertEquals(AmazonKeyspacesPriorityThrottler.Mode.STRICT, st.getMode());
+        assertEquals(KeyspacesThrottleOption.DEFAULT_PRIORITY_BULK_MIN_SHARE, st.getBulkMinShare(), 0.0001);
+    }
+    @Test
+    public void shareBadValueException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesPriorityThrottler(context(), 100, 1000, "strict", 1.0, Collections.emptyList(), "key");
+        });
+    }
+    @Test
+    public void modeBadValueException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesPriorityThrottler(context(), 100, 1000, "fifo", 0.1, Collections.emptyList(), "key");
+        });
+    }
+}
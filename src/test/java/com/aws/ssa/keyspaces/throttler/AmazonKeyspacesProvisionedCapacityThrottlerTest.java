@@ -0,0 +1,96 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.session.ProgrammaticArguments;
+import com.datastax.oss.driver.internal.core.context.DefaultDriverContext;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AmazonKeyspacesProvisionedCapacityThrottlerTest {
+
+    private static DriverContext context(String keyspace, String table) {
+        return new DefaultDriverContext(DriverConfigLoader.programmaticBuilder()
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofSeconds(5))
+                .withLong(KeyspacesThrottleOption.KEYSPACES_THROTTLE_MAX_WRITE_UNITS_PER_SECOND, 500)
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PROVISIONED_KEYSPACE, keyspace)
+                .withString(KeyspacesThrottleOption.KEYSPACES_THROTTLE_PROVISIONED_TABLE, table)
+                .build(), ProgrammaticArguments.builder().build());
+    }
+
+    private static Map<String, String> capacityMode(String mode, String read, String write) {
+        Map<String, String> capacityMode = new HashMap<>();
+
+        capacityMode.put(AmazonKeyspacesProvisionedCapacityThrottler.THROUGHPUT_MODE, mode);
+        capacityMode.put(AmazonKeyspacesProvisionedCapacityThrottler.READ_CAPACITY_UNITS, read);
+        capacityMode.put(AmazonKeyspacesProvisionedCapacityThrottler.WRITE_CAPACITY_UNITS, write);
+
+        return capacityMode;
+    }
+
+    @Test
+    public void provisionedCapacitySetsRates() {
+        AmazonKeyspacesProvisionedCapacityThrottler st = new AmazonKeyspacesProvisionedCapacityThrottler(context("my_keyspace", "my_table"));
+
+        try {
+            assertEquals(500, st.getMaxWriteUnitsPerSecond());
+            assertFalse(st.isLoaded());
+
+            assertTrue(st.applyCapacityMode(capacityMode("PROVISIONED", "3000", "1500")));
+
+            assertEquals(3000, st.getMaxReadUnitsPerSecond());
+            assertEquals(1500, st.getMaxWriteUnitsPerSecond());
+        } finally {
+            st.close();
+        }
+    }
+    @Test
+    public void onDemandKeepsConfiguredRates() {
+        AmazonKeyspacesProvisionedCapacityThrottler st = new AmazonKeyspacesProvisionedCapacityThrottler(context("my_keyspace", "my_table"));
+
+        try {
+            assertFalse(st.applyCapacityMode(capacityMode("PAY_PER_REQUEST", null, null)));
+            assertFalse(st.applyCapacityMode(null));
+            assertFalse(st.applyCapacityMode(capacityMode("PROVISIONED", "0", "abc")));
+
+            assertEquals(500, st.getMaxWriteUnitsPerSecond());
+            assertEquals(KeyspacesThrottleOption.DEFAULT_MAX_READ_UNITS_PER_SECOND, st.getMaxReadUnitsPerSecond());
+        } finally {
+            st.close();
+        }
+    }
+    @Test
+    public void retryBackoffIsBounded() {
+        assertEquals(1000, AmazonKeyspacesProvisionedCapacityThrottler.retryDelayMillis(1));
+        assertEquals(2000, AmazonKeyspacesProvisionedCapacityThrottler.retryDelayMillis(2));
+        assertEquals(32000, AmazonKeyspacesProvisionedCapacityThrottler.retryDelayMillis(6));
+        assertEquals(60000, AmazonKeyspacesProvisionedCapacityThrottler.retryDelayMillis(7));
+        assertEquals(60000, AmazonKeyspacesProvisionedCapacityThrottler.retryDelayMillis(100));
+    }
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        AmazonKeyspacesProvisionedCapacityThrottler st = new AmazonKeyspacesProvisionedCapacityThrottler(context("my_keyspace", "missing_table"));
+
+        try {
+            for(int i = 1; i < AmazonKeyspacesProvisionedCapacityThrottler.MAX_LOAD_ATTEMPTS; i++){
+                assertTrue(st.recordFailedAttempt());
+            }
+            assertFalse(st.recordFailedAttempt());
+            assertTrue(st.isAbandoned());
+            assertEquals(500, st.getMaxWriteUnitsPerSecond());
+        } finally {
+            st.close();
+        }
+    }
+    @Test
+    public void missingTableException() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new AmazonKeyspacesProvisionedCapacityThrottler(context("my_keyspace", ""));
+        });
+    }
+}
@@ -0,0 +1,215 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LockFreeRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void permitsGeneratedAtRate() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 120);
+
+        //First permit is free, the next one is paid for by waiting
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        ticker.addAndGet(SECOND / 10);
+
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+    @Test
+    public void unusedPermitsStoredForBurstWindow() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 2);
+
+        ticker.addAndGet(10 * SECOND);
+
+        //Only two seconds of permits are stored
+        assertTrue(limiter.tryAcquire(20, 0, TimeUnit.MILLISECONDS));
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+    @Test
+    public void timeoutRejectsLongWaits() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 1, 1);
+
+        assertTrue(limiter.tryAcquire(5, 0, TimeUnit.MILLISECONDS));
+
+        //Five seconds of debt must be paid before the next permit
+        assertFalse(limiter.tryAcquire(1, 4, TimeUnit.SECONDS));
+
+        ticker.addAndGet(5 * SECOND);
+
+        assertTrue(limiter.tryAcquire());
+    }
+    @Test
+    public void timedAcquireWaits() {
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(20, 1);
+
+        assertTrue(limiter.tryAcquire());
+
+        long start = System.nanoTime();
+
+        assertTrue(limiter.tryAcquire(1, 1, TimeUnit.SECONDS));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+    @Test
+    public void setRate() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 1);
+
+        assertEquals(10.0, limiter.getRate(), 0.0001);
+
+        limiter.setRate(100);
+
+        assertEquals(100.0, limiter.getRate(), 0.0001);
+
+        ticker.addAndGet(SECOND);
+
+        assertTrue(limiter.tryAcquire(100, 0, TimeUnit.MILLISECONDS));
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.setRate(0));
+    }
+    @Test
+    public void concurrentAcquireDoesNotExceedRate() throws InterruptedException {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 1000, 1);
+
+        ticker.addAndGet(SECOND);
+
+        AtomicInteger acquired = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < 8; i++){
+            Thread thread = new Thread(() -> {
+                for(int j = 0; j < 1000; j++){
+                    if(limiter.tryAcquire()){
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        //One second of stored permits plus the permit that may be borrowed
+        assertEquals(1001, acquired.get());
+    }
+    @Test
+    public void projectedWait() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 1);
+
+        assertEquals(0, limiter.getProjectedWaitNanos(1));
+        assertEquals(SECOND / 10, limiter.getProjectedWaitNanos(2));
+
+        assertTrue(limiter.tryAcquire(5, 0, TimeUnit.MILLISECONDS));
+
+        assertEquals(SECOND / 2, limiter.getProjectedWaitNanos(1));
+
+        ticker.addAndGet(2 * SECOND);
+
+        //One second of stored permits covers the next ten
+        assertEquals(0, limiter.getProjectedWaitNanos(10));
+    }
+    @Test
+    public void guavaProjectedWait() {
+        PermitLimiter limiter = RateLimiterEngine.GUAVA.create(1, 1);
+
+        assertEquals(0, limiter.getProjectedWaitNanos(1));
+        assertTrue(limiter.tryAcquire());
+
+        long projected = limiter.getProjectedWaitNanos(1);
+
+        assertTrue(projected > TimeUnit.MILLISECONDS.toNanos(900) && projected <= SECOND);
+        assertTrue(limiter.getProjectedWaitNanos(3) > 2 * TimeUnit.MILLISECONDS.toNanos(900) + SECOND);
+    }
+    @Test
+    public void engineFromConfig() {
+        assertEquals(RateLimiterEngine.LOCK_FREE, RateLimiterEngine.fromConfig("lock-free"));
+        assertEquals(RateLimiterEngine.GUAVA, RateLimiterEngine.fromConfig("GUAVA"));
+        assertTrue(RateLimiterEngine.LOCK_FREE.create(10, 1) instanceof LockFreeRateLimiter);
+        assertThrows(IllegalArgumentException.class, () -> RateLimiterEngine.fromConfig("striped"));
+    }
+    @Test
+    public void reserveChargesFollowingRequests() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 1);
+
+        //First reservation is free, its extra permits are paid for by the next one
+        assertEquals(0, limiter.reserve(5));
+        assertEquals(5 * SECOND / 10, limiter.reserve(1));
+        assertEquals(6 * SECOND / 10, limiter.getProjectedWaitNanos(1));
+    }
+    @Test
+    public void reserveBadValueException() {
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(10, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            limiter.reserve(0);
+        });
+    }
+    @Test
+    public void tryReserveWithinTimeout() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 1);
+
+        assertEquals(0, limiter.tryReserve(5, 0));
+
+        //Half a second of debt is over the timeout, so nothing is reserved
+        assertEquals(-1, limiter.tryReserve(1, SECOND / 4));
+        assertEquals(SECOND / 2, limiter.getProjectedWaitNanos(1));
+
+        assertEquals(SECOND / 2, limiter.tryReserve(1, SECOND));
+    }
+    @Test
+    public void refundReturnsPermits() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        LockFreeRateLimiter limiter = new LockFreeRateLimiter(ticker::get, 10, 1);
+
+        assertEquals(0, limiter.tryReserve(5, 0));
+        assertEquals(SECOND / 2, limiter.getProjectedWaitNanos(1));
+
+        limiter.refund(5);
+
+        assertEquals(0, limiter.getProjectedWaitNanos(1));
+    }
+    @Test
+    public void guavaRefundReturnsPermits() {
+        PermitLimiter limiter = RateLimiterEngine.GUAVA.create(1, 1);
+
+        assertTrue(limiter.tryReserve(1, 0) >= 0);
+        assertEquals(-1, limiter.tryReserve(1, 0));
+
+        //The refunded permit is used by the next reservation
+        limiter.refund(1);
+
+        assertEquals(0, limiter.getProjectedWaitNanos(1));
+        assertEquals(0, limiter.tryReserve(1, 0));
+        assertEquals(-1, limiter.tryReserve(1, 0));
+    }
+}
@@ -0,0 +1,127 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateCoordinatorTest {
+
+    @Test
+    public void allocateSplitsEvenlyWhenAllBusy() {
+        Map<String, Double> demands = new HashMap<>();
+        demands.put("a", 1000.0);
+        demands.put("b", 1000.0);
+        demands.put("c", 1000.0);
+        demands.put("d", 1000.0);
+
+        Map<String, Double> grants = RateAllocator.allocate(1000, demands, 0.1);
+
+        assertEquals(250.0, grants.get("a"), 0.001);
+        assertEquals(250.0, grants.get("d"), 0.001);
+    }
+    @Test
+    public void allocateGivesIdleShareToBusyMembers() {
+        Map<String, Double> demands = new HashMap<>();
+        demands.put("busy", 1000.0);
+        demands.put("light", 100.0);
+        demands.put("idle", 0.0);
+
+        Map<String, Double> grants = RateAllocator.allocate(1000, demands, 0.1);
+
+        //The idle member keeps a tenth of an equal share, the light member gets its demand, the busy member the rest
+        assertEquals(1000.0 / 3 * 0.1, grants.get("idle"), 0.001);
+        assertEquals(100.0, grants.get("light"), 0.001);
+        assertEquals(1000.0 - 100.0 - 1000.0 / 3 * 0.1, grants.get("busy"), 0.001);
+    }
+    @Test
+    public void allocateSpreadsUnusedRate() {
+        Map<String, Double> demands = new HashMap<>();
+        demands.put("a", 100.0);
+        demands.put("b", 300.0);
+
+        Map<String, Double> grants = RateAllocator.allocate(1000, demands, 0.1);
+
+        assertEquals(400.0, grants.get("a"), 0.001);
+        assertEquals(600.0, grants.get("b"), 0.001);
+    }
+    @Test
+    public void inMemoryRebalancesAsMembersJoinAndLeave() {
+        InMemoryRateCoordinator coordinator = new InMemoryRateCoordinator(15000, 0.1);
+
+        assertEquals(1000.0, coordinator.lease("a", 1000, 1000), 0.001);
+        assertEquals(500.0, coordinator.lease("b", 1000, 1000), 0.001);
+        assertEquals(500.0, coordinator.lease("a", 1000, 1000), 0.001);
+        assertEquals(2, coordinator.getMembers());
+
+        coordinator.leave("b");
+
+        assertEquals(1000.0, coordinator.lease("a", 1000, 1000), 0.001);
+        assertEquals(1, coordinator.getMembers());
+    }
+    @Test
+    public void inMemoryExpiresMembersThatStopRenewing() {
+        AtomicLong ticker = new AtomicLong(0);
+
+        InMemoryRateCoordinator coordinator = new InMemoryRateCoordinator(ticker::get, 15000, 0.1);
+
+        coordinator.lease("a", 1000, 1000);
+        coordinator.lease("b", 1000, 1000);
+
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(500.0, coordinator.lease("a", 1000, 1000), 0.001);
+
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        //b last renewed 20 seconds ago
+        assertEquals(1000.0, coordinator.lease("a", 1000, 1000), 0.001);
+        assertEquals(1, coordinator.getMembers());
+    }
+    @Test
+    public void fileSharesLeasesBetweenCoordinators(@TempDir Path dir) throws Exception {
+        AtomicLong clock = new AtomicLong(1_000_000);
+
+        Path file = dir.resolve("group.lease");
+
+        FileRateCoordinator first = new FileRateCoordinator(file, clock::get, 15000, 0.1);
+        FileRateCoordinator second = new FileRateCoordinator(file, clock::get, 15000, 0.1);
+
+        assertEquals(1000.0, first.lease("a", 1000, 1000), 0.001);
+        assertEquals(500.0, second.lease("b", 1000, 1000), 0.001);
+
+        //a is idle, so b gets most of the rate
+        assertEquals(50.0, first.lease("a", 0, 1000), 0.001);
+        assertEquals(950.0, second.lease("b", 1000, 1000), 0.001);
+
+        first.leave("a");
+
+        assertEquals(1000.0, second.lease("b", 1000, 1000), 0.001);
+        assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+        clock.addAndGet(20000);
+
+        //b expired, and the malformed line is skipped
+        Files.write(file, "garbage\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(1000.0, first.lease("a", 10, 1000), 0.001);
+        assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+    @Test
+    public void badValuesException(@TempDir Path dir) {
+        assertThrows(IllegalArgumentException.class, () -> {
+            new InMemoryRateCoordinator(0, 0.1);
+        });
+        assertThrows(IllegalArgumentException.class, () -> {
+            new FileRateCoordinator(dir.resolve("group.lease"), 15000, 1.5);
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package com.aws.ssa.keyspaces.throttler;
+
+import com.datastax.oss.driver.api.core.RequestThrottlingException;
+import com.datastax.oss.driver.api.core.session.throttling.Throttled;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Records the outcome of a throttled request so tests can wait on the throttler decision
+ */
+public class ThrottledRequestStub implements Throttled {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile Boolean wasDelayed;
+
+    private volatile RequestThrottlingException error;
+
+    @Override
+    public void onThrottleReady(boolean wasDelayed) {
+        this.wasDelayed = wasDelayed;
+        done.countDown();
+    }
+
+    @Override
+    public void onThrottleFailure(@NonNull RequestThrottlingException error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    public boolean await(long timeoutInMs) throws InterruptedException {
+        return done.await(timeoutInMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isReady() {
+        return wasDelayed != null;
+    }
+
+    public boolean wasDelayed() {
+        return Boolean.TRUE.equals(wasDelayed);
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+}